@@ -1,17 +1,48 @@
 package it.lockless.psidemoserver.config;
 
+import it.lockless.psidemoserver.service.cache.AdmissionPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.BulkPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.CircuitBreakerPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.MappedFilePsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.NearCachePsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.PsiCacheCodec;
 import it.lockless.psidemoserver.service.cache.RedisPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.ShardedPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.WriteBehindPsiCacheProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 import psi.cache.PsiCacheProvider;
-import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /**
- * Configuration of the PsiCacheProvider implementation based on redis.
- * If the redis server is not reachable at the specified endpoint, the cache is not used.
+ * Configuration of the PsiCacheProvider implementation, selected through cache.type:
+ * - redis (default): cache based on redis, behind a circuit breaker. Operations taking more than
+ *   redis.timeout.mseconds fail, and after redis.failure.threshold consecutive failures (or if redis is not reachable
+ *   when the server starts) the cache is not used, until a health check, run every redis.probe.interval.mseconds,
+ *   finds redis reachable again. Entries expire after redis.ttl.seconds (0 if they never expire). Keys and values
+ *   are stored in the compact binary format of PsiCacheCodec, where values of at least redis.compression.min.bytes
+ *   bytes are compressed (0 disables compression). If cache.near.max.bytes is greater than 0, the most recently used
+ *   entries are also kept in memory by a NearCachePsiCacheProvider in front of redis.
+ *   If redis.nodes lists several nodes (host:port, separated by commas), the keys are distributed over them by
+ *   consistent hashing with redis.virtual.nodes positions per node, each node having its own circuit breaker.
+ *   Otherwise, the single node at redis.host and redis.port is used.
+ *   If redis.write.behind.capacity is greater than 0, writes to redis are queued into a buffer of that many entries
+ *   and flushed in the background in batches of redis.batch.size, so that the encryption does not wait for redis.
+ *   When the buffer is full, new writes are dropped (redis.write.behind.policy = drop) or wait for the buffer to have
+ *   room (redis.write.behind.policy = block).
+ * - local: cache stored in a memory-mapped file on the local disk (cache.local.path) of cache.local.max.bytes bytes,
+ *   which survives the restarts of the server and does not require any external service.
+ * - none: the cache is not used.
+ * If cache.admission.min.frequency is greater than 0, a key is written to the cache only if it has been recently
+ * looked up at least cache.admission.min.frequency times, so that one-off values do not evict the hot entries.
  *
  * Helpful commands to run redis locally with docker:
  * Create redis docker: docker run --name redis -p 6379:6379 -d redis
@@ -25,20 +56,108 @@ public class CacheConfig {
 
     private static final Logger log = LoggerFactory.getLogger(CacheConfig.class);
 
+    @Value("${cache.type:redis}")
+    private String cacheType;
+
     @Value("${redis.host:localhost}")
     private String host;
 
     @Value("${redis.port:6379}")
     private int port;
 
+    @Value("${redis.nodes:}")
+    private String nodes;
+
+    @Value("${redis.virtual.nodes:160}")
+    private int virtualNodes;
+
+    @Value("${redis.timeout.mseconds:200}")
+    private int timeoutMillis;
+
+    @Value("${redis.failure.threshold:3}")
+    private int failureThreshold;
+
+    @Value("${redis.probe.interval.mseconds:5000}")
+    private long probeIntervalMillis;
+
+    @Value("${redis.batch.size:1000}")
+    private int batchSize;
+
+    @Value("${redis.ttl.seconds:604800}")
+    private long ttlSeconds;
+
+    @Value("${redis.compression.min.bytes:256}")
+    private int compressionMinBytes;
+
+    @Value("${redis.write.behind.capacity:100000}")
+    private int writeBehindCapacity;
+
+    @Value("${redis.write.behind.policy:drop}")
+    private String writeBehindPolicy;
+
+    @Value("${cache.near.max.bytes:67108864}")
+    private long nearCacheMaxBytes;
+
+    @Value("${cache.local.path:psi-cache.dat}")
+    private String localCachePath;
+
+    @Value("${cache.local.max.bytes:268435456}")
+    private long localCacheMaxBytes;
+
+    @Value("${cache.admission.min.frequency:2}")
+    private int admissionMinFrequency;
+
+    @Value("${cache.admission.expected.entries:1048576}")
+    private int admissionExpectedEntries;
+
     @Bean
-    public PsiCacheProvider createCache() {
-        log.info("Connecting to redis at host = {}, post = {}", host, port);
-        try {
-            return new RedisPsiCacheProvider(host, port);
-        } catch (JedisConnectionException e){
-            log.info("Redis is not reachable, continuing without cache");
-            return null;
+    public PsiCacheProvider createCache() throws IOException {
+        PsiCacheProvider psiCacheProvider;
+        switch (cacheType.toLowerCase(Locale.ROOT)) {
+            case "none":
+                log.info("The cache is disabled");
+                return null;
+            case "local":
+                log.info("Using the local cache stored in {}, maxBytes = {}", localCachePath, localCacheMaxBytes);
+                psiCacheProvider = new MappedFilePsiCacheProvider(Paths.get(localCachePath), localCacheMaxBytes);
+                break;
+            case "redis":
+                psiCacheProvider = createRedisCache();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported cache type " + cacheType);
         }
+        if (admissionMinFrequency > 0)
+            return new AdmissionPsiCacheProvider(psiCacheProvider, admissionMinFrequency, admissionExpectedEntries);
+        return psiCacheProvider;
+    }
+
+    private PsiCacheProvider createRedisCache() {
+        Map<String, CircuitBreakerPsiCacheProvider> redisNodes = new LinkedHashMap<>();
+        String nodeList = nodes.trim().isEmpty() ? host + ":" + port : nodes;
+        for (String node : nodeList.split(",")) {
+            String[] hostAndPort = node.trim().split(":");
+            if (hostAndPort.length != 2)
+                throw new IllegalArgumentException("Invalid redis node " + node + ", expected host:port");
+            redisNodes.put(node.trim(), createRedisNode(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+        }
+
+        BulkPsiCacheProvider redisPsiCacheProvider = redisNodes.size() == 1
+                ? redisNodes.values().iterator().next()
+                : new ShardedPsiCacheProvider(redisNodes, virtualNodes);
+        if (!redisPsiCacheProvider.isAvailable())
+            log.info("Set cache.type = local to use a local cache instead, or cache.type = none to disable the cache");
+        if (writeBehindCapacity > 0)
+            redisPsiCacheProvider = new WriteBehindPsiCacheProvider(redisPsiCacheProvider, writeBehindCapacity, batchSize,
+                    WriteBehindPsiCacheProvider.FullBufferPolicy.valueOf(writeBehindPolicy.toUpperCase(Locale.ROOT)));
+        if (nearCacheMaxBytes > 0)
+            return new NearCachePsiCacheProvider(redisPsiCacheProvider, nearCacheMaxBytes, ttlSeconds);
+        return redisPsiCacheProvider;
+    }
+
+    private CircuitBreakerPsiCacheProvider createRedisNode(String nodeHost, int nodePort) {
+        log.info("Connecting to redis at host = {}, post = {}", nodeHost, nodePort);
+        RedisPsiCacheProvider redisPsiCacheProvider = new RedisPsiCacheProvider(nodeHost, nodePort, timeoutMillis, batchSize, ttlSeconds, new PsiCacheCodec(compressionMinBytes));
+        return new CircuitBreakerPsiCacheProvider(redisPsiCacheProvider, redisPsiCacheProvider::ping, failureThreshold, probeIntervalMillis);
     }
 }
@@ -0,0 +1,101 @@
+package it.lockless.psidemoserver.config;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the metrics of the database connection pool: time spent by the threads waiting for a connection,
+ * number of connections in use and number of requests that could not get a connection within the timeout.
+ */
+
+public class DataSourcePoolMetrics implements MetricsTrackerFactory, IMetricsTracker {
+
+    private final LongAdder acquiredConnections = new LongAdder();
+
+    private final LongAdder acquireWaitNanos = new LongAdder();
+
+    private final AtomicLong maxAcquireWaitNanos = new AtomicLong();
+
+    private final LongAdder connectionTimeouts = new LongAdder();
+
+    private final LongAdder createdConnections = new LongAdder();
+
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return this;
+    }
+
+    @Override
+    public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+        createdConnections.increment();
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        acquiredConnections.increment();
+        acquireWaitNanos.add(elapsedAcquiredNanos);
+        maxAcquireWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+        connectionTimeouts.increment();
+    }
+
+    public long getAcquiredConnections() {
+        return acquiredConnections.sum();
+    }
+
+    public double getAverageAcquireWaitMillis() {
+        long acquired = acquiredConnections.sum();
+        if (acquired == 0)
+            return 0;
+        return (double) TimeUnit.NANOSECONDS.toMicros(acquireWaitNanos.sum()) / acquired / 1000;
+    }
+
+    public double getMaxAcquireWaitMillis() {
+        return (double) TimeUnit.NANOSECONDS.toMicros(maxAcquireWaitNanos.get()) / 1000;
+    }
+
+    public long getConnectionTimeouts() {
+        return connectionTimeouts.sum();
+    }
+
+    public long getCreatedConnections() {
+        return createdConnections.sum();
+    }
+
+    public int getActiveConnections() {
+        return poolStats == null ? 0 : poolStats.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        return poolStats == null ? 0 : poolStats.getIdleConnections();
+    }
+
+    public int getPendingThreads() {
+        return poolStats == null ? 0 : poolStats.getPendingThreads();
+    }
+
+    @Override
+    public String toString() {
+        return "DataSourcePoolMetrics{" +
+                "activeConnections=" + getActiveConnections() +
+                ", idleConnections=" + getIdleConnections() +
+                ", pendingThreads=" + getPendingThreads() +
+                ", acquiredConnections=" + getAcquiredConnections() +
+                ", averageAcquireWaitMillis=" + getAverageAcquireWaitMillis() +
+                ", maxAcquireWaitMillis=" + getMaxAcquireWaitMillis() +
+                ", connectionTimeouts=" + getConnectionTimeouts() +
+                ", createdConnections=" + getCreatedConnections() +
+                '}';
+    }
+}
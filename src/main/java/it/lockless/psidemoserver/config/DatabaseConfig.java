@@ -1,18 +1,20 @@
 package it.lockless.psidemoserver.config;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
 import javax.sql.DataSource;
 
 /**
- * Database configuration.
- * Note: this configuration runs the DB in-memory and it is intended to be used only for testing purpose.
- * Replace with a proper stable-storage DB to use it in a business environment.
+ * Database configuration based on a pool of connections.
+ * Note: by default, this configuration runs the DB in-memory and it is intended to be used only for testing purpose.
+ * To use it in a business environment, set db.host to the url of a proper stable-storage DB
+ * (e.g., jdbc:postgresql://host:5432/psi) together with db.username and db.password.
  */
 
 @Configuration
@@ -20,18 +22,59 @@ public class DatabaseConfig {
 
     private static final Logger log = LoggerFactory.getLogger(DatabaseConfig.class);
 
+    private static final String H2_URL_PREFIX = "jdbc:h2:";
+
+    private static final String POSTGRESQL_URL_PREFIX = "jdbc:postgresql:";
+
     @Value("${db.host}")
     private String dbUrl;
 
+    @Value("${db.username:}")
+    private String dbUsername;
+
+    @Value("${db.password:}")
+    private String dbPassword;
+
+    @Value("${db.pool.min:2}")
+    private int poolMinimumIdle;
+
+    @Value("${db.pool.max:10}")
+    private int poolMaximumSize;
+
+    @Value("${db.pool.connection.timeout.mseconds:30000}")
+    private long poolConnectionTimeout;
+
+    @Value("${db.statement.cache.size:256}")
+    private int statementCacheSize;
+
+    @Bean
+    public DataSourcePoolMetrics dataSourcePoolMetrics() {
+        return new DataSourcePoolMetrics();
+    }
+
     @Bean
     public DataSource getDataSource() {
-        log.info("Calling getDataSource");
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
-        dataSource.setDriverClassName("org.h2.Driver");
-        dataSource.setUrl("jdbc:h2:mem:db;DB_CLOSE_DELAY=-1;MODE=PostgreSQL");
-        dataSource.setUsername("");
-        dataSource.setPassword("");
-        return dataSource;
+        log.info("Calling getDataSource with dbUrl = {}, poolMinimumIdle = {}, poolMaximumSize = {}", dbUrl, poolMinimumIdle, poolMaximumSize);
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("psi-db-pool");
+        hikariConfig.setJdbcUrl(dbUrl);
+        hikariConfig.setUsername(dbUsername);
+        hikariConfig.setPassword(dbPassword);
+        hikariConfig.setMinimumIdle(poolMinimumIdle);
+        hikariConfig.setMaximumPoolSize(poolMaximumSize);
+        hikariConfig.setConnectionTimeout(poolConnectionTimeout);
+        hikariConfig.setMetricsTrackerFactory(dataSourcePoolMetrics());
+
+        // Statements are cached by the driver, hence the setting depends on the database in use
+        if (dbUrl.startsWith(POSTGRESQL_URL_PREFIX)) {
+            hikariConfig.addDataSourceProperty("preparedStatementCacheQueries", statementCacheSize);
+            hikariConfig.addDataSourceProperty("prepareThreshold", 1);
+            // Allows the driver to send a batch of inserts as a single multi-row statement
+            hikariConfig.addDataSourceProperty("reWriteBatchedInserts", true);
+        } else if (dbUrl.startsWith(H2_URL_PREFIX)) {
+            hikariConfig.addDataSourceProperty("QUERY_CACHE_SIZE", statementCacheSize);
+        }
+        return new HikariDataSource(hikariConfig);
     }
 
 }
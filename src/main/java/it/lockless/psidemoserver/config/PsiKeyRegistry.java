@@ -0,0 +1,216 @@
+package it.lockless.psidemoserver.config;
+
+import it.lockless.psidemoserver.entity.enumeration.Algorithm;
+import it.lockless.psidemoserver.mapper.AlgorithmMapper;
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import psi.PsiServerKeyDescription;
+import psi.PsiServerKeyDescriptionFactory;
+import psi.model.PsiAlgorithm;
+import psi.model.PsiServerSession;
+
+import java.util.*;
+
+/**
+ * In-memory index of the keys of the keyStore, holding for each key its pre-parsed PsiServerKeyDescription and the
+ * PsiServerSession objects built from it, so that sessions are initialized and loaded without parsing the key again.
+ * Keys are indexed by keyId and by the pair <algorithm, keySize>, each pair being associated to the last key
+ * registered for it (i.e., the last one stored into the keyStore), so that a key is rotated by storing a new key for
+ * the same pair. Sessions of the previous key keep working, since keys remain indexed by keyId.
+ * Both indexes are immutable: registering a key builds new indexes, published through a volatile field,
+ * hence lookups neither lock nor allocate.
+ */
+
+@Component
+public class PsiKeyRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(PsiKeyRegistry.class);
+
+    /**
+     * Immutable key of the keyStore, with the objects required by the sdk to use it.
+     */
+    public static final class RegisteredKey {
+
+        private final long keyId;
+
+        private final Algorithm algorithm;
+
+        private final int keySize;
+
+        private final PsiServerKeyDescription psiServerKeyDescription;
+
+        private final PsiServerSession cachedPsiServerSession;
+
+        private final PsiServerSession uncachedPsiServerSession;
+
+        private RegisteredKey(PsiKey psiKey) {
+            this.keyId = psiKey.getKeyId();
+            this.algorithm = psiKey.getAlgorithm();
+            this.keySize = psiKey.getKeySize();
+            this.psiServerKeyDescription = buildPsiServerKeyDescription(psiKey);
+            PsiAlgorithm psiAlgorithm = AlgorithmMapper.toPsiAlgorithm(algorithm);
+            this.cachedPsiServerSession = new PsiServerSession(psiAlgorithm, keySize, true, psiServerKeyDescription);
+            this.uncachedPsiServerSession = new PsiServerSession(psiAlgorithm, keySize, false, psiServerKeyDescription);
+        }
+
+        public long getKeyId() {
+            return keyId;
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public int getKeySize() {
+            return keySize;
+        }
+
+        public PsiServerKeyDescription getPsiServerKeyDescription() {
+            return psiServerKeyDescription;
+        }
+
+        /**
+         * @param cacheEnabled  whether the session uses the cache
+         * @return the PsiServerSession of a session using this key
+         */
+        public PsiServerSession getPsiServerSession(boolean cacheEnabled) {
+            return cacheEnabled ? cachedPsiServerSession : uncachedPsiServerSession;
+        }
+
+        @Override
+        public String toString() {
+            return "RegisteredKey{" +
+                    "keyId=" + keyId +
+                    ", algorithm=" + algorithm +
+                    ", keySize=" + keySize +
+                    '}';
+        }
+    }
+
+    /**
+     * Immutable indexes of the registered keys.
+     */
+    private static final class Indexes {
+
+        private final Map<Long, RegisteredKey> byKeyId;
+
+        // For each algorithm, the keys of its supported key sizes, in the same order as supportedKeySizes
+        private final EnumMap<Algorithm, RegisteredKey[]> byAlgorithm;
+
+        private Indexes(Map<Long, RegisteredKey> byKeyId, EnumMap<Algorithm, RegisteredKey[]> byAlgorithm) {
+            this.byKeyId = byKeyId;
+            this.byAlgorithm = byAlgorithm;
+        }
+    }
+
+    private static final EnumMap<Algorithm, int[]> supportedKeySizes = new EnumMap<>(Algorithm.class);
+
+    static {
+        for (Algorithm algorithm : Algorithm.values())
+            supportedKeySizes.put(algorithm, algorithm.getSupportedKeySize().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private volatile Indexes indexes;
+
+    /**
+     * Registers all the keys of the keyStore.
+     * @param storedAlgorithmKey the keyStore
+     */
+    public PsiKeyRegistry(StoredAlgorithmKey storedAlgorithmKey) {
+        EnumMap<Algorithm, RegisteredKey[]> byAlgorithm = new EnumMap<>(Algorithm.class);
+        for (Algorithm algorithm : Algorithm.values())
+            byAlgorithm.put(algorithm, new RegisteredKey[supportedKeySizes.get(algorithm).length]);
+        Indexes emptyIndexes = new Indexes(Collections.emptyMap(), byAlgorithm);
+        this.indexes = index(emptyIndexes, storedAlgorithmKey.findAll());
+        log.info("Registered {} keys", indexes.byKeyId.size());
+    }
+
+    /**
+     * Builds the PsiServerKeyDescription corresponding to a PsiKey.
+     */
+    private static PsiServerKeyDescription buildPsiServerKeyDescription(PsiKey psiKey) {
+        switch (psiKey.getAlgorithm()) {
+            case BS:
+                return PsiServerKeyDescriptionFactory.createBsServerKeyDescription(psiKey.getPrivateKey(), psiKey.getPublicKey(), psiKey.getModulus());
+            case DH:
+                return PsiServerKeyDescriptionFactory.createDhServerKeyDescription(psiKey.getPrivateKey(), psiKey.getModulus(), psiKey.getGenerator());
+            case ECBS:
+                return PsiServerKeyDescriptionFactory.createEcBsServerKeyDescription(psiKey.getPrivateKey(), psiKey.getPublicKey());
+            case ECDH:
+                return PsiServerKeyDescriptionFactory.createEcDhServerKeyDescription(psiKey.getPrivateKey());
+            default:
+                throw new CustomRuntimeException("The algorithm "+psiKey.getAlgorithm()+" is not supported");
+        }
+    }
+
+    /**
+     * @return the position of the keySize among the supported key sizes of the algorithm, -1 if not supported
+     */
+    private static int keySizeIndex(Algorithm algorithm, int keySize) {
+        int[] keySizes = supportedKeySizes.get(algorithm);
+        for (int i = 0; i < keySizes.length; i++)
+            if (keySizes[i] == keySize)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Builds new indexes containing the keys of the input indexes and the input keys.
+     */
+    private static Indexes index(Indexes indexes, Collection<PsiKey> psiKeys) {
+        Map<Long, RegisteredKey> byKeyId = new HashMap<>(indexes.byKeyId);
+        EnumMap<Algorithm, RegisteredKey[]> byAlgorithm = new EnumMap<>(Algorithm.class);
+        indexes.byAlgorithm.forEach((algorithm, keys) -> byAlgorithm.put(algorithm, keys.clone()));
+        for (PsiKey psiKey : psiKeys) {
+            if (byKeyId.containsKey(psiKey.getKeyId()))
+                continue;
+            RegisteredKey registeredKey = new RegisteredKey(psiKey);
+            byKeyId.put(registeredKey.getKeyId(), registeredKey);
+            int keySizeIndex = keySizeIndex(registeredKey.getAlgorithm(), registeredKey.getKeySize());
+            if (keySizeIndex >= 0)
+                byAlgorithm.get(registeredKey.getAlgorithm())[keySizeIndex] = registeredKey;
+        }
+        return new Indexes(Collections.unmodifiableMap(byKeyId), byAlgorithm);
+    }
+
+    /**
+     * Adds a key to the registry, which becomes the key returned by findByAlgorithmAndKeySize for its algorithm
+     * and key size. Registering a keyId again has no effect.
+     * @param psiKey the key to be registered
+     * @return the registered key
+     */
+    public synchronized RegisteredKey register(PsiKey psiKey) {
+        log.debug("Calling register with keyId = {}", psiKey.getKeyId());
+        indexes = index(indexes, Collections.singletonList(psiKey));
+        return indexes.byKeyId.get(psiKey.getKeyId());
+    }
+
+    /**
+     * Retrieves the key associated to a keyId.
+     * @param keyId the id of the key
+     * @return the registered key, or null if the keyId is unknown
+     */
+    public RegisteredKey findByKeyId(Long keyId) {
+        return indexes.byKeyId.get(keyId);
+    }
+
+    /**
+     * Retrieves the key associated to an algorithm and a key size.
+     * @param algorithm the algorithm of the key
+     * @param keySize   the size of the key
+     * @return the registered key, or null if no key is registered for the pair or the key size is not supported
+     */
+    public RegisteredKey findByAlgorithmAndKeySize(Algorithm algorithm, int keySize) {
+        int keySizeIndex = keySizeIndex(algorithm, keySize);
+        return keySizeIndex < 0 ? null : indexes.byAlgorithm.get(algorithm)[keySizeIndex];
+    }
+
+    /**
+     * @return the number of registered keys
+     */
+    public int size() {
+        return indexes.byKeyId.size();
+    }
+}
@@ -1,6 +1,5 @@
 package it.lockless.psidemoserver.config;
 
-import it.lockless.psidemoserver.entity.enumeration.Algorithm;
 import it.lockless.psidemoserver.util.ObjectSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,7 +9,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,13 +32,16 @@ public class StoredAlgorithmKey {
 
     private ConcurrentHashMap<Long, PsiKey> keyIdMap;
 
+    // Keys in the order they have been stored
+    private final List<PsiKey> psiKeyList = new ArrayList<>();
+
     /**
      * Initializes the keyStore loading key from a file.
      */
     StoredAlgorithmKey() {
         log.info("Calling StoredAlgorithmKey");
 
-        Set<PsiKey> psiKeySet = new HashSet<>();
+        Set<PsiKey> psiKeySet = new LinkedHashSet<>();
 
         File keyStoreFile = new File(KEY_STORE_FILENAME);
         if(keyStoreFile.exists()) {
@@ -54,6 +58,7 @@ public class StoredAlgorithmKey {
         this.keyIdMap = new ConcurrentHashMap<>();
         psiKeySet.forEach(key ->
                 keyIdMap.put(key.getKeyId(), key));
+        psiKeyList.addAll(psiKeySet);
     }
 
     /**
@@ -61,6 +66,7 @@ public class StoredAlgorithmKey {
      */
     public synchronized void storeKey(PsiKey psiKey){
         keyIdMap.put(psiKey.getKeyId(), psiKey);
+        psiKeyList.add(psiKey);
 
         File keyStoreFile = new File(KEY_STORE_FILENAME);
         try (FileWriter fileWriter = new FileWriter(keyStoreFile, true)){
@@ -71,16 +77,10 @@ public class StoredAlgorithmKey {
     }
 
     /**
-     * Retrieves a key associated to an algorithm and a key size
+     * Retrieves all the keys of the keyStore, in the order they have been stored
      */
-    public Optional<PsiKey> findByAlgorithmAndKeySize(Algorithm algorithm, int keySize) {
-        PsiKey psiKey = keyIdMap.values().stream()
-                .filter(k -> (k.getAlgorithm().equals(algorithm) && k.getKeySize().equals(keySize)))
-                .findAny().orElse(null);
-        if (psiKey == null)
-            return Optional.empty();
-        else
-            return Optional.of(psiKey);
+    public synchronized List<PsiKey> findAll() {
+        return new ArrayList<>(psiKeyList);
     }
 
     /**
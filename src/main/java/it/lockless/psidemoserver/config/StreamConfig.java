@@ -0,0 +1,36 @@
+package it.lockless.psidemoserver.config;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Configuration of the threads running the read and encrypt stages of the server dataset streams.
+ * Each stream uses two threads, hence the pool has two threads for each of the stream.max.concurrent streams admitted
+ * at once by the ServerDatasetStreamService.
+ */
+
+@Configuration
+public class StreamConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamConfig.class);
+
+    @Value("${stream.max.concurrent:8}")
+    private int maxConcurrentStreams;
+
+    /**
+     * The executor is shut down by the ServerDatasetStreamService using it.
+     */
+    @Bean(destroyMethod = "")
+    public ExecutorService serverDatasetStreamExecutor() {
+        log.info("Creating serverDatasetStreamExecutor with maxConcurrentStreams = {}", maxConcurrentStreams);
+        return Executors.newFixedThreadPool(2 * Math.max(1, maxConcurrentStreams),
+                new ThreadFactoryBuilder().setNameFormat("server-dataset-stream-%d").setDaemon(true).build());
+    }
+}
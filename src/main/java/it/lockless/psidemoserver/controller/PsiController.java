@@ -3,21 +3,37 @@ package it.lockless.psidemoserver.controller;
 import it.lockless.psidemoserver.model.PsiAlgorithmParameterDTO;
 import it.lockless.psidemoserver.model.PsiAlgorithmParameterListDTO;
 import it.lockless.psidemoserver.model.PsiDatasetMapDTO;
+import it.lockless.psidemoserver.service.BloomFilterService;
+import it.lockless.psidemoserver.service.DatasetImportService;
 import it.lockless.psidemoserver.service.DatasetService;
 import it.lockless.psidemoserver.service.EncryptionService;
 import it.lockless.psidemoserver.service.PsiSessionService;
+import it.lockless.psidemoserver.service.ServerDatasetStreamService;
+import it.lockless.psidemoserver.service.cache.BloomFilterVersion;
+import it.lockless.psidemoserver.service.cache.ShardedBloomFilterVersion;
 import it.lockless.psidemoserver.util.exception.AlgorithmInvalidKeyException;
+import it.lockless.psidemoserver.util.exception.InvalidChunkSizeException;
+import it.lockless.psidemoserver.util.exception.InvalidCursorException;
+import it.lockless.psidemoserver.util.exception.InvalidDatasetException;
+import it.lockless.psidemoserver.util.exception.InvalidPageException;
 import it.lockless.psidemoserver.util.exception.SessionExpiredException;
 import it.lockless.psidemoserver.util.exception.SessionNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Exposes to clients the endpoints used to start a new session and carry on a PSI computation.
@@ -29,16 +45,29 @@ public class PsiController {
 
 	private static final Logger log = LoggerFactory.getLogger(PsiController.class);
 
+	private static final String FILTER_TYPE_HEADER = "X-Filter-Type";
+
 	private final PsiSessionService psiSessionService;
 
 	private final EncryptionService encryptionService;
 
 	private final DatasetService datasetService;
 
-	public PsiController(PsiSessionService psiSessionService, EncryptionService encryptionService, DatasetService datasetService) {
+	private final ServerDatasetStreamService serverDatasetStreamService;
+
+	private final DatasetImportService datasetImportService;
+
+	private final BloomFilterService bloomFilterService;
+
+	public PsiController(PsiSessionService psiSessionService, EncryptionService encryptionService, DatasetService datasetService,
+						 ServerDatasetStreamService serverDatasetStreamService, DatasetImportService datasetImportService,
+						 BloomFilterService bloomFilterService) {
 		this.psiSessionService = psiSessionService;
 		this.encryptionService = encryptionService;
 		this.datasetService = datasetService;
+		this.serverDatasetStreamService = serverDatasetStreamService;
+		this.datasetImportService = datasetImportService;
+		this.bloomFilterService = bloomFilterService;
 	}
 
 	/**
@@ -93,11 +122,15 @@ public class PsiController {
 
 	/**
 	 * Retrieves the encrypted dataset of the server.
+	 * Pages can be retrieved either by page number or, if the cursor parameter is present, by cursor.
+	 * In the latter case, the first page is retrieved with an empty cursor and each page contains the cursor of
+	 * the following one (nextCursor), which is not set for the last page.
 	 * @param sessionId the id identifying the session associated to the client
-	 * @param page		the page to be retrieved by the server set
+	 * @param page		the page to be retrieved by the server set, ignored if the cursor is present
 	 * @param size		the size of the page to be retrieved
+	 * @param cursor	the cursor returned with the previous page, or an empty string to retrieve the first page
 	 * @return 	200, a PsiServerDatasetPageDTO containing the server encrypted dataset page
-	 * 			400, wrong or missing input
+	 * 			400, wrong or missing input, negative page or size not positive
 	 * 			404, session not found
 	 * 			408, session expired
 	 * 			500, internal server error
@@ -106,17 +139,115 @@ public class PsiController {
 	public ResponseEntity getEncryptedServerServerDataset(
 			@PathVariable("sessionId") Long sessionId,
 			@RequestParam(value = "page", defaultValue = "0") Integer page,
-			@RequestParam(value = "size", defaultValue = "1000") Integer size) {
-		log.debug("Called PsiServerDatasetPageDTO with sessionId = {}, page = {}, size = {}", sessionId, page, size);
+			@RequestParam(value = "size", defaultValue = "1000") Integer size,
+			@RequestParam(value = "cursor", required = false) String cursor) {
+		log.debug("Called PsiServerDatasetPageDTO with sessionId = {}, page = {}, size = {}, cursor = {}", sessionId, page, size, cursor);
         try {
+        	if (cursor != null)
+				return ResponseEntity.ok(encryptionService.getEncryptedServerDataset(sessionId, cursor, size));
             return ResponseEntity.ok(encryptionService.getEncryptedServerDataset(sessionId, page, size));
-        } catch (SessionNotFoundException e) {
+        } catch (InvalidCursorException | InvalidPageException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+		} catch (SessionNotFoundException e) {
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Session identified by "+sessionId+" not found");
 		} catch (SessionExpiredException e) {
 			return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body("Session identified by "+sessionId+" is expired");
 		}
 	}
 
+	/**
+	 * Streams the whole encrypted dataset of the server as newline delimited JSON,
+	 * where each line is a JSON string containing an encrypted element.
+	 * @param sessionId the id identifying the session associated to the client
+	 * @param chunkSize	the number of elements read and encrypted at once
+	 * @return 	200, a stream of the server encrypted dataset
+	 * 			400, wrong or missing input, or chunkSize not positive or greater than stream.max.chunk.size
+	 * 			404, session not found
+	 * 			408, session expired
+	 * 			500, internal server error
+	 */
+	@GetMapping(value = "/{sessionId}/serverSet/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity streamEncryptedServerDataset(
+			@PathVariable("sessionId") Long sessionId,
+			@RequestParam(value = "chunkSize", defaultValue = "1000") Integer chunkSize) {
+		log.debug("Called streamEncryptedServerDataset with sessionId = {}, chunkSize = {}", sessionId, chunkSize);
+		try {
+			return ResponseEntity.ok()
+					.contentType(MediaType.APPLICATION_NDJSON)
+					.body(serverDatasetStreamService.streamEncryptedServerDataset(sessionId, chunkSize));
+		} catch (InvalidChunkSizeException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+		} catch (SessionNotFoundException e) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Session identified by "+sessionId+" not found");
+		} catch (SessionExpiredException e) {
+			return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body("Session identified by "+sessionId+" is expired");
+		}
+	}
+
+	/**
+	 * Retrieves the last computed Bloom Filter of the server dataset.
+	 * The response carries an ETag derived from the version of the Bloom Filter (the same version contained in the
+	 * session), hence a client already holding the current Bloom Filter can send its ETag in the If-None-Match header
+	 * and receive a 304 without downloading it again.
+	 * The Bloom Filter is returned either as a BloomFilterDTO (application/json) or as its serialized representation
+	 * (application/octet-stream), depending on the Accept header. In the latter case, the type of the filter
+	 * (guava, cuckoo, xor or binary_fuse) is sent in the X-Filter-Type header.
+	 * @param webRequest the request, used to check the If-None-Match header
+	 * @return 	200, the Bloom Filter
+	 * 			304, the Bloom Filter identified by the If-None-Match header is the current one
+	 * 			404, no Bloom Filter has been computed yet
+	 * 			500, internal server error
+	 */
+	@GetMapping(value = "/bloomFilter", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+	public ResponseEntity getBloomFilter(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept, WebRequest webRequest) {
+		log.debug("Called getBloomFilter with accept = {}", accept);
+		Optional<BloomFilterVersion> bloomFilterVersionOptional = bloomFilterService.getCurrentBloomFilterVersion();
+		if (!bloomFilterVersionOptional.isPresent())
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Bloom Filter not available");
+
+		BloomFilterVersion bloomFilterVersion = bloomFilterVersionOptional.get();
+		if (webRequest.checkNotModified(bloomFilterVersion.getETag()))
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(bloomFilterVersion.getETag()).build();
+
+		ResponseEntity.BodyBuilder bodyBuilder = ResponseEntity.ok()
+				.eTag(bloomFilterVersion.getETag())
+				.cacheControl(CacheControl.noCache());
+		if (accept != null && MediaType.parseMediaTypes(accept).stream().anyMatch(MediaType.APPLICATION_OCTET_STREAM::equalsTypeAndSubtype))
+			return bodyBuilder.contentType(MediaType.APPLICATION_OCTET_STREAM)
+					.header(FILTER_TYPE_HEADER, bloomFilterVersion.getFilterType().getName())
+					.body(bloomFilterVersion.getSerializedValue());
+		return bodyBuilder.contentType(MediaType.APPLICATION_JSON).body(bloomFilterVersion.getBloomFilterDTO());
+	}
+
+	/**
+	 * Retrieves the shards of the sharded Bloom Filter of the server dataset changed since the input version.
+	 * A client holding the shards up to a given version only downloads the shards changed afterwards, and
+	 * the version of the returned ShardedBloomFilterDTO is the one to be sent in the next request.
+	 * As for the Bloom Filter, the response carries an ETag derived from the version.
+	 * @param since			the version of the sharded Bloom Filter held by the client, 0 to retrieve all the shards
+	 * @param webRequest	the request, used to check the If-None-Match header
+	 * @return 	200, a ShardedBloomFilterDTO containing the shards changed since the input version
+	 * 			304, the sharded Bloom Filter identified by the If-None-Match header is the current one
+	 * 			404, the sharded Bloom Filter is not enabled or not computed yet
+	 * 			500, internal server error
+	 */
+	@GetMapping(value = "/bloomFilter/shards", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity getBloomFilterShards(@RequestParam(value = "since", defaultValue = "0") Long since, WebRequest webRequest) {
+		log.debug("Called getBloomFilterShards with since = {}", since);
+		Optional<ShardedBloomFilterVersion> shardedBloomFilterVersionOptional = bloomFilterService.getCurrentShardedBloomFilterVersion();
+		if (!shardedBloomFilterVersionOptional.isPresent())
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Sharded Bloom Filter not available");
+
+		ShardedBloomFilterVersion shardedBloomFilterVersion = shardedBloomFilterVersionOptional.get();
+		String eTag = "\"" + shardedBloomFilterVersion.getVersion() + "\"";
+		if (webRequest.checkNotModified(eTag))
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+		return ResponseEntity.ok()
+				.eTag(eTag)
+				.cacheControl(CacheControl.noCache())
+				.body(shardedBloomFilterVersion.toDTO(since));
+	}
+
 	/**
 	 * Retrieves the description of the session identified by the sessionId
 	 * @param sessionId the id identifying the session associated to the client
@@ -152,4 +283,67 @@ public class PsiController {
 		datasetService.initServerDataset(datasetStructure);
 		return ResponseEntity.ok().build();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Imports into the server dataset the elements contained in the body, one per line.
+	 * The body is processed while it is received, hence datasets of any size can be imported.
+	 * Lines are parsed as CSV (the first column is the value of the element) or as newline delimited JSON
+	 * (either a JSON string or an object with a value field), depending on the content type.
+	 * The import is atomic: if it fails, the server dataset is left unchanged.
+	 *
+	 * @param contentType	the content type of the body, either text/csv or application/x-ndjson
+	 * @param replace		whether the current server dataset should be deleted before the import
+	 * @param header		whether the first line of a CSV body is a header, to be skipped
+	 * @param inputStream	the body of the request
+	 * @return	200, a DatasetImportResultDTO describing the outcome of the import
+	 * 			400, wrong or missing input
+	 * 			500, internal server error
+	 */
+	@PostMapping(value = "/dataset/import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE}, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity importServerDataset(
+			@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+			@RequestParam(value = "replace", defaultValue = "false") Boolean replace,
+			@RequestParam(value = "header", defaultValue = "false") Boolean header,
+			InputStream inputStream) throws IOException {
+		log.debug("Called importServerDataset with contentType = {}, replace = {}, header = {}", contentType, replace, header);
+		DatasetImportService.Format format = MediaType.APPLICATION_NDJSON.isCompatibleWith(MediaType.parseMediaType(contentType))
+				? DatasetImportService.Format.NDJSON
+				: DatasetImportService.Format.CSV;
+		try {
+			return ResponseEntity.ok(datasetImportService.importServerDataset(inputStream, format, replace, header));
+		} catch (InvalidDatasetException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+		}
+	}
+
+	/**
+	 * Adds to the server dataset the elements whose values are listed in the body.
+	 * Differently from the initialization and the import of the dataset, the Bloom Filter is updated in place
+	 * instead of being computed again.
+	 *
+	 * @param values the values of the elements to be added
+	 * @return	200, in case the elements have been added correctly
+	 * 			500, internal server error
+	 */
+	@PostMapping(value = "/dataset/elements", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity addServerDatasetElements(@RequestBody List<String> values) {
+		log.debug("Called addServerDatasetElements with values.size() = {}", values.size());
+		datasetService.addElements(values);
+		return ResponseEntity.ok().build();
+	}
+
+	/**
+	 * Removes from the server dataset the elements whose values are listed in the body.
+	 * The Bloom Filter is computed again only when the removals degrade its false positive probability beyond
+	 * the threshold defined by bloomfilter.rebuild.fpp.
+	 *
+	 * @param values the values of the elements to be removed
+	 * @return	200, the number of removed elements
+	 * 			500, internal server error
+	 */
+	@DeleteMapping(value = "/dataset/elements", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity removeServerDatasetElements(@RequestBody List<String> values) {
+		log.debug("Called removeServerDatasetElements with values.size() = {}", values.size());
+		return ResponseEntity.ok(datasetService.removeElements(values));
+	}
+}
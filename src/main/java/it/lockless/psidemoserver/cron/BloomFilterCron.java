@@ -1,6 +1,6 @@
 package it.lockless.psidemoserver.cron;
 
-import it.lockless.psidemoserver.service.BloomFilterService;
+import it.lockless.psidemoserver.service.BloomFilterRebuildCoordinator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -15,20 +15,24 @@ public class BloomFilterCron {
     @Value("${bloomfilter.enabled}")
     private boolean bloomFilterEnabled;
 
-    private final BloomFilterService bloomFilterService;
+    private final BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator;
 
-    public BloomFilterCron(BloomFilterService bloomFilterService) {
-        this.bloomFilterService = bloomFilterService;
+    public BloomFilterCron(BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator) {
+        this.bloomFilterRebuildCoordinator = bloomFilterRebuildCoordinator;
     }
 
     /**
-     * Scheduled job that periodically computes a Bloom Filter of the server dataset
+     * Scheduled job that periodically computes a Bloom Filter of the server dataset, if some change of the dataset
+     * is not reflected by the current one. Changes normally request a computation through the BloomFilterRebuildCoordinator,
+     * hence this job is a safety net against stale Bloom Filters. For the same reason, it also requests to store the
+     * Bloom Filter updated in place, in case a previous store failed.
      */
     @Scheduled(fixedRateString = "${bloomfilter.interval.mseconds:300000}", initialDelayString = "${bloomfilter.interval.mseconds:300000}")
     public void updateBloomFilter(){
         if(bloomFilterEnabled) {
             log.debug("Called updateBloomFilter()");
-            bloomFilterService.computeAndSaveSerializedBloomFilter();
+            bloomFilterRebuildCoordinator.rebuildIfStale();
+            bloomFilterRebuildCoordinator.requestStore();
         }
     }
 }
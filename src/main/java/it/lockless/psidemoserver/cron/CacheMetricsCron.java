@@ -0,0 +1,37 @@
+package it.lockless.psidemoserver.cron;
+
+import it.lockless.psidemoserver.service.cache.AdmissionPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.CircuitBreakerPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.NearCachePsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.WriteBehindPsiCacheProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import psi.cache.PsiCacheProvider;
+
+@Component
+public class CacheMetricsCron {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheMetricsCron.class);
+
+    private PsiCacheProvider psiCacheProvider;
+
+    @Autowired(required = false)
+    private void setPsiCacheProvider(PsiCacheProvider psiCacheProvider){
+        this.psiCacheProvider = psiCacheProvider;
+    }
+
+    /**
+     * Scheduled job that periodically logs the hit rates of the tiers of the cache, if the near cache is enabled,
+     * the state of the circuit breaker of redis, the number of writes admitted and rejected by the admission policy
+     * and the number of writes queued, dropped and flushed by the write-behind buffer
+     */
+    @Scheduled(fixedRateString = "${cache.metrics.interval.mseconds:60000}", initialDelayString = "${cache.metrics.interval.mseconds:60000}")
+    public void logCacheMetrics(){
+        if (psiCacheProvider instanceof AdmissionPsiCacheProvider || psiCacheProvider instanceof NearCachePsiCacheProvider
+                || psiCacheProvider instanceof CircuitBreakerPsiCacheProvider || psiCacheProvider instanceof WriteBehindPsiCacheProvider)
+            log.info("Cache metrics: {}", psiCacheProvider);
+    }
+}
@@ -0,0 +1,27 @@
+package it.lockless.psidemoserver.cron;
+
+import it.lockless.psidemoserver.config.DataSourcePoolMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class DataSourcePoolMetricsCron {
+
+    private static final Logger log = LoggerFactory.getLogger(DataSourcePoolMetricsCron.class);
+
+    private final DataSourcePoolMetrics dataSourcePoolMetrics;
+
+    public DataSourcePoolMetricsCron(DataSourcePoolMetrics dataSourcePoolMetrics) {
+        this.dataSourcePoolMetrics = dataSourcePoolMetrics;
+    }
+
+    /**
+     * Scheduled job that periodically logs the metrics of the database connection pool
+     */
+    @Scheduled(fixedRateString = "${db.pool.metrics.interval.mseconds:60000}", initialDelayString = "${db.pool.metrics.interval.mseconds:60000}")
+    public void logPoolMetrics(){
+        log.info("Database connection pool metrics: {}", dataSourcePoolMetrics);
+    }
+}
@@ -10,14 +10,17 @@ import java.util.Objects;
  */
 
 @Entity
-@Table(name = "psi_element")
+@Table(name = "psi_element", indexes = @Index(name = "psi_element_value_idx", columnList = "value"))
 public class PsiElement  implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // Number of ids reserved by each value of psi_element_id_seq, which is incremented by this amount
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
     @GeneratedValue(generator = "psi_element_id_seq", strategy = GenerationType.SEQUENCE)
-    @SequenceGenerator(name="psi_element_id_seq",sequenceName="psi_element_id_seq", allocationSize = 50)
+    @SequenceGenerator(name="psi_element_id_seq",sequenceName="psi_element_id_seq", allocationSize = ID_ALLOCATION_SIZE)
     @Column(name = "id")
     private long id;
 
@@ -22,13 +22,21 @@ public class SerializedBloomFilter {
     @Column(name = "id")
     private long id;
 
-    @Lob
-    @Column(name = "serialized_value", columnDefinition="TEXT")
+    @Column(name = "serialized_value", columnDefinition="BYTEA")
     private byte[] serializedValue;
 
     @Column(name = "bloom_filter_creation_date")
     private Instant bloomFilterCreationDate;
 
+    // Name of the FilterType of the serialized filter. Filters stored without type are Guava Bloom Filters
+    @Column(name = "filter_type")
+    private String filterType;
+
+    // Version of the Bloom Filter sent to the clients, which can be assigned before the Bloom Filter is stored.
+    // Bloom Filters stored without version are identified by their id
+    @Column(name = "version")
+    private Long version;
+
     public long getId() {
         return id;
     }
@@ -53,18 +61,41 @@ public class SerializedBloomFilter {
         this.bloomFilterCreationDate = bloomFilterCreationDate;
     }
 
+    public String getFilterType() {
+        return filterType;
+    }
+
+    public void setFilterType(String filterType) {
+        this.filterType = filterType;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the version of the Bloom Filter if assigned, otherwise its id
+     */
+    public long getPublishedVersion() {
+        return version == null ? id : version;
+    }
+
     @Override
     public boolean equals(Object o) {
 
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SerializedBloomFilter that = (SerializedBloomFilter) o;
-        return id == that.id && Arrays.equals(serializedValue, that.serializedValue) && Objects.equals(bloomFilterCreationDate, that.bloomFilterCreationDate);
+        return id == that.id && Arrays.equals(serializedValue, that.serializedValue) && Objects.equals(bloomFilterCreationDate, that.bloomFilterCreationDate) && Objects.equals(filterType, that.filterType) && Objects.equals(version, that.version);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(id, bloomFilterCreationDate);
+        int result = Objects.hash(id, bloomFilterCreationDate, filterType, version);
         result = 31 * result + Arrays.hashCode(serializedValue);
         return result;
     }
@@ -75,6 +106,8 @@ public class SerializedBloomFilter {
                 "id=" + id +
                 ", serializedBloomFilter=" + Arrays.toString(serializedValue) +
                 ", bloomFilterCreationDate=" + bloomFilterCreationDate +
+                ", filterType=" + filterType +
+                ", version=" + version +
                 '}';
     }
 }
\ No newline at end of file
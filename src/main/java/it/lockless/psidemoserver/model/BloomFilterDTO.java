@@ -1,18 +1,26 @@
 package it.lockless.psidemoserver.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import it.lockless.psidemoserver.entity.SerializedBloomFilter;
+import it.lockless.psidemoserver.util.filter.FilterType;
 
 import java.time.Instant;
 import java.util.Arrays;
 
 /**
  * DTO encapsulating a serialized Bloom Filter representation of the server dataset.
+ * When only describing the Bloom Filter (e.g., within the session), the serialized representation is not set and
+ * the Bloom Filter can be downloaded separately by version.
+ * The type identifies the kind of filter (guava, cuckoo, xor or binary_fuse), hence the decoder to be used by the client.
  */
 
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class BloomFilterDTO {
 
     private byte[] serializedBloomFilter;
     private Instant bloomFilterCreationDate;
+    private Long version;
+    private String type;
 
     public BloomFilterDTO() {
     }
@@ -20,6 +28,14 @@ public class BloomFilterDTO {
     public BloomFilterDTO(SerializedBloomFilter serializedBloomFilter){
         this.serializedBloomFilter = serializedBloomFilter.getSerializedValue();
         this.bloomFilterCreationDate = serializedBloomFilter.getBloomFilterCreationDate();
+        this.version = serializedBloomFilter.getPublishedVersion();
+        this.type = serializedBloomFilter.getFilterType() == null ? FilterType.GUAVA.getName() : serializedBloomFilter.getFilterType();
+    }
+
+    public BloomFilterDTO(Long version, Instant bloomFilterCreationDate, String type){
+        this.version = version;
+        this.bloomFilterCreationDate = bloomFilterCreationDate;
+        this.type = type;
     }
 
     public byte[] getSerializedBloomFilter() {
@@ -38,11 +54,29 @@ public class BloomFilterDTO {
         this.bloomFilterCreationDate = bloomFilterCreationDate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
     @Override
     public String toString() {
         return "BloomFilterDTO{" +
                 "serializedBloomFilter=" + Arrays.toString(serializedBloomFilter) +
                 ", bloomFilterCreationDate=" + bloomFilterCreationDate +
+                ", version=" + version +
+                ", type=" + type +
                 '}';
     }
 }
@@ -0,0 +1,76 @@
+package it.lockless.psidemoserver.model;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * DTO encapsulating a serialized shard of a sharded Bloom Filter representation of the server dataset.
+ */
+
+public class BloomFilterShardDTO {
+
+    private Integer index;
+
+    private Long version;
+
+    private byte[] serializedBloomFilter;
+
+    public BloomFilterShardDTO() {
+    }
+
+    public BloomFilterShardDTO(Integer index, Long version, byte[] serializedBloomFilter) {
+        this.index = index;
+        this.version = version;
+        this.serializedBloomFilter = serializedBloomFilter;
+    }
+
+    public Integer getIndex() {
+        return index;
+    }
+
+    public void setIndex(Integer index) {
+        this.index = index;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public byte[] getSerializedBloomFilter() {
+        return serializedBloomFilter;
+    }
+
+    public void setSerializedBloomFilter(byte[] serializedBloomFilter) {
+        this.serializedBloomFilter = serializedBloomFilter;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BloomFilterShardDTO that = (BloomFilterShardDTO) o;
+        return Objects.equals(index, that.index) &&
+                Objects.equals(version, that.version) &&
+                Arrays.equals(serializedBloomFilter, that.serializedBloomFilter);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(index, version);
+        result = 31 * result + Arrays.hashCode(serializedBloomFilter);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "BloomFilterShardDTO{" +
+                "index=" + index +
+                ", version=" + version +
+                ", serializedBloomFilter.length=" + (serializedBloomFilter == null ? 0 : serializedBloomFilter.length) +
+                '}';
+    }
+}
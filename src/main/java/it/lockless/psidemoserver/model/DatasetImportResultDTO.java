@@ -0,0 +1,60 @@
+package it.lockless.psidemoserver.model;
+
+import java.util.Objects;
+
+/**
+ * DTO describing the outcome of an import of the server dataset.
+ */
+
+public class DatasetImportResultDTO {
+
+    private Long importedEntries;
+
+    private Long elapsedMilliseconds;
+
+    public DatasetImportResultDTO() {
+    }
+
+    public DatasetImportResultDTO(Long importedEntries, Long elapsedMilliseconds) {
+        this.importedEntries = importedEntries;
+        this.elapsedMilliseconds = elapsedMilliseconds;
+    }
+
+    public Long getImportedEntries() {
+        return importedEntries;
+    }
+
+    public void setImportedEntries(Long importedEntries) {
+        this.importedEntries = importedEntries;
+    }
+
+    public Long getElapsedMilliseconds() {
+        return elapsedMilliseconds;
+    }
+
+    public void setElapsedMilliseconds(Long elapsedMilliseconds) {
+        this.elapsedMilliseconds = elapsedMilliseconds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DatasetImportResultDTO that = (DatasetImportResultDTO) o;
+        return Objects.equals(importedEntries, that.importedEntries) &&
+                Objects.equals(elapsedMilliseconds, that.elapsedMilliseconds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(importedEntries, elapsedMilliseconds);
+    }
+
+    @Override
+    public String toString() {
+        return "DatasetImportResultDTO{" +
+                "importedEntries=" + importedEntries +
+                ", elapsedMilliseconds=" + elapsedMilliseconds +
+                '}';
+    }
+}
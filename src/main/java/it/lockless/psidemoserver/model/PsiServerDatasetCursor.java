@@ -0,0 +1,48 @@
+package it.lockless.psidemoserver.model;
+
+import java.util.Objects;
+
+/**
+ * Position reached while iterating over the server dataset by id (keyset pagination).
+ * It is sent to clients as an opaque base64 string.
+ */
+
+public class PsiServerDatasetCursor {
+
+    private Long lastId;
+
+    public PsiServerDatasetCursor() {
+    }
+
+    public PsiServerDatasetCursor(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PsiServerDatasetCursor that = (PsiServerDatasetCursor) o;
+        return Objects.equals(lastId, that.lastId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lastId);
+    }
+
+    @Override
+    public String toString() {
+        return "PsiServerDatasetCursor{" +
+                "lastId=" + lastId +
+                '}';
+    }
+}
@@ -21,6 +21,8 @@ public class PsiServerDatasetPageDTO {
 
     private Long totalEntries;
 
+    private String nextCursor;
+
     private Set<String> content;
 
     public Integer getPage() {
@@ -71,6 +73,14 @@ public class PsiServerDatasetPageDTO {
         this.totalEntries = totalEntries;
     }
 
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
     public Set<String> getContent() {
         return content;
     }
@@ -90,12 +100,13 @@ public class PsiServerDatasetPageDTO {
                 Objects.equals(last, that.last) &&
                 Objects.equals(totalPages, that.totalPages) &&
                 Objects.equals(totalEntries, that.totalEntries) &&
+                Objects.equals(nextCursor, that.nextCursor) &&
                 Objects.equals(content, that.content);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(page, size, entries, last, totalPages, totalEntries, content);
+        return Objects.hash(page, size, entries, last, totalPages, totalEntries, nextCursor, content);
     }
 
     @Override
@@ -107,6 +118,7 @@ public class PsiServerDatasetPageDTO {
                 ", last=" + last +
                 ", totalPages=" + totalPages +
                 ", totalEntries=" + totalEntries +
+                ", nextCursor='" + nextCursor + '\'' +
                 ", content=" + content +
                 '}';
     }
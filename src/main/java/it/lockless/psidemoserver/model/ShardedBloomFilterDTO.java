@@ -0,0 +1,104 @@
+package it.lockless.psidemoserver.model;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * DTO encapsulating the shards of a sharded Bloom Filter representation of the server dataset.
+ * Each element is contained in the shard whose index is the first shardBits bits of the MurmurHash3
+ * (32 bits, x86, seed 0) of its UTF-8 representation. The version is the highest version among all the shards,
+ * while the list of shards might only contain the shards changed since a given version.
+ */
+
+public class ShardedBloomFilterDTO {
+
+    private Integer shardCount;
+
+    private Integer shardBits;
+
+    private Long version;
+
+    private Instant bloomFilterCreationDate;
+
+    private List<BloomFilterShardDTO> shards;
+
+    public ShardedBloomFilterDTO() {
+    }
+
+    public ShardedBloomFilterDTO(Integer shardCount, Integer shardBits, Long version, Instant bloomFilterCreationDate, List<BloomFilterShardDTO> shards) {
+        this.shardCount = shardCount;
+        this.shardBits = shardBits;
+        this.version = version;
+        this.bloomFilterCreationDate = bloomFilterCreationDate;
+        this.shards = shards;
+    }
+
+    public Integer getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(Integer shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public Integer getShardBits() {
+        return shardBits;
+    }
+
+    public void setShardBits(Integer shardBits) {
+        this.shardBits = shardBits;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Instant getBloomFilterCreationDate() {
+        return bloomFilterCreationDate;
+    }
+
+    public void setBloomFilterCreationDate(Instant bloomFilterCreationDate) {
+        this.bloomFilterCreationDate = bloomFilterCreationDate;
+    }
+
+    public List<BloomFilterShardDTO> getShards() {
+        return shards;
+    }
+
+    public void setShards(List<BloomFilterShardDTO> shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ShardedBloomFilterDTO that = (ShardedBloomFilterDTO) o;
+        return Objects.equals(shardCount, that.shardCount) &&
+                Objects.equals(shardBits, that.shardBits) &&
+                Objects.equals(version, that.version) &&
+                Objects.equals(bloomFilterCreationDate, that.bloomFilterCreationDate) &&
+                Objects.equals(shards, that.shards);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(shardCount, shardBits, version, bloomFilterCreationDate, shards);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedBloomFilterDTO{" +
+                "shardCount=" + shardCount +
+                ", shardBits=" + shardBits +
+                ", version=" + version +
+                ", bloomFilterCreationDate=" + bloomFilterCreationDate +
+                ", shards=" + shards +
+                '}';
+    }
+}
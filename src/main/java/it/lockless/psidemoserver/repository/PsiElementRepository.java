@@ -1,7 +1,18 @@
 package it.lockless.psidemoserver.repository;
 
 import it.lockless.psidemoserver.entity.PsiElement;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Repository of PsiElement.
@@ -9,4 +20,54 @@ import org.springframework.data.jpa.repository.JpaRepository;
 
 public interface PsiElementRepository  extends JpaRepository<PsiElement, Long> {
 
+    /**
+     * Retrieves the elements whose id is greater than the input id, without counting the total number of elements.
+     * Used to iterate over the dataset by id (keyset pagination).
+     */
+    List<PsiElement> findByIdGreaterThan(long id, Pageable pageable);
+
+    /**
+     * Streams the values of all the elements, without loading the entities.
+     * Rows are fetched from the database in blocks while the stream is consumed, hence the stream must be
+     * consumed (and closed) within a transaction.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select e.value from PsiElement e")
+    Stream<String> streamAllValues();
+
+    /**
+     * Streams the values of the elements whose id is in the range [fromId, toId), without loading the entities.
+     * As streamAllValues, the stream must be consumed (and closed) within a transaction.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select e.value from PsiElement e where e.id >= :fromId and e.id < :toId")
+    Stream<String> streamValuesByIdRange(@Param("fromId") long fromId, @Param("toId") long toId);
+
+    /**
+     * Retrieves the lowest id of the elements, or null if there are no elements.
+     */
+    @Query("select min(e.id) from PsiElement e")
+    Long findMinId();
+
+    /**
+     * Retrieves the highest id of the elements, or null if there are no elements.
+     */
+    @Query("select max(e.id) from PsiElement e")
+    Long findMaxId();
+
+    /**
+     * Retrieves the values of the elements whose value is contained in the input collection, once per element.
+     */
+    @Query("select e.value from PsiElement e where e.value in :values")
+    List<String> findValuesByValueIn(@Param("values") Collection<String> values);
+
+    /**
+     * Deletes all the elements whose value is contained in the input collection with a single statement.
+     * @return the number of deleted elements
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from PsiElement e where e.value in :values")
+    int deleteByValueIn(@Param("values") Collection<String> values);
+
 }
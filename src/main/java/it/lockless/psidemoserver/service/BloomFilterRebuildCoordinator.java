@@ -0,0 +1,180 @@
+package it.lockless.psidemoserver.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the full computations of the Bloom Filter when the server dataset changes.
+ * Requests are debounced: the computation starts once no request has been received for bloomfilter.rebuild.debounce.mseconds,
+ * but no later than bloomfilter.rebuild.max.delay.mseconds after the first request, so that a continuous stream of
+ * changes does not postpone it forever. Computations run on a single thread, hence at most one computation is in flight,
+ * and all the requests received while it runs are coalesced into a single following computation.
+ * The version of the dataset reflected by the last computation is tracked, so that the periodic job only computes the
+ * Bloom Filter again if some change has not been reflected yet.
+ * The same thread stores the Bloom Filter updated in place, debounced as the computations, so that neither the threads
+ * changing the dataset nor the ones reading the Bloom Filter access the database to store it.
+ */
+
+@Service
+public class BloomFilterRebuildCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(BloomFilterRebuildCoordinator.class);
+
+    private final BloomFilterService bloomFilterService;
+
+    private final DatasetVersionService datasetVersionService;
+
+    private final long debounceMillis;
+
+    private final long maxDelayMillis;
+
+    private final ScheduledExecutorService executor;
+
+    // Version of the dataset reflected by the stored Bloom Filter, -1 if no Bloom Filter has been computed by this instance
+    private final AtomicLong builtVersion = new AtomicLong(-1);
+
+    // True if a computation has been scheduled and has not started yet. Guarded by this
+    private boolean pending;
+
+    // Times of the first and the last request received since the last computation started. Guarded by this
+    private long firstRequestTime;
+
+    private long lastRequestTime;
+
+    // True if a store of the Bloom Filter updated in place has been scheduled and has not started yet. Guarded by this
+    private boolean storePending;
+
+    public BloomFilterRebuildCoordinator(BloomFilterService bloomFilterService,
+                                         DatasetVersionService datasetVersionService,
+                                         @Value("${bloomfilter.rebuild.debounce.mseconds:1000}") long debounceMillis,
+                                         @Value("${bloomfilter.rebuild.max.delay.mseconds:30000}") long maxDelayMillis) {
+        this.bloomFilterService = bloomFilterService;
+        this.datasetVersionService = datasetVersionService;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = Math.max(debounceMillis, maxDelayMillis);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bloom-filter-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Creating BloomFilterRebuildCoordinator with debounceMillis = {}, maxDelayMillis = {}", debounceMillis, this.maxDelayMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Requests a computation of the Bloom Filter after a change of the dataset. The computation is debounced and
+     * coalesced with the other requests.
+     */
+    public void requestRebuild() {
+        log.debug("Called requestRebuild()");
+        request(false);
+    }
+
+    /**
+     * Requests an immediate computation of the Bloom Filter if the dataset changed since the last computation,
+     * or if no Bloom Filter has been computed by this instance yet. Intended to be called periodically as a safety net.
+     * @return true if a computation has been requested
+     */
+    public boolean rebuildIfStale() {
+        if (!isStale()) {
+            log.debug("The Bloom Filter reflects the dataset version {}, skipping the computation", builtVersion.get());
+            return false;
+        }
+        request(true);
+        return true;
+    }
+
+    /**
+     * Records that the stored Bloom Filter has been updated in place to reflect the change identified by the input
+     * version. It has effect only if the Bloom Filter reflected the previous version, i.e., no other change is pending.
+     * @param datasetVersion the version of the dataset returned by DatasetVersionService.markChanged()
+     */
+    public void markApplied(long datasetVersion) {
+        builtVersion.compareAndSet(datasetVersion - 1, datasetVersion);
+    }
+
+    /**
+     * Requests to store the Bloom Filter updated in place. The store runs after bloomfilter.rebuild.debounce.mseconds,
+     * and all the requests received in the meantime are coalesced into it.
+     */
+    public void requestStore() {
+        synchronized (this) {
+            if (storePending)
+                return;
+            storePending = true;
+        }
+        executor.schedule(this::store, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void store() {
+        synchronized (this) {
+            // Requests received from now on schedule a following store
+            storePending = false;
+        }
+        try {
+            bloomFilterService.storeLiveFilter();
+        } catch (RuntimeException e) {
+            // The Bloom Filter stays unstored, hence the next store will try again
+            log.error("Error storing the Bloom Filter updated in place", e);
+        }
+    }
+
+    /**
+     * @return true if some change of the dataset is not reflected by the stored Bloom Filter
+     */
+    public boolean isStale() {
+        return builtVersion.get() != datasetVersionService.getVersion();
+    }
+
+    private void request(boolean immediate) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            // An immediate request is considered as already debounced
+            lastRequestTime = immediate ? now - debounceMillis : Math.max(lastRequestTime, now);
+            if (pending)
+                return;
+            pending = true;
+            firstRequestTime = now;
+        }
+        schedule(immediate ? 0 : debounceMillis);
+    }
+
+    private void schedule(long delayMillis) {
+        executor.schedule(this::rebuildWhenDebounced, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void rebuildWhenDebounced() {
+        synchronized (this) {
+            long wait = Math.min(lastRequestTime + debounceMillis, firstRequestTime + maxDelayMillis) - System.currentTimeMillis();
+            if (wait > 0) {
+                schedule(wait);
+                return;
+            }
+            // Requests received from now on schedule a following computation
+            pending = false;
+        }
+
+        long datasetVersion = datasetVersionService.getVersion();
+        long start = System.currentTimeMillis();
+        try {
+            bloomFilterService.computeAndSaveSerializedBloomFilter();
+            builtVersion.accumulateAndGet(datasetVersion, Math::max);
+            log.info("Bloom Filter of dataset version {} computed in {} ms", datasetVersion, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            // The version is not updated, hence the periodic job will try again
+            log.error("Error computing the Bloom Filter of dataset version {}", datasetVersion, e);
+        }
+    }
+}
@@ -1,77 +1,632 @@
 package it.lockless.psidemoserver.service;
 
 import com.google.common.hash.BloomFilter;
-import it.lockless.psidemoserver.entity.PsiElement;
 import it.lockless.psidemoserver.entity.SerializedBloomFilter;
 import it.lockless.psidemoserver.repository.PsiElementRepository;
 import it.lockless.psidemoserver.repository.SerializedBloomFilterRepository;
+import it.lockless.psidemoserver.service.cache.BloomFilterVersion;
+import it.lockless.psidemoserver.service.cache.ShardedBloomFilterVersion;
 import it.lockless.psidemoserver.util.BloomFilterHelper;
+import it.lockless.psidemoserver.util.ShardedBloomFilter;
+import it.lockless.psidemoserver.util.filter.CuckooFilter;
+import it.lockless.psidemoserver.util.filter.FilterType;
+import it.lockless.psidemoserver.util.filter.MembershipFilter;
+import it.lockless.psidemoserver.util.filter.MembershipFilterBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
 
 import java.time.Instant;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 /**
  * Offers the functionalities to compute the Bloom Filter.
+ * Besides the full computation over the whole dataset, the last computed Bloom Filter is kept in memory
+ * and updated in place when elements are added to the dataset. Since elements cannot be removed from a
+ * Bloom Filter, removals are only counted, and a full computation is required when the estimated false positive
+ * probability exceeds the configured threshold. Full computations are scheduled by the BloomFilterRebuildCoordinator.
+ * The current Bloom Filter is also held in memory as an immutable BloomFilterVersion, which is replaced every time
+ * a new Bloom Filter is computed, so that it can be sent to the clients without accessing the database.
+ * Updates in place are published in memory as a new version when the current version is next requested, without
+ * accessing the database. They are stored by storeLiveFilter, called in the background by the
+ * BloomFilterRebuildCoordinator and when the service is shut down: the stored filter replaces the one it was derived
+ * from, so that updates in place do not add rows to the database.
+ * If bloomfilter.shards is greater than 1, a sharded Bloom Filter is computed and updated together with the Bloom Filter,
+ * and it is held in memory as a ShardedBloomFilterVersion, where each shard has its own version.
+ * The type of filter is defined by bloomfilter.type. Besides the Guava Bloom Filter (guava), which is the default,
+ * cuckoo filters (cuckoo) also support removals in place, while xor (xor) and binary fuse (binary_fuse) filters
+ * are smaller but are computed again whenever elements are added.
  */
 
 @SuppressWarnings("UnstableApiUsage")
 @Service
 public class BloomFilterService {
 
+    private static final Logger log = LoggerFactory.getLogger(BloomFilterService.class);
+
+    // False positive probability of the xor and binary fuse filters, given by their 8 bits fingerprints
+    private static final double STATIC_FILTER_FPP = 1.0 / 256;
+
     private final PsiElementRepository psiElementRepository;
 
     private final SerializedBloomFilterRepository serializedBloomFilterRepository;
 
-    @Value("${bloomfilter.fpp}")
-    private double bloomFilterFpp;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    // Pool computing the partitions of the Bloom Filter in parallel, null if the computation is sequential
+    private final ForkJoinPool forkJoinPool;
+
+    private final int partitions;
+
+    // Number of shards of the sharded Bloom Filter, 1 if the sharded Bloom Filter is disabled
+    private final int shardCount;
+
+    private final FilterType filterType;
+
+    private final double bloomFilterFpp;
+
+    @Value("${bloomfilter.rebuild.fpp:0.02}")
+    private double rebuildFppThreshold;
+
+    // Bloom Filter updated with the elements added after its computation. Guarded by this
+    private BloomFilter<CharSequence> liveBloomFilter;
+
+    // Filter of type different from GUAVA, updated with the elements added after its computation if supported.
+    // Guarded by this
+    private MembershipFilter liveFilter;
+
+    // Number of elements contained in the live filter of type different from GUAVA. Guarded by this
+    private long liveFilterElements;
+
+    // Number of elements removed from the dataset since the computation of the live Bloom Filter. Guarded by this
+    private long removedElements;
+
+    // Last published Bloom Filter, null if not loaded yet or if no Bloom Filter has been computed
+    private final AtomicReference<BloomFilterVersion> currentVersion = new AtomicReference<>();
 
-    public BloomFilterService(PsiElementRepository psiElementRepository, SerializedBloomFilterRepository serializedBloomFilterRepository) {
+    // Whether the database has been checked for a stored Bloom Filter. Written while holding this
+    private volatile boolean currentVersionLoaded;
+
+    // Whether the live filter has been updated in place after the current version was published. Written while holding this
+    private volatile boolean liveFilterChanged;
+
+    // Whether the current version has been published from the live filter and not stored yet. Guarded by this
+    private boolean currentVersionUnstored;
+
+    // Id and version of the last stored Bloom Filter, -1 if none. Guarded by this
+    private long storedId = -1;
+
+    private long storedVersion = -1;
+
+    // Source of the versions of the Bloom Filter. Versions start from the current time, so that they are greater than
+    // the ids identifying the Bloom Filters stored without version
+    private final AtomicLong versionSequence = new AtomicLong(System.currentTimeMillis());
+
+    // Sharded Bloom Filter updated with the elements added after its computation, null if disabled. Guarded by this
+    private ShardedBloomFilter liveShardedBloomFilter;
+
+    // Last computed sharded Bloom Filter, null if not computed yet. Written while holding this
+    private final AtomicReference<ShardedBloomFilterVersion> currentShardedVersion = new AtomicReference<>();
+
+    // Source of the versions of the shards. Since shards are only kept in memory, versions start from the current time,
+    // so that they are greater than the ones assigned before a restart
+    private final AtomicLong shardVersionSequence = new AtomicLong(System.currentTimeMillis());
+
+    // Elements added while full computations are in progress, to be added to their results. Guarded by this
+    private final List<List<String>> addedDuringComputations = new ArrayList<>();
+
+    public BloomFilterService(PsiElementRepository psiElementRepository, SerializedBloomFilterRepository serializedBloomFilterRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${bloomfilter.build.parallelism:0}") int parallelism,
+                              @Value("${bloomfilter.build.partitions:0}") int partitions,
+                              @Value("${bloomfilter.shards:1}") int shardCount,
+                              @Value("${bloomfilter.type:guava}") String filterType,
+                              @Value("${bloomfilter.fpp}") double bloomFilterFpp,
+                              @Value("${db.pool.max:10}") int dbPoolMax) {
         this.psiElementRepository = psiElementRepository;
         this.serializedBloomFilterRepository = serializedBloomFilterRepository;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+
+        // A parallelism lower than 1 means that all the available processors are used, as long as each partition
+        // computed in parallel can get its own database connection
+        if (parallelism < 1)
+            parallelism = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), dbPoolMax));
+        else if (parallelism > dbPoolMax)
+            throw new IllegalArgumentException("bloomfilter.build.parallelism must not exceed db.pool.max");
+        this.forkJoinPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.partitions = partitions > 0 ? partitions : 4 * parallelism;
+        if (shardCount < 1 || Integer.bitCount(shardCount) != 1)
+            throw new IllegalArgumentException("bloomfilter.shards must be a power of two");
+        this.shardCount = shardCount;
+        this.filterType = FilterType.fromName(filterType);
+        if (shardCount > 1 && this.filterType != FilterType.GUAVA)
+            throw new IllegalArgumentException("bloomfilter.shards is only supported by the guava filter type");
+        // The false positive probability of the xor and binary fuse filters is fixed by their fingerprints
+        if ((this.filterType == FilterType.XOR || this.filterType == FilterType.BINARY_FUSE) && bloomFilterFpp < STATIC_FILTER_FPP)
+            throw new IllegalArgumentException("bloomfilter.fpp must not be lower than " + STATIC_FILTER_FPP + " for the "
+                    + this.filterType.getName() + " filter type, whose fingerprints have 8 bits");
+        this.bloomFilterFpp = bloomFilterFpp;
+        log.info("Creating BloomFilterService with parallelism = {}, partitions = {}, shardCount = {}, filterType = {}",
+                parallelism, this.partitions, shardCount, this.filterType);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (forkJoinPool != null)
+            forkJoinPool.shutdownNow();
+        try {
+            storeLiveFilter();
+        } catch (RuntimeException e) {
+            log.warn("Unable to store the live Bloom Filter: {}", e.getMessage());
+        }
     }
 
     /**
      * Computes the Bloom Filter based on the actual element set.
-     * @return an object containing a byte array representation of the Bloom Filter
-     */
-    private SerializedBloomFilter computeSerializedBloomFilter(){
-        List<PsiElement> psiElementList = psiElementRepository.findAll();
-        Set<String> dataSet = new HashSet<>();
-        for(PsiElement psiElement : psiElementList)
-            dataSet.add(psiElement.getValue());
-        BloomFilter<CharSequence> bloomFilter = BloomFilterHelper.createBloomFilterByteArrayFromSet(dataSet, bloomFilterFpp);
+     * The Bloom Filter is sized on the number of elements and the values are streamed from the database into it,
+     * hence the memory required does not depend on the size of the dataset, except for the Bloom Filter itself.
+     * @return the Bloom Filter, together with the sharded Bloom Filter if enabled
+     */
+    ComputedBloomFilter computeBloomFilter(){
+        return readOnlyTransactionTemplate.execute(status -> {
+            long count = psiElementRepository.count();
+            log.debug("Computing the Bloom Filter of {} elements", count);
+            ComputedBloomFilter computedBloomFilter = new ComputedBloomFilter(Math.max(1, count));
+            try (Stream<String> values = psiElementRepository.streamAllValues()) {
+                values.forEach(computedBloomFilter::put);
+            }
+            return computedBloomFilter;
+        });
+    }
+
+    /**
+     * Computes the Bloom Filter based on the actual element set, splitting the id range of the elements in partitions
+     * computed in parallel. The Bloom Filters of the partitions have the same size and number of hash functions of the
+     * Bloom Filter of the whole dataset, hence they are merged into it without loss of precision and the result is
+     * the same that would be computed sequentially.
+     * Since each partition reads its elements on its own database connection, the parallelism does not exceed
+     * the size of the database connection pool. If the parallelism is 1, the Bloom Filter is computed sequentially.
+     * @return the Bloom Filter, together with the sharded Bloom Filter if enabled
+     */
+    ComputedBloomFilter computeBloomFilterInParallel(){
+        if (forkJoinPool == null)
+            return computeBloomFilter();
+        long count = psiElementRepository.count();
+        Long minId = psiElementRepository.findMinId();
+        Long maxId = psiElementRepository.findMaxId();
+        if (minId == null || maxId == null)
+            return new ComputedBloomFilter(1);
+        long expectedInsertions = Math.max(1, count);
+        long partitionSize = Math.max(1, (maxId - minId + 1) / partitions);
+        log.debug("Computing the Bloom Filter of {} elements in parallel, with ids in [{}, {}] and partitionSize = {}", count, minId, maxId, partitionSize);
+        return forkJoinPool.invoke(new PartitionTask(minId, maxId + 1, partitionSize, expectedInsertions));
+    }
+
+    /**
+     * Computes the Bloom Filter of the elements with id in [fromId, toId), recursively splitting the range in halves
+     * until it is not larger than the partition size. The Bloom Filters of the halves are merged as soon as they are
+     * computed, so that at most a few of them are allocated for each thread of the pool.
+     */
+    private class PartitionTask extends RecursiveTask<ComputedBloomFilter> {
+
+        private final long fromId;
+
+        private final long toId;
+
+        private final long partitionSize;
+
+        private final long expectedInsertions;
+
+        private PartitionTask(long fromId, long toId, long partitionSize, long expectedInsertions) {
+            this.fromId = fromId;
+            this.toId = toId;
+            this.partitionSize = partitionSize;
+            this.expectedInsertions = expectedInsertions;
+        }
+
+        @Override
+        protected ComputedBloomFilter compute() {
+            if (toId - fromId <= partitionSize)
+                return computePartition();
+            long middleId = fromId + (toId - fromId) / 2;
+            PartitionTask lowerTask = new PartitionTask(fromId, middleId, partitionSize, expectedInsertions);
+            lowerTask.fork();
+            ComputedBloomFilter computedBloomFilter = new PartitionTask(middleId, toId, partitionSize, expectedInsertions).compute();
+            computedBloomFilter.putAll(lowerTask.join());
+            return computedBloomFilter;
+        }
+
+        private ComputedBloomFilter computePartition() {
+            return readOnlyTransactionTemplate.execute(status -> {
+                ComputedBloomFilter computedBloomFilter = new ComputedBloomFilter(expectedInsertions);
+                try (Stream<String> values = psiElementRepository.streamValuesByIdRange(fromId, toId)) {
+                    values.forEach(computedBloomFilter::put);
+                }
+                return computedBloomFilter;
+            });
+        }
+    }
+
+    /**
+     * Result of the computation of the Bloom Filter, containing the sharded Bloom Filter as well if enabled.
+     * If the filter type is not GUAVA, it contains the builder of the filter instead.
+     */
+    class ComputedBloomFilter {
+
+        private final BloomFilter<CharSequence> bloomFilter;
+
+        private final ShardedBloomFilter shardedBloomFilter;
+
+        private final MembershipFilterBuilder filterBuilder;
+
+        private ComputedBloomFilter(long expectedInsertions) {
+            boolean guava = filterType == FilterType.GUAVA;
+            this.bloomFilter = guava ? BloomFilterHelper.createBloomFilter(expectedInsertions, bloomFilterFpp) : null;
+            this.shardedBloomFilter = guava && shardCount > 1 ? ShardedBloomFilter.create(expectedInsertions, bloomFilterFpp, shardCount) : null;
+            this.filterBuilder = guava ? null : MembershipFilterBuilder.create(filterType, expectedInsertions);
+        }
+
+        private void put(String value) {
+            if (filterBuilder != null) {
+                filterBuilder.put(value);
+                return;
+            }
+            bloomFilter.put(value);
+            if (shardedBloomFilter != null)
+                shardedBloomFilter.put(value);
+        }
+
+        private void putAll(ComputedBloomFilter computedBloomFilter) {
+            if (filterBuilder != null) {
+                filterBuilder.putAll(computedBloomFilter.filterBuilder);
+                return;
+            }
+            bloomFilter.putAll(computedBloomFilter.bloomFilter);
+            if (shardedBloomFilter != null)
+                shardedBloomFilter.putAll(computedBloomFilter.shardedBloomFilter);
+        }
+
+        BloomFilter<CharSequence> getBloomFilter() {
+            return bloomFilter;
+        }
+
+        MembershipFilterBuilder getFilterBuilder() {
+            return filterBuilder;
+        }
+
+        ShardedBloomFilter getShardedBloomFilter() {
+            return shardedBloomFilter;
+        }
+    }
+
+    /**
+     * Stores a byte array representation of the Bloom Filter and makes it the current version.
+     * Must be called while holding this, so that versions are published in the same order they are stored.
+     */
+    private void store(BloomFilter<CharSequence> bloomFilter){
+        store(BloomFilterHelper.convertBloomFilterToByteArray(bloomFilter), FilterType.GUAVA);
+    }
+
+    /**
+     * Builds a not stored SerializedBloomFilter of the input filter, with a new version.
+     */
+    private SerializedBloomFilter newSerializedBloomFilter(byte[] serializedValue, FilterType type){
         SerializedBloomFilter serializedBloomFilter = new SerializedBloomFilter();
-        serializedBloomFilter.setSerializedValue(BloomFilterHelper.convertBloomFilterToByteArray(bloomFilter));
+        serializedBloomFilter.setSerializedValue(serializedValue);
         serializedBloomFilter.setBloomFilterCreationDate(Instant.now());
+        serializedBloomFilter.setFilterType(type.getName());
+        serializedBloomFilter.setVersion(versionSequence.incrementAndGet());
         return serializedBloomFilter;
     }
 
+    /**
+     * Stores the serialized filter of the input type and makes it the current version.
+     * Must be called while holding this, so that versions are published in the same order they are stored.
+     */
+    private void store(byte[] serializedValue, FilterType type){
+        SerializedBloomFilter serializedBloomFilter = serializedBloomFilterRepository.save(newSerializedBloomFilter(serializedValue, type));
+        BloomFilterVersion bloomFilterVersion = new BloomFilterVersion(serializedBloomFilter);
+        currentVersion.set(bloomFilterVersion);
+        currentVersionLoaded = true;
+        liveFilterChanged = false;
+        currentVersionUnstored = false;
+        storedId = serializedBloomFilter.getId();
+        storedVersion = bloomFilterVersion.getVersion();
+        log.debug("Stored {}", bloomFilterVersion);
+    }
+
+    /**
+     * Publishes the live filter, updated in place, as the current version, without storing it.
+     * Must be called while holding this.
+     */
+    private void publishLiveFilter(){
+        byte[] serializedValue = filterType == FilterType.GUAVA
+                ? BloomFilterHelper.convertBloomFilterToByteArray(liveBloomFilter)
+                : liveFilter.toByteArray();
+        BloomFilterVersion bloomFilterVersion = new BloomFilterVersion(newSerializedBloomFilter(serializedValue, filterType));
+        currentVersion.set(bloomFilterVersion);
+        liveFilterChanged = false;
+        currentVersionUnstored = true;
+        log.debug("Published {}", bloomFilterVersion);
+    }
+
+    /**
+     * Stores the current version, if it has been published from the live filter (publishing the live filter first, if
+     * updated in place) and not stored yet. The stored filter replaces the last stored one, which is deleted, so that
+     * updates in place do not add rows to the database. The database is accessed without holding this, hence the
+     * current version can be published and updated in place in the meantime.
+     */
+    public void storeLiveFilter(){
+        BloomFilterVersion bloomFilterVersion;
+        synchronized (this) {
+            if (liveFilterChanged)
+                publishLiveFilter();
+            if (!currentVersionUnstored)
+                return;
+            bloomFilterVersion = currentVersion.get();
+            currentVersionUnstored = false;
+        }
+
+        SerializedBloomFilter serializedBloomFilter = new SerializedBloomFilter();
+        serializedBloomFilter.setSerializedValue(bloomFilterVersion.getSerializedValue());
+        serializedBloomFilter.setBloomFilterCreationDate(bloomFilterVersion.getCreationDate());
+        serializedBloomFilter.setFilterType(bloomFilterVersion.getFilterType().getName());
+        serializedBloomFilter.setVersion(bloomFilterVersion.getVersion());
+        long id;
+        try {
+            id = serializedBloomFilterRepository.save(serializedBloomFilter).getId();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (currentVersion.get() == bloomFilterVersion)
+                    currentVersionUnstored = true;
+            }
+            throw e;
+        }
+
+        long replacedId;
+        synchronized (this) {
+            if (bloomFilterVersion.getVersion() > storedVersion) {
+                replacedId = storedId;
+                storedId = id;
+                storedVersion = bloomFilterVersion.getVersion();
+            } else {
+                // A newer version has been stored in the meantime
+                replacedId = id;
+            }
+        }
+        if (replacedId >= 0)
+            serializedBloomFilterRepository.deleteById(replacedId);
+        log.debug("Stored {}", bloomFilterVersion);
+    }
+
+    /**
+     * Makes the live sharded Bloom Filter the current sharded version, assigning a new version to the changed shards.
+     * Must be called while holding this.
+     * @param changedShards the indexes of the shards that might have changed, or null if all of them might have
+     */
+    private void publishShards(Collection<Integer> changedShards){
+        ShardedBloomFilterVersion shardedBloomFilterVersion = ShardedBloomFilterVersion.next(currentShardedVersion.get(),
+                liveShardedBloomFilter, changedShards, shardVersionSequence::incrementAndGet);
+        currentShardedVersion.set(shardedBloomFilterVersion);
+        log.debug("Published {}", shardedBloomFilterVersion);
+    }
+
     /**
      * Computes and stores the Bloom Filter based on the actual element set.
+     * The computed Bloom Filter becomes the live one, including the elements added during the computation.
      */
     public void computeAndSaveSerializedBloomFilter(){
-        SerializedBloomFilter serializedBloomFilter = computeSerializedBloomFilter();
-        this.serializedBloomFilterRepository.save(serializedBloomFilter);
+        long removedAtStart;
+        List<String> addedDuringComputation = new ArrayList<>();
+        synchronized (this) {
+            removedAtStart = removedElements;
+            addedDuringComputations.add(addedDuringComputation);
+        }
+
+        ComputedBloomFilter computedBloomFilter;
+        try {
+            computedBloomFilter = computeBloomFilterInParallel();
+        } finally {
+            synchronized (this) {
+                addedDuringComputations.remove(addedDuringComputation);
+            }
+        }
+
+        synchronized (this) {
+            addedDuringComputation.forEach(computedBloomFilter::put);
+            // Removals performed during the computation might not be reflected by the new Bloom Filter
+            removedElements = Math.max(0, removedElements - removedAtStart);
+            if (computedBloomFilter.getFilterBuilder() != null) {
+                MembershipFilterBuilder filterBuilder = computedBloomFilter.getFilterBuilder();
+                liveFilter = filterBuilder.build();
+                liveFilterElements = filterBuilder.getCount();
+                store(liveFilter.toByteArray(), filterType);
+                return;
+            }
+            liveBloomFilter = computedBloomFilter.getBloomFilter();
+            store(liveBloomFilter);
+            liveShardedBloomFilter = computedBloomFilter.getShardedBloomFilter();
+            if (liveShardedBloomFilter != null)
+                publishShards(null);
+        }
+    }
+
+    /**
+     * Adds the input elements to the live Bloom Filter, which is published when the current version is next requested
+     * and stored by storeLiveFilter.
+     * If the sharded Bloom Filter is enabled, the elements are added to it as well and only the changed shards get
+     * a new version. A cuckoo filter is updated in place as well, while the static filters (xor and binary fuse) can
+     * only be computed again.
+     * @param values the values of the elements added to the dataset
+     * @return true if the live filter reflects the added elements, false if it must be computed again (e.g., no
+     *          filter has been computed yet, or its estimated false positive probability exceeds the threshold)
+     */
+    public boolean addElements(Collection<String> values){
+        log.debug("Calling addElements with values.size() = {}", values.size());
+        synchronized (this) {
+            addedDuringComputations.forEach(addedDuringComputation -> addedDuringComputation.addAll(values));
+            if (!loadLiveBloomFilter())
+                return false;
+            if (filterType != FilterType.GUAVA)
+                return addToLiveFilter(values) && !isDegraded();
+            values.forEach(liveBloomFilter::put);
+            liveFilterChanged = true;
+            if (liveShardedBloomFilter != null) {
+                Set<Integer> changedShards = new HashSet<>();
+                values.forEach(value -> changedShards.add(liveShardedBloomFilter.put(value)));
+                publishShards(changedShards);
+            }
+            return !isDegraded();
+        }
+    }
+
+    /**
+     * Adds the values to the live filter of type different from GUAVA, if it is a cuckoo filter which is not full.
+     * Must be called while holding this.
+     * @return true if the live filter has been updated
+     */
+    private boolean addToLiveFilter(Collection<String> values){
+        if (!(liveFilter instanceof CuckooFilter))
+            return false;
+        CuckooFilter cuckooFilter = (CuckooFilter) liveFilter;
+        boolean full = false;
+        for (String value : values)
+            full |= !cuckooFilter.put(value);
+        if (full) {
+            log.info("The cuckoo filter is full, it must be computed again");
+            return false;
+        }
+        liveFilterChanged = true;
+        return true;
+    }
+
+    /**
+     * Records the removal of elements from the dataset. A cuckoo filter deletes the values in place, while the other
+     * types only count the removals, which degrade their false positive probability.
+     * @param removedValues the values of the elements removed from the dataset, once per removed element
+     * @return true if the live filter is still acceptable, false if it must be computed again since its estimated
+     *          false positive probability exceeds the threshold
+     */
+    public boolean removeElements(Collection<String> removedValues){
+        log.debug("Calling removeElements with removedValues.size() = {}", removedValues.size());
+        synchronized (this) {
+            if (filterType == FilterType.CUCKOO && loadLiveBloomFilter()) {
+                CuckooFilter cuckooFilter = (CuckooFilter) liveFilter;
+                // Each value is stored at most CuckooFilter.MAX_COPIES times, whatever the number of removed elements
+                Map<String, Long> removedCopies = new HashMap<>();
+                removedValues.forEach(value -> removedCopies.merge(value, 1L, Long::sum));
+                removedCopies.forEach(cuckooFilter::removeCopies);
+                liveFilterChanged = true;
+                return true;
+            }
+            removedElements += removedValues.size();
+            return !isDegraded();
+        }
+    }
+
+    /**
+     * Estimates the false positive probability of the live Bloom Filter with respect to the current dataset.
+     * It adds to the probability estimated on the bits set by the inserted elements (which grows when more elements
+     * than expected are added), the fraction of elements of the Bloom Filter which have been removed from the dataset,
+     * since each of them is a false positive.
+     * @return the estimated false positive probability, or 0 if no Bloom Filter is available
+     */
+    public synchronized double estimateFpp(){
+        if (filterType == FilterType.CUCKOO)
+            return liveFilter == null ? 0 : ((CuckooFilter) liveFilter).expectedFpp();
+        if (filterType != FilterType.GUAVA)
+            return liveFilter == null ? 0 : STATIC_FILTER_FPP + Math.min(1, (double) removedElements / Math.max(1, liveFilterElements));
+        if (liveBloomFilter == null)
+            return 0;
+        long elements = Math.max(1, liveBloomFilter.approximateElementCount());
+        return liveBloomFilter.expectedFpp() + Math.min(1, (double) removedElements / elements);
+    }
+
+    private boolean isDegraded(){
+        double estimatedFpp = estimateFpp();
+        if (estimatedFpp <= rebuildFppThreshold)
+            return false;
+        log.info("The estimated false positive probability of the Bloom Filter is {}, it must be computed again", estimatedFpp);
+        return true;
+    }
+
+    /**
+     * Loads the last stored Bloom Filter as live one, if not already loaded.
+     * @return true if a live Bloom Filter is available
+     */
+    private boolean loadLiveBloomFilter(){
+        if (filterType != FilterType.GUAVA) {
+            // A filter stored with a different type is replaced by a new computation
+            if (liveFilter == null)
+                getCurrentBloomFilterVersion()
+                        .filter(bloomFilterVersion -> bloomFilterVersion.getFilterType() == filterType)
+                        .ifPresent(bloomFilterVersion -> {
+                            liveFilter = MembershipFilter.fromByteArray(filterType, bloomFilterVersion.getSerializedValue());
+                            // The number of elements of a static filter is not stored: any removal triggers a new computation
+                            liveFilterElements = liveFilter instanceof CuckooFilter ? ((CuckooFilter) liveFilter).getCount() : 0;
+                        });
+            return liveFilter != null;
+        }
+        if (liveBloomFilter == null)
+            getCurrentBloomFilterVersion().ifPresent(bloomFilterVersion ->
+                    liveBloomFilter = BloomFilterHelper.getBloomFilterFromByteArray(bloomFilterVersion.getSerializedValue()));
+        return liveBloomFilter != null;
+    }
+
+    /**
+     * Retrieves the current version of the Bloom Filter. The database is only accessed the first time, if no Bloom Filter
+     * has been stored by this instance yet. If the live filter has been updated in place, it is published as a new version
+     * without being stored.
+     * @return the current BloomFilterVersion, or an empty Optional if no Bloom Filter has been computed yet
+     */
+    public Optional<BloomFilterVersion> getCurrentBloomFilterVersion(){
+        if (liveFilterChanged) {
+            synchronized (this) {
+                if (liveFilterChanged)
+                    publishLiveFilter();
+            }
+        }
+        if (!currentVersionLoaded) {
+            synchronized (this) {
+                if (!currentVersionLoaded) {
+                    getLastSerializedBloomFilter().ifPresent(serializedBloomFilter -> {
+                        BloomFilterVersion bloomFilterVersion = new BloomFilterVersion(serializedBloomFilter);
+                        currentVersion.set(bloomFilterVersion);
+                        storedId = serializedBloomFilter.getId();
+                        storedVersion = bloomFilterVersion.getVersion();
+                        versionSequence.accumulateAndGet(storedVersion, Math::max);
+                    });
+                    currentVersionLoaded = true;
+                }
+            }
+        }
+        return Optional.ofNullable(currentVersion.get());
     }
 
     /**
-     * Asynchronously computes and stores the Bloom Filter based on the actual element set.
+     * Retrieves the current version of the sharded Bloom Filter. Since the sharded Bloom Filter is only kept in memory,
+     * it is available after the first computation of the Bloom Filter performed by this instance.
+     * @return the current ShardedBloomFilterVersion, or an empty Optional if not enabled or not computed yet
      */
-    @Async
-    public void computeAndSaveSerializedBloomFilterAsync(){
-        computeAndSaveSerializedBloomFilter();
+    public Optional<ShardedBloomFilterVersion> getCurrentShardedBloomFilterVersion(){
+        return Optional.ofNullable(currentShardedVersion.get());
     }
 
     /**
-     * Retrieves the last computed Bloom Filter.
+     * Retrieves the last computed Bloom Filter from the database.
      */
     Optional<SerializedBloomFilter> getLastSerializedBloomFilter(){
         return serializedBloomFilterRepository.findFirstByOrderByBloomFilterCreationDateDesc();
     }
-}
\ No newline at end of file
+}
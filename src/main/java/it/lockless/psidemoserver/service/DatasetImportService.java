@@ -0,0 +1,228 @@
+package it.lockless.psidemoserver.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.lockless.psidemoserver.entity.PsiElement;
+import it.lockless.psidemoserver.model.DatasetImportResultDTO;
+import it.lockless.psidemoserver.repository.PsiElementRepository;
+import it.lockless.psidemoserver.util.exception.InvalidDatasetException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offers functionalities used to import the server dataset from a stream of elements.
+ * Elements are inserted through JDBC batches while the stream is read, hence the memory used by an import
+ * does not depend on the size of the dataset.
+ * An import runs in a single transaction, hence a failed import leaves the server dataset unchanged.
+ */
+
+@Service
+public class DatasetImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(DatasetImportService.class);
+
+    private static final String INSERT_PSI_ELEMENT = "insert into psi_element (id, value) values (?, ?)";
+
+    private static final String NEXT_PSI_ELEMENT_ID = "select nextval('psi_element_id_seq')";
+
+    /**
+     * Formats of the imported datasets.
+     * CSV: the value of each element is the first column of the line. The first line is imported as well, unless
+     * the import declares a header.
+     * NDJSON: each line is either a JSON string or a JSON object with a "value" field.
+     */
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final PsiElementRepository psiElementRepository;
+
+    private final DatasetVersionService datasetVersionService;
+
+    private final BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator;
+
+    private final ObjectMapper objectMapper;
+
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${bloomfilter.enabled}")
+    private boolean bloomFilterEnabled;
+
+    @Value("${dataset.import.batch.size:1000}")
+    private int batchSize;
+
+    @Value("${dataset.import.progress.entries:100000}")
+    private long progressEntries;
+
+    public DatasetImportService(JdbcTemplate jdbcTemplate, PsiElementRepository psiElementRepository, DatasetVersionService datasetVersionService,
+                                BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator, ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.psiElementRepository = psiElementRepository;
+        this.datasetVersionService = datasetVersionService;
+        this.bloomFilterRebuildCoordinator = bloomFilterRebuildCoordinator;
+        this.objectMapper = objectMapper;
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * Assigns the ids of the imported elements. As the pooled optimizer used by Hibernate for PsiElement, each value
+     * of psi_element_id_seq reserves the ID_ALLOCATION_SIZE ids ending with it, hence a value is read from the
+     * sequence every ID_ALLOCATION_SIZE elements and the ids never collide with the ones assigned by Hibernate.
+     */
+    private class IdAllocator {
+
+        private long nextId = 1;
+
+        private long lastId = 0;
+
+        private long next() {
+            if (nextId > lastId) {
+                lastId = jdbcTemplate.queryForObject(NEXT_PSI_ELEMENT_ID, Long.class);
+                // The first value of the sequence reserves no complete block
+                if (lastId < PsiElement.ID_ALLOCATION_SIZE)
+                    lastId = jdbcTemplate.queryForObject(NEXT_PSI_ELEMENT_ID, Long.class);
+                nextId = lastId - PsiElement.ID_ALLOCATION_SIZE + 1;
+            }
+            return nextId++;
+        }
+    }
+
+    /**
+     * Imports the elements contained in the input stream into the server dataset.
+     * The deletion of the current dataset and the insertions are committed together once the whole stream has been
+     * read: if the import fails, the server dataset is left unchanged. When the import is completed, a computation of
+     * the Bloom Filter is requested once, if enabled.
+     * @param inputStream   the stream containing one element per line
+     * @param format        the format of the lines
+     * @param replace       whether the current server dataset should be deleted before the import
+     * @param header        whether the first line of a CSV stream is a header, to be skipped
+     * @return a DatasetImportResultDTO describing the outcome of the import
+     * @throws InvalidDatasetException if a line of the stream cannot be parsed
+     * @throws IOException if the stream cannot be read
+     */
+    public DatasetImportResultDTO importServerDataset(InputStream inputStream, Format format, boolean replace, boolean header) throws InvalidDatasetException, IOException {
+        log.info("Calling importServerDataset with format = {}, replace = {}, header = {}", format, replace, header);
+        long start = System.currentTimeMillis();
+        long importedEntries = 0;
+        TransactionStatus transactionStatus = transactionManager.getTransaction(new DefaultTransactionDefinition());
+        try {
+            if (replace)
+                psiElementRepository.deleteAllInBatch();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            IdAllocator idAllocator = new IdAllocator();
+            List<Object[]> batch = new ArrayList<>(batchSize);
+            long lineNumber = 0;
+            String line;
+            if (header && format == Format.CSV && reader.readLine() != null)
+                lineNumber++;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty())
+                    continue;
+                batch.add(new Object[]{idAllocator.next(), parseLine(line, format, lineNumber)});
+                if (batch.size() == batchSize) {
+                    importedEntries += insertBatch(batch);
+                    if (importedEntries % progressEntries < batchSize)
+                        log.info("Imported {} entries in {} ms", importedEntries, System.currentTimeMillis() - start);
+                }
+            }
+            importedEntries += insertBatch(batch);
+        } catch (InvalidDatasetException | IOException | RuntimeException e) {
+            log.warn("Import failed after {} entries, the server dataset is left unchanged: {}", importedEntries, e.getMessage());
+            transactionManager.rollback(transactionStatus);
+            throw e;
+        }
+        transactionManager.commit(transactionStatus);
+
+        datasetVersionService.markChanged();
+        if (bloomFilterEnabled)
+            bloomFilterRebuildCoordinator.requestRebuild();
+
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("Import completed: {} entries in {} ms", importedEntries, elapsed);
+        return new DatasetImportResultDTO(importedEntries, elapsed);
+    }
+
+    /**
+     * Inserts the batch of values and clears it.
+     * @return the number of inserted values
+     */
+    private int insertBatch(List<Object[]> batch) {
+        if (batch.isEmpty())
+            return 0;
+        jdbcTemplate.batchUpdate(INSERT_PSI_ELEMENT, batch);
+        int inserted = batch.size();
+        batch.clear();
+        return inserted;
+    }
+
+    private String parseLine(String line, Format format, long lineNumber) throws InvalidDatasetException {
+        switch (format) {
+            case CSV:
+                return parseCsvLine(line, lineNumber);
+            case NDJSON:
+                return parseNdjsonLine(line, lineNumber);
+            default:
+                throw new InvalidDatasetException("The format " + format + " is not supported");
+        }
+    }
+
+    /**
+     * Retrieves the first column of a CSV line. Quoted values can contain commas and escaped ("") quotes.
+     */
+    private String parseCsvLine(String line, long lineNumber) throws InvalidDatasetException {
+        if (!line.startsWith("\"")) {
+            int separator = line.indexOf(',');
+            return separator < 0 ? line : line.substring(0, separator);
+        }
+        StringBuilder value = new StringBuilder();
+        int i = 1;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i += 2;
+                    continue;
+                }
+                return value.toString();
+            }
+            value.append(c);
+            i++;
+        }
+        throw new InvalidDatasetException("Unterminated quoted value at line " + lineNumber);
+    }
+
+    private String parseNdjsonLine(String line, long lineNumber) throws InvalidDatasetException {
+        try {
+            JsonNode jsonNode = objectMapper.readTree(line);
+            if (jsonNode.isTextual())
+                return jsonNode.asText();
+            if (jsonNode.isObject() && jsonNode.path("value").isTextual())
+                return jsonNode.get("value").asText();
+        } catch (JsonProcessingException e) {
+            throw new InvalidDatasetException("Invalid JSON at line " + lineNumber);
+        }
+        throw new InvalidDatasetException("Line " + lineNumber + " is neither a JSON string nor an object with a value field");
+    }
+}
@@ -7,9 +7,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Offers functionalities used to initialize the database content.
@@ -25,12 +23,19 @@ public class DatasetService {
 
     private final BloomFilterService bloomFilterService;
 
+    private final DatasetVersionService datasetVersionService;
+
+    private final BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator;
+
     @Value("${bloomfilter.enabled}")
     private boolean bloomFilterEnabled;
 
-    public DatasetService(PsiElementRepository psiElementRepository, BloomFilterService bloomFilterService) {
+    public DatasetService(PsiElementRepository psiElementRepository, BloomFilterService bloomFilterService, DatasetVersionService datasetVersionService,
+                          BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator) {
         this.psiElementRepository = psiElementRepository;
         this.bloomFilterService = bloomFilterService;
+        this.datasetVersionService = datasetVersionService;
+        this.bloomFilterRebuildCoordinator = bloomFilterRebuildCoordinator;
     }
 
     /**
@@ -51,8 +56,69 @@ public class DatasetService {
         }
         psiElementRepository.saveAll(psiElementList);
 
-        // If enabled, we also update the Bloom Filter after setting the server dataset
+        // The information derived from the previous dataset (e.g., materialized encrypted pages) is no longer valid
+        datasetVersionService.markChanged();
+
+        // If enabled, we also request a computation of the Bloom Filter after setting the server dataset
+        if(bloomFilterEnabled)
+            bloomFilterRebuildCoordinator.requestRebuild();
+    }
+
+    /**
+     * Adds the input elements to the server dataset.
+     * If enabled, the elements are added to the current Bloom Filter without computing it again, if supported by its type.
+     * @param values the values of the elements to be added
+     */
+    public void addElements(Collection<String> values){
+        log.debug("Calling addElements with values.size() = {}", values.size());
+        if (values.isEmpty())
+            return;
+        List<PsiElement> psiElementList = new ArrayList<>(values.size());
+        for (String value : values) {
+            PsiElement psiElement = new PsiElement();
+            psiElement.setValue(value);
+            psiElementList.add(psiElement);
+        }
+        psiElementRepository.saveAll(psiElementList);
+        long datasetVersion = datasetVersionService.markChanged();
+
         if(bloomFilterEnabled)
-            bloomFilterService.computeAndSaveSerializedBloomFilterAsync();
+            updateBloomFilter(bloomFilterService.addElements(values), datasetVersion);
+    }
+
+    /**
+     * Removes all the elements having the input values from the server dataset.
+     * If enabled, the values are deleted from the filter if supported by its type (cuckoo), otherwise the filter
+     * is computed again only when the removals degrade its false positive probability beyond the configured threshold.
+     * @param values the values of the elements to be removed
+     * @return the number of removed elements
+     */
+    public int removeElements(Collection<String> values){
+        log.debug("Calling removeElements with values.size() = {}", values.size());
+        if (values.isEmpty())
+            return 0;
+        Set<String> valueSet = new HashSet<>(values);
+        // The removed values are needed, once per element, by the filters supporting deletions
+        List<String> removedValues = bloomFilterEnabled ? psiElementRepository.findValuesByValueIn(valueSet) : Collections.emptyList();
+        int removed = psiElementRepository.deleteByValueIn(valueSet);
+        if (removed == 0)
+            return 0;
+        long datasetVersion = datasetVersionService.markChanged();
+
+        if(bloomFilterEnabled)
+            updateBloomFilter(bloomFilterService.removeElements(removedValues), datasetVersion);
+        return removed;
+    }
+
+    /**
+     * Records that the Bloom Filter reflects the change and requests to store it if it has been updated in place,
+     * otherwise requests its computation.
+     */
+    private void updateBloomFilter(boolean applied, long datasetVersion){
+        if (applied) {
+            bloomFilterRebuildCoordinator.markApplied(datasetVersion);
+            bloomFilterRebuildCoordinator.requestStore();
+        } else
+            bloomFilterRebuildCoordinator.requestRebuild();
     }
 }
@@ -0,0 +1,78 @@
+package it.lockless.psidemoserver.service;
+
+import it.lockless.psidemoserver.repository.PsiElementRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the changes of the server dataset through a version number,
+ * which is incremented whenever the dataset is modified.
+ * The information derived from the dataset (e.g., the number of elements) is cached for the current version.
+ */
+
+@Service
+public class DatasetVersionService {
+
+    private static final Logger log = LoggerFactory.getLogger(DatasetVersionService.class);
+
+    private final PsiElementRepository psiElementRepository;
+
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile VersionedCount versionedCount;
+
+    public DatasetVersionService(PsiElementRepository psiElementRepository) {
+        this.psiElementRepository = psiElementRepository;
+    }
+
+    /**
+     * Retrieves the current version of the server dataset.
+     * @return the version of the server dataset
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Records that the server dataset has been modified.
+     * @return the new version of the server dataset
+     */
+    public long markChanged() {
+        long newVersion = version.incrementAndGet();
+        log.debug("Server dataset changed, new version = {}", newVersion);
+        return newVersion;
+    }
+
+    /**
+     * Retrieves the number of elements of the server dataset.
+     * The count is computed only once for each version of the dataset.
+     * @return the number of elements of the server dataset
+     */
+    public long countElements() {
+        long currentVersion = version.get();
+        VersionedCount currentCount = this.versionedCount;
+        if (currentCount != null && currentCount.version == currentVersion)
+            return currentCount.count;
+
+        long count = psiElementRepository.count();
+        // If the dataset changed during the count, the result is returned but not cached
+        if (version.get() == currentVersion)
+            this.versionedCount = new VersionedCount(currentVersion, count);
+        return count;
+    }
+
+    private static class VersionedCount {
+
+        private final long version;
+
+        private final long count;
+
+        private VersionedCount(long version, long count) {
+            this.version = version;
+            this.count = count;
+        }
+    }
+}
@@ -5,20 +5,32 @@ import it.lockless.psidemoserver.entity.enumeration.Algorithm;
 import it.lockless.psidemoserver.mapper.AlgorithmMapper;
 import it.lockless.psidemoserver.model.PsiAlgorithmParameterListDTO;
 import it.lockless.psidemoserver.model.PsiDatasetMapDTO;
+import it.lockless.psidemoserver.model.PsiServerDatasetCursor;
 import it.lockless.psidemoserver.model.PsiServerDatasetPageDTO;
 import it.lockless.psidemoserver.repository.PsiElementRepository;
+import it.lockless.psidemoserver.service.cache.BulkPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.ScopedPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.EncryptedServerDatasetCache;
+import it.lockless.psidemoserver.service.cache.EncryptedServerDatasetCache.EncryptedServerDatasetPage;
+import it.lockless.psidemoserver.service.cache.PsiServerCache.CachedPsiServer;
+import it.lockless.psidemoserver.util.ObjectSerializer;
+import it.lockless.psidemoserver.util.exception.InvalidCursorException;
+import it.lockless.psidemoserver.util.exception.InvalidPageException;
 import it.lockless.psidemoserver.util.exception.SessionExpiredException;
 import it.lockless.psidemoserver.util.exception.SessionNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import psi.cache.PsiCacheProvider;
 import psi.model.PsiAlgorithmParameter;
 import psi.server.PsiServer;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * Offers the functionalities for PSI calculation by calling the PSI-SDK.
@@ -33,9 +45,29 @@ public class EncryptionService {
 
     private final PsiElementRepository psiElementRepository;
 
-    public EncryptionService(PsiSessionService psiSessionService, PsiElementRepository psiElementRepository) {
+    private final EncryptedServerDatasetCache encryptedServerDatasetCache;
+
+    private final DatasetVersionService datasetVersionService;
+
+    @Value("${encryption.materialization.enabled:true}")
+    private boolean materializationEnabled;
+
+    @Value("${encryption.cache.chunk.size:10000}")
+    private int cacheChunkSize;
+
+    private BulkPsiCacheProvider bulkPsiCacheProvider;
+
+    @Autowired(required = false)
+    private void setPsiCacheProvider(PsiCacheProvider psiCacheProvider){
+        if (psiCacheProvider instanceof BulkPsiCacheProvider)
+            this.bulkPsiCacheProvider = (BulkPsiCacheProvider) psiCacheProvider;
+    }
+
+    public EncryptionService(PsiSessionService psiSessionService, PsiElementRepository psiElementRepository, EncryptedServerDatasetCache encryptedServerDatasetCache, DatasetVersionService datasetVersionService) {
         this.psiSessionService = psiSessionService;
         this.psiElementRepository = psiElementRepository;
+        this.encryptedServerDatasetCache = encryptedServerDatasetCache;
+        this.datasetVersionService = datasetVersionService;
     }
 
     /**
@@ -59,6 +91,8 @@ public class EncryptionService {
 
     /**
      * Encrypts the passed client dataset using the key associated with the session.
+     * If the cache supports bulk operations, the client dataset is encrypted in chunks, whose encryption results are
+     * retrieved from and stored into the cache at once.
      * @param sessionId the id identifying the session associated to the client
      * @param clientSet the client set to be encrypted by the server
      * @return a PsiDatasetMapDTO containing the client encrypted dataset
@@ -66,42 +100,186 @@ public class EncryptionService {
     public PsiDatasetMapDTO encryptClientSet(long sessionId, PsiDatasetMapDTO clientSet) throws SessionNotFoundException, SessionExpiredException {
         log.debug("Calling encryptClientSet with sessionId = {}, clientSet.size() = {}", sessionId, clientSet.getContent().size());
         // Retrieves psiServe instance
-        PsiServer psiServer = psiSessionService.loadPsiServerBySessionId(sessionId);
+        CachedPsiServer cachedPsiServer = psiSessionService.loadCachedPsiServerBySessionId(sessionId);
 
         // Encrypts client dataset
-        Map<Long, String> encryptedClientSet = psiServer.encryptDatasetMap(clientSet.getContent());
+        Map<Long, String> encryptedClientSet = bulkPsiCacheProvider != null
+                ? encryptDatasetMapInBulk(cachedPsiServer, clientSet.getContent())
+                : cachedPsiServer.getPsiServer().encryptDatasetMap(clientSet.getContent());
 
         // Builds response
         return new PsiDatasetMapDTO(encryptedClientSet);
     }
 
+    /**
+     * Encrypts the input map in chunks of cacheChunkSize entries. For each chunk, the cached encryption results are
+     * retrieved at once, only the values not cached are encrypted, and their encryption results are stored at once.
+     * Results are cached by key, since the encryption of a value only depends on the key of the session.
+     * @param cachedPsiServer   the PsiServer of the session
+     * @param datasetMap        the map to be encrypted
+     * @return the map containing the encryption of the values of the input map
+     */
+    private Map<Long, String> encryptDatasetMapInBulk(CachedPsiServer cachedPsiServer, Map<Long, String> datasetMap) {
+        log.trace("Calling encryptDatasetMapInBulk with datasetMap.size() = {}", datasetMap.size());
+        BulkPsiCacheProvider keyPsiCacheProvider = new ScopedPsiCacheProvider(bulkPsiCacheProvider, cachedPsiServer.getKeyId());
+        Map<Long, String> encryptedDatasetMap = new HashMap<>(datasetMap.size());
+        List<Map.Entry<Long, String>> entries = new ArrayList<>(datasetMap.entrySet());
+        long hits = 0;
+        for (int from = 0; from < entries.size(); from += cacheChunkSize) {
+            List<Map.Entry<Long, String>> chunk = entries.subList(from, Math.min(from + cacheChunkSize, entries.size()));
+            Set<String> cacheKeys = new HashSet<>(chunk.size());
+            chunk.forEach(entry -> cacheKeys.add(entry.getValue()));
+            Map<String, String> cachedValues = keyPsiCacheProvider.getAll(cacheKeys);
+
+            Map<Long, String> misses = new HashMap<>();
+            for (Map.Entry<Long, String> entry : chunk) {
+                String cachedValue = cachedValues.get(entry.getValue());
+                if (cachedValue != null)
+                    encryptedDatasetMap.put(entry.getKey(), cachedValue);
+                else
+                    misses.put(entry.getKey(), entry.getValue());
+            }
+            hits += chunk.size() - misses.size();
+            if (misses.isEmpty())
+                continue;
+
+            Map<Long, String> encryptedMisses = cachedPsiServer.getUncachedPsiServer().encryptDatasetMap(misses);
+            Map<String, String> newCachedValues = new HashMap<>(misses.size());
+            for (Map.Entry<Long, String> entry : encryptedMisses.entrySet())
+                newCachedValues.put(misses.get(entry.getKey()), entry.getValue());
+            keyPsiCacheProvider.putAll(newCachedValues);
+            encryptedDatasetMap.putAll(encryptedMisses);
+        }
+        log.debug("Encrypted {} entries, {} of which retrieved from the cache", datasetMap.size(), hits);
+        return encryptedDatasetMap;
+    }
+
+    private static void validatePageSize(int size) throws InvalidPageException {
+        if (size < 1)
+            throw new InvalidPageException("The size must be positive");
+    }
+
     /**
      * Encrypts a server dataset page (represented by page number and size) using the key associated with the session.
+     * If materialization is enabled, the encrypted page is computed once per key and shared among all the sessions
+     * using the same key.
      * @param sessionId the id identifying the session associated to the client
      * @param page		the page to be retrieved by the server set
      * @param size		the size of the page to be retrieved
      * @return 	a PsiServerDatasetPageDTO containing the server encrypted dataset page
+     * @throws InvalidPageException if the page is negative or the size is not positive
      */
-    public PsiServerDatasetPageDTO getEncryptedServerDataset(long sessionId, int page, int size) throws SessionNotFoundException, SessionExpiredException {
+    public PsiServerDatasetPageDTO getEncryptedServerDataset(long sessionId, int page, int size) throws InvalidPageException, SessionNotFoundException, SessionExpiredException {
         log.debug("Calling getEncryptedServerDataset with sessionId = {}, page = {}, size = {}", sessionId, page, size);
+        if (page < 0)
+            throw new InvalidPageException("The page must not be negative");
+        validatePageSize(size);
         // Retrieves the psiServer instance
-        PsiServer psiServer = psiSessionService.loadPsiServerBySessionId(sessionId);
+        CachedPsiServer cachedPsiServer = psiSessionService.loadCachedPsiServerBySessionId(sessionId);
+        PsiServer psiServer = cachedPsiServer.getPsiServer();
+        long datasetVersion = datasetVersionService.getVersion();
+        long totalEntries = datasetVersionService.countElements();
+        int totalPages = (int) ((totalEntries + size - 1) / size);
 
-        // Retrieves a clear page depending on the specified page and size
-        Page<PsiElement> psiElementPage = psiElementRepository.findAll(PageRequest.of(page, size, Sort.by("id").ascending()));
-        Set<String> clearElementList = new HashSet<>(size);
-        psiElementPage.iterator().forEachRemaining(element -> clearElementList.add(element.getValue()));
+        // Retrieves the encrypted page, computing it only if not already materialized for the key of the session
+        Supplier<EncryptedServerDatasetPage> loader = () -> encryptServerDatasetPage(psiServer,
+                psiElementRepository.findByIdGreaterThan(Long.MIN_VALUE, PageRequest.of(page, size, Sort.by("id").ascending())),
+                (page + 1) >= totalPages);
+        EncryptedServerDatasetPage encryptedPage = materializationEnabled
+                ? encryptedServerDatasetCache.getPage(datasetVersion, cachedPsiServer.getKeyId(), page, size, loader)
+                : loader.get();
 
-        // Encrypts and build response
-        PsiServerDatasetPageDTO psiServerDatasetPageDTO = new PsiServerDatasetPageDTO();
-        psiServerDatasetPageDTO.setContent(psiServer.encryptDataset(clearElementList));
-        psiServerDatasetPageDTO.setSize(size);
-        psiServerDatasetPageDTO.setTotalEntries(psiElementPage.getTotalElements());
-        psiServerDatasetPageDTO.setTotalPages(psiElementPage.getTotalPages());
+        // Builds response
+        PsiServerDatasetPageDTO psiServerDatasetPageDTO = buildPsiServerDatasetPageDTO(encryptedPage, size, totalEntries, totalPages);
         psiServerDatasetPageDTO.setPage(page);
-        psiServerDatasetPageDTO.setEntries(clearElementList.size());
-        psiServerDatasetPageDTO.setLast((page + 1) >= psiElementPage.getTotalPages());
+        return psiServerDatasetPageDTO;
+    }
+
+    /**
+     * Encrypts the server dataset page following the position identified by the cursor,
+     * using the key associated with the session. Differently from the retrieval by page number,
+     * the cost of retrieving a page does not depend on its position in the dataset.
+     * If materialization is enabled, the encrypted page is computed once per key and shared among all the sessions
+     * using the same key.
+     * @param sessionId the id identifying the session associated to the client
+     * @param cursor    the cursor returned with the previous page, or an empty string to retrieve the first page
+     * @param size		the size of the page to be retrieved
+     * @return 	a PsiServerDatasetPageDTO containing the server encrypted dataset page and the cursor of the next page
+     * @throws InvalidCursorException if the cursor was not generated by the server
+     * @throws InvalidPageException if the size is not positive
+     */
+    public PsiServerDatasetPageDTO getEncryptedServerDataset(long sessionId, String cursor, int size) throws SessionNotFoundException, SessionExpiredException, InvalidCursorException, InvalidPageException {
+        log.debug("Calling getEncryptedServerDataset with sessionId = {}, cursor = {}, size = {}", sessionId, cursor, size);
+        validatePageSize(size);
+        long afterId = decodeCursor(cursor);
+        // Retrieves the psiServer instance
+        CachedPsiServer cachedPsiServer = psiSessionService.loadCachedPsiServerBySessionId(sessionId);
+        PsiServer psiServer = cachedPsiServer.getPsiServer();
+        long datasetVersion = datasetVersionService.getVersion();
+        long totalEntries = datasetVersionService.countElements();
+        int totalPages = (int) ((totalEntries + size - 1) / size);
+
+        // Reads one more element than required to know whether the page is the last one
+        Supplier<EncryptedServerDatasetPage> loader = () -> {
+            List<PsiElement> psiElementList = psiElementRepository.findByIdGreaterThan(afterId, PageRequest.of(0, size + 1, Sort.by("id").ascending()));
+            boolean last = psiElementList.size() <= size;
+            return encryptServerDatasetPage(psiServer, last ? psiElementList : psiElementList.subList(0, size), last);
+        };
+        EncryptedServerDatasetPage encryptedPage = materializationEnabled
+                ? encryptedServerDatasetCache.getPageAfter(datasetVersion, cachedPsiServer.getKeyId(), afterId, size, loader)
+                : loader.get();
+
+        // Builds response
+        PsiServerDatasetPageDTO psiServerDatasetPageDTO = buildPsiServerDatasetPageDTO(encryptedPage, size, totalEntries, totalPages);
+        if (!encryptedPage.isLast())
+            psiServerDatasetPageDTO.setNextCursor(ObjectSerializer.convertObjectToString(new PsiServerDatasetCursor(encryptedPage.getLastId())));
+        return psiServerDatasetPageDTO;
+    }
+
+    /**
+     * Encrypts a page of the server dataset.
+     * @param psiServer         the PsiServer used to encrypt the page
+     * @param psiElementList    the elements of the page
+     * @param last              whether the page is the last one of the server dataset
+     * @return the encrypted page with its paging metadata
+     */
+    private EncryptedServerDatasetPage encryptServerDatasetPage(PsiServer psiServer, List<PsiElement> psiElementList, boolean last) {
+        log.trace("Calling encryptServerDatasetPage with psiElementList.size() = {}", psiElementList.size());
+        Set<String> clearElementList = new HashSet<>(psiElementList.size());
+        psiElementList.forEach(element -> clearElementList.add(element.getValue()));
+        long lastId = psiElementList.isEmpty() ? Long.MIN_VALUE : psiElementList.get(psiElementList.size() - 1).getId();
+
+        // Encrypts the page
+        return new EncryptedServerDatasetPage(psiServer.encryptDataset(clearElementList), clearElementList.size(), lastId, last);
+    }
 
+    private PsiServerDatasetPageDTO buildPsiServerDatasetPageDTO(EncryptedServerDatasetPage encryptedPage, int size, long totalEntries, int totalPages) {
+        PsiServerDatasetPageDTO psiServerDatasetPageDTO = new PsiServerDatasetPageDTO();
+        psiServerDatasetPageDTO.setContent(encryptedPage.getContent());
+        psiServerDatasetPageDTO.setSize(size);
+        psiServerDatasetPageDTO.setTotalEntries(totalEntries);
+        psiServerDatasetPageDTO.setTotalPages(totalPages);
+        psiServerDatasetPageDTO.setEntries(encryptedPage.getEntries());
+        psiServerDatasetPageDTO.setLast(encryptedPage.isLast());
         return psiServerDatasetPageDTO;
     }
+
+    /**
+     * Decodes the cursor sent by the client into the id of the last element of the previous page.
+     * @param cursor the cursor returned with the previous page, or an empty string to start from the first page
+     * @return the id after which the page starts
+     * @throws InvalidCursorException if the cursor was not generated by the server
+     */
+    private long decodeCursor(String cursor) throws InvalidCursorException {
+        if (cursor == null || cursor.isEmpty())
+            return Long.MIN_VALUE;
+        try {
+            PsiServerDatasetCursor psiServerDatasetCursor = ObjectSerializer.convertStringToObject(cursor, PsiServerDatasetCursor.class);
+            if (psiServerDatasetCursor.getLastId() == null)
+                throw new InvalidCursorException("The cursor "+cursor+" is not valid");
+            return psiServerDatasetCursor.getLastId();
+        } catch (RuntimeException e) {
+            throw new InvalidCursorException("The cursor "+cursor+" is not valid");
+        }
+    }
 }
@@ -0,0 +1,261 @@
+package it.lockless.psidemoserver.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.lockless.psidemoserver.config.PsiKeyRegistry;
+import it.lockless.psidemoserver.config.PsiKeyRegistry.RegisteredKey;
+import it.lockless.psidemoserver.entity.enumeration.Algorithm;
+import it.lockless.psidemoserver.mapper.AlgorithmMapper;
+import it.lockless.psidemoserver.util.exception.AlgorithmInvalidKeyException;
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import psi.PsiServerFactory;
+import psi.PsiServerKeyDescription;
+import psi.exception.UnsupportedKeySizeException;
+import psi.model.PsiAlgorithmParameter;
+import psi.model.PsiServerSession;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates keys in the background, so that the generation of a key (which may take seconds for 2048 and 4096 bits
+ * keys) does not block the creation of the sessions.
+ * When the server starts, a key is generated and stored for each pair <algorithm, keySize> of the Algorithm enum
+ * without a stored key. Moreover, keys.spare.count spare keys are kept in memory for each pair: they are used when a
+ * session is requested for a pair without a stored key, and to rotate the key of a pair. Spare keys are generated
+ * again, in the background, as soon as they are used.
+ * Once the sessions using a rotated key have expired, the encryption results computed with the retired key are removed
+ * from the cache.
+ */
+
+@Service
+public class KeyPreGenerationService {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyPreGenerationService.class);
+
+    /**
+     * Spare keys of a pair <algorithm, keySize>, with the number of keys being generated for it.
+     */
+    private static class SpareKeys {
+
+        private final Queue<PsiServerKeyDescription> keys = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger generating = new AtomicInteger();
+    }
+
+    private final PsiKeyService psiKeyService;
+
+    private final PsiKeyRegistry psiKeyRegistry;
+
+    private final boolean enabled;
+
+    private final int spareCount;
+
+    private final ExecutorService executorService;
+
+    private final long sessionExpirationMinutes;
+
+    // Removes the cached entries of the retired keys once their sessions have expired
+    private final ScheduledExecutorService retirementExecutorService;
+
+    private final Map<Algorithm, Map<Integer, SpareKeys>> spareKeys = new EnumMap<>(Algorithm.class);
+
+    public KeyPreGenerationService(PsiKeyService psiKeyService, PsiKeyRegistry psiKeyRegistry,
+                                   @Value("${keys.pregeneration.enabled:true}") boolean enabled,
+                                   @Value("${keys.pregeneration.threads:2}") int threads,
+                                   @Value("${keys.spare.count:1}") int spareCount,
+                                   @Value("${session.expiration.minutes}") long sessionExpirationMinutes) {
+        this.psiKeyService = psiKeyService;
+        this.psiKeyRegistry = psiKeyRegistry;
+        this.enabled = enabled;
+        this.spareCount = spareCount;
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactoryBuilder().setNameFormat("key-pregeneration-%d").setDaemon(true).build());
+        this.sessionExpirationMinutes = sessionExpirationMinutes;
+        this.retirementExecutorService = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("key-retirement").setDaemon(true).build());
+        for (Algorithm algorithm : Algorithm.values()) {
+            Map<Integer, SpareKeys> algorithmSpareKeys = new HashMap<>();
+            for (Integer keySize : algorithm.getSupportedKeySize())
+                algorithmSpareKeys.put(keySize, new SpareKeys());
+            spareKeys.put(algorithm, algorithmSpareKeys);
+        }
+        log.info("Creating KeyPreGenerationService with enabled = {}, threads = {}, spareCount = {}", enabled, threads, spareCount);
+    }
+
+    /**
+     * Schedules the generation of the missing keys and of the spare keys of all the pairs <algorithm, keySize>.
+     */
+    @PostConstruct
+    void start() {
+        if (!enabled)
+            return;
+        spareKeys.forEach((algorithm, algorithmSpareKeys) -> algorithmSpareKeys.forEach((keySize, pairSpareKeys) -> {
+            if (psiKeyRegistry.findByAlgorithmAndKeySize(algorithm, keySize) == null)
+                submit(() -> generateAndStore(algorithm, keySize));
+            refill(algorithm, keySize);
+        }));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executorService.shutdownNow();
+        retirementExecutorService.shutdownNow();
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("The key generation has been stopped");
+        }
+    }
+
+    /**
+     * Generates a key with the sdk.
+     * @return the generated key, or null if the generation failed
+     */
+    private static PsiServerKeyDescription generate(Algorithm algorithm, int keySize) {
+        log.debug("Generating a key with algorithm = {}, keySize = {}", algorithm, keySize);
+        try {
+            PsiServerSession psiServerSession = PsiServerFactory.initSession(new PsiAlgorithmParameter(AlgorithmMapper.toPsiAlgorithm(algorithm), keySize));
+            if (psiServerSession != null && psiServerSession.getPsiServerKeyDescription() != null)
+                return psiServerSession.getPsiServerKeyDescription();
+            log.warn("No key has been generated for algorithm = {}, keySize = {}", algorithm, keySize);
+        } catch (UnsupportedKeySizeException | RuntimeException e) {
+            log.warn("Unable to generate a key for algorithm = {}, keySize = {}: {}", algorithm, keySize, e.getMessage());
+        }
+        return null;
+    }
+
+    private void generateAndStore(Algorithm algorithm, int keySize) {
+        if (psiKeyRegistry.findByAlgorithmAndKeySize(algorithm, keySize) != null)
+            return;
+        PsiServerKeyDescription psiServerKeyDescription = generate(algorithm, keySize);
+        if (psiServerKeyDescription != null) {
+            long keyId = psiKeyService.storePsiServerKeyDescription(new PsiAlgorithmParameter(AlgorithmMapper.toPsiAlgorithm(algorithm), keySize), psiServerKeyDescription);
+            log.info("Generated the key {} for algorithm = {}, keySize = {}", keyId, algorithm, keySize);
+        }
+    }
+
+    /**
+     * Schedules the generation of the spare keys missing for the pair <algorithm, keySize>.
+     */
+    private void refill(Algorithm algorithm, int keySize) {
+        SpareKeys pairSpareKeys = spareKeys.get(algorithm).get(keySize);
+        while (true) {
+            int generating = pairSpareKeys.generating.get();
+            if (pairSpareKeys.keys.size() + generating >= spareCount)
+                return;
+            if (!pairSpareKeys.generating.compareAndSet(generating, generating + 1))
+                continue;
+            submit(() -> {
+                try {
+                    PsiServerKeyDescription psiServerKeyDescription = generate(algorithm, keySize);
+                    if (psiServerKeyDescription != null)
+                        pairSpareKeys.keys.add(psiServerKeyDescription);
+                } finally {
+                    pairSpareKeys.generating.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes a spare key of the input algorithm parameters, if available, and schedules the generation of a new one.
+     * @param psiAlgorithmParameter the algorithm parameters of the key
+     * @return an Optional containing the spare key, an empty Optional if no spare key is ready or the parameters are
+     * not supported
+     */
+    private Optional<PsiServerKeyDescription> takeSpareKey(PsiAlgorithmParameter psiAlgorithmParameter) {
+        Algorithm algorithm = AlgorithmMapper.toEntity(psiAlgorithmParameter.getAlgorithm());
+        SpareKeys pairSpareKeys = spareKeys.get(algorithm).get(psiAlgorithmParameter.getKeySize());
+        if (pairSpareKeys == null)
+            return Optional.empty();
+        PsiServerKeyDescription psiServerKeyDescription = pairSpareKeys.keys.poll();
+        if (enabled)
+            refill(algorithm, psiAlgorithmParameter.getKeySize());
+        return Optional.ofNullable(psiServerKeyDescription);
+    }
+
+    /**
+     * Provides a new key of the input algorithm parameters: a spare key if ready, otherwise a key generated by the
+     * calling thread. The key is not stored.
+     * @param psiAlgorithmParameter the algorithm parameters of the key
+     * @return the new key
+     * @throws AlgorithmInvalidKeyException if the key size is not supported for the algorithm
+     */
+    public PsiServerKeyDescription newKey(PsiAlgorithmParameter psiAlgorithmParameter) throws AlgorithmInvalidKeyException {
+        Algorithm algorithm = AlgorithmMapper.toEntity(psiAlgorithmParameter.getAlgorithm());
+        if (!algorithm.getSupportedKeySize().contains(psiAlgorithmParameter.getKeySize()))
+            throw new AlgorithmInvalidKeyException("The keySize " + psiAlgorithmParameter.getKeySize() + " is not supported for the algorithm " + psiAlgorithmParameter.getAlgorithm());
+        PsiServerKeyDescription psiServerKeyDescription = takeSpareKey(psiAlgorithmParameter)
+                .orElseGet(() -> generate(algorithm, psiAlgorithmParameter.getKeySize()));
+        if (psiServerKeyDescription == null)
+            throw new CustomRuntimeException("Unable to generate a key for the algorithm " + psiAlgorithmParameter.getAlgorithm() + " and keySize " + psiAlgorithmParameter.getKeySize());
+        return psiServerKeyDescription;
+    }
+
+    /**
+     * Replaces the key used by the new sessions of the input algorithm parameters with a new key (see newKey).
+     * Existing sessions keep using their key, whose cached entries are removed after session.expiration.minutes,
+     * when all its sessions have expired.
+     * @param psiAlgorithmParameter the algorithm parameters of the key
+     * @return the keyId of the new key
+     * @throws AlgorithmInvalidKeyException if the key size is not supported for the algorithm
+     */
+    public long rotateKey(PsiAlgorithmParameter psiAlgorithmParameter) throws AlgorithmInvalidKeyException {
+        log.info("Calling rotateKey with psiAlgorithmParameter = {}", psiAlgorithmParameter);
+        PsiServerKeyDescription psiServerKeyDescription = newKey(psiAlgorithmParameter);
+        Optional<RegisteredKey> retiredKey = psiKeyService.findByPsiAlgorithmParameter(psiAlgorithmParameter);
+        long keyId = psiKeyService.storePsiServerKeyDescription(psiAlgorithmParameter, psiServerKeyDescription);
+        retiredKey.ifPresent(registeredKey -> scheduleInvalidation(registeredKey.getKeyId()));
+        return keyId;
+    }
+
+    /**
+     * Schedules the removal of the cached entries of a retired key after session.expiration.minutes, since the
+     * sessions created before its retirement can use it until then.
+     * @param keyId the id of the retired key
+     */
+    private void scheduleInvalidation(long keyId) {
+        log.debug("Scheduling the invalidation of the cached entries of the key {} in {} minutes", keyId, sessionExpirationMinutes);
+        try {
+            retirementExecutorService.schedule(() -> {
+                try {
+                    long removed = psiKeyService.invalidateCachedEntries(keyId);
+                    log.info("Removed {} cached entries of the retired key {}", removed, keyId);
+                } catch (RuntimeException e) {
+                    log.warn("Unable to remove the cached entries of the retired key {}: {}", keyId, e.getMessage());
+                }
+            }, sessionExpirationMinutes, TimeUnit.MINUTES);
+        } catch (RejectedExecutionException e) {
+            log.debug("The key retirement has been stopped");
+        }
+    }
+
+    /**
+     * @param algorithm the algorithm of the keys
+     * @param keySize   the size of the keys
+     * @return the number of spare keys ready for the pair <algorithm, keySize>
+     */
+    public int getSpareKeyCount(Algorithm algorithm, int keySize) {
+        SpareKeys pairSpareKeys = spareKeys.get(algorithm).get(keySize);
+        return pairSpareKeys == null ? 0 : pairSpareKeys.keys.size();
+    }
+}
@@ -1,15 +1,19 @@
 package it.lockless.psidemoserver.service;
 
 import it.lockless.psidemoserver.config.PsiKey;
+import it.lockless.psidemoserver.config.PsiKeyRegistry;
+import it.lockless.psidemoserver.config.PsiKeyRegistry.RegisteredKey;
 import it.lockless.psidemoserver.config.StoredAlgorithmKey;
 import it.lockless.psidemoserver.mapper.AlgorithmMapper;
+import it.lockless.psidemoserver.service.cache.BulkPsiCacheProvider;
 import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
 import it.lockless.psidemoserver.util.exception.KeyNotAvailableException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import psi.PsiServerKeyDescription;
-import psi.PsiServerKeyDescriptionFactory;
+import psi.cache.PsiCacheProvider;
 import psi.model.PsiAlgorithmParameter;
 
 import java.security.SecureRandom;
@@ -26,33 +30,23 @@ public class PsiKeyService {
 
     private final StoredAlgorithmKey storedAlgorithmKey;
 
-    public PsiKeyService(StoredAlgorithmKey storedAlgorithmKey) {
-        this.storedAlgorithmKey = storedAlgorithmKey;
+    private final PsiKeyRegistry psiKeyRegistry;
+
+    private BulkPsiCacheProvider bulkPsiCacheProvider;
+
+    @Autowired(required = false)
+    private void setPsiCacheProvider(PsiCacheProvider psiCacheProvider){
+        if (psiCacheProvider instanceof BulkPsiCacheProvider)
+            this.bulkPsiCacheProvider = (BulkPsiCacheProvider) psiCacheProvider;
     }
 
-    /**
-     * Builds PsiServerKeyDescription from a PsiKey
-     * @param psiKey the database object containing the key information
-     * @return a PsiServerKeyDescription representing the key
-     * */
-    PsiServerKeyDescription buildPsiServerKeyDescription(PsiKey psiKey){
-        log.trace("Calling buildPsiServerKeyDescription with psiKey = {}", psiKey);
-        switch (psiKey.getAlgorithm()) {
-            case BS:
-                return PsiServerKeyDescriptionFactory.createBsServerKeyDescription(psiKey.getPrivateKey(), psiKey.getPublicKey(), psiKey.getModulus());
-            case DH:
-                return PsiServerKeyDescriptionFactory.createDhServerKeyDescription(psiKey.getPrivateKey(), psiKey.getModulus(), psiKey.getGenerator());
-            case ECBS:
-                return PsiServerKeyDescriptionFactory.createEcBsServerKeyDescription(psiKey.getPrivateKey(), psiKey.getPublicKey());
-            case ECDH:
-                return PsiServerKeyDescriptionFactory.createEcDhServerKeyDescription(psiKey.getPrivateKey());
-            default:
-                throw new CustomRuntimeException("The algorithm "+psiKey.getAlgorithm()+" is not supported");
-        }
+    public PsiKeyService(StoredAlgorithmKey storedAlgorithmKey, PsiKeyRegistry psiKeyRegistry) {
+        this.storedAlgorithmKey = storedAlgorithmKey;
+        this.psiKeyRegistry = psiKeyRegistry;
     }
 
     /**
-     * Builds and stores a PsiKey from a PsiServerKeyDescription
+     * Builds and stores a PsiKey from a PsiServerKeyDescription, and adds it to the PsiKeyRegistry
      * @param psiAlgorithmParameter     the algorithm parameters associated to the key to be stored
      * @param psiServerKeyDescription   the sdk representation of a server key
      * @return the keyId associated to the new key
@@ -80,28 +74,45 @@ public class PsiKeyService {
                 throw new CustomRuntimeException("The algorithm "+psiAlgorithmParameter.getAlgorithm()+" is not supported");
         }
         storedAlgorithmKey.storeKey(psiKey);
+        psiKeyRegistry.register(psiKey);
         return psiKey.getKeyId();
     }
 
     /**
-     * Retrieves the PsiServerKeyDescription corresponding to the keyId.
+     * Retrieves the registered key corresponding to the keyId.
      * @param keyId the id of the key to be retrieved.
-     * @return a PsiServerKeyDescription of the key associated to the keyId.
+     * @return the RegisteredKey associated to the keyId, containing its PsiServerKeyDescription.
+     * @throws KeyNotAvailableException if the keyId does not correspond to any stored key
      */
-    PsiServerKeyDescription findAndBuildByKeyId(Long keyId){
+    RegisteredKey findByKeyId(Long keyId){
         log.trace("Calling findByKeyId with keyId = {}", keyId);
-        return storedAlgorithmKey.findByKeyId(keyId).map(this::buildPsiServerKeyDescription)
-                .orElseThrow(KeyNotAvailableException::new);
+        RegisteredKey registeredKey = psiKeyRegistry.findByKeyId(keyId);
+        if (registeredKey == null)
+            throw new KeyNotAvailableException();
+        return registeredKey;
     }
 
     /**
-     * If available, retrieves the PsiServerKeyDescription corresponding to the psiAlgorithm and keySize.
+     * If available, retrieves the registered key corresponding to the psiAlgorithm and keySize.
      * @param psiAlgorithmParameter the algorithm parameters of the key to be retrieved.
-     * @return if available, an Optional containing the PsiServerKeyDescription of the retrieved key,
+     * @return if available, an Optional containing the RegisteredKey of the retrieved key,
      * an empty Optional otherwise .
      */
-    Optional<PsiKey> findByPsiAlgorithmParameter(PsiAlgorithmParameter psiAlgorithmParameter){
-        log.trace("Calling findByPsiAlgorithmAndKeySize with psiAlgorithmParameter = {}", psiAlgorithmParameter);
-        return storedAlgorithmKey.findByAlgorithmAndKeySize(AlgorithmMapper.toEntity(psiAlgorithmParameter.getAlgorithm()), psiAlgorithmParameter.getKeySize());
+    Optional<RegisteredKey> findByPsiAlgorithmParameter(PsiAlgorithmParameter psiAlgorithmParameter){
+        log.trace("Calling findByPsiAlgorithmParameter with psiAlgorithmParameter = {}", psiAlgorithmParameter);
+        return Optional.ofNullable(psiKeyRegistry.findByAlgorithmAndKeySize(AlgorithmMapper.toEntity(psiAlgorithmParameter.getAlgorithm()), psiAlgorithmParameter.getKeySize()));
+    }
+
+    /**
+     * Removes from the cache all the encryption results computed with a key, when the sessions of a key retired by
+     * KeyPreGenerationService.rotateKey have expired. Entries of other keys are not affected.
+     * @param keyId the id of the key
+     * @return the number of entries which have been removed, 0 if the cache does not support invalidation
+     */
+    public long invalidateCachedEntries(long keyId){
+        log.info("Calling invalidateCachedEntries with keyId = {}", keyId);
+        if (bulkPsiCacheProvider == null)
+            return 0;
+        return bulkPsiCacheProvider.invalidateKey(keyId);
     }
 }
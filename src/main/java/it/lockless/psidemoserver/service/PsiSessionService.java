@@ -1,13 +1,16 @@
 package it.lockless.psidemoserver.service;
 
-import it.lockless.psidemoserver.config.PsiKey;
+import it.lockless.psidemoserver.config.PsiKeyRegistry.RegisteredKey;
 import it.lockless.psidemoserver.entity.PsiSession;
-import it.lockless.psidemoserver.entity.SerializedBloomFilter;
 import it.lockless.psidemoserver.mapper.AlgorithmMapper;
-import it.lockless.psidemoserver.model.BloomFilterDTO;
 import it.lockless.psidemoserver.model.PsiAlgorithmParameterDTO;
 import it.lockless.psidemoserver.model.PsiClientSessionDTO;
 import it.lockless.psidemoserver.repository.PsiSessionRepository;
+import it.lockless.psidemoserver.service.cache.BloomFilterVersion;
+import it.lockless.psidemoserver.service.cache.BulkPsiCacheProvider;
+import it.lockless.psidemoserver.service.cache.PsiServerCache;
+import it.lockless.psidemoserver.service.cache.PsiServerCache.CachedPsiServer;
+import it.lockless.psidemoserver.service.cache.ScopedPsiCacheProvider;
 import it.lockless.psidemoserver.util.exception.AlgorithmInvalidKeyException;
 import it.lockless.psidemoserver.util.exception.SessionExpiredException;
 import it.lockless.psidemoserver.util.exception.SessionNotFoundException;
@@ -56,15 +59,30 @@ public class PsiSessionService {
 
     private final BloomFilterService bloomFilterService;
 
+    private final PsiServerCache psiServerCache;
+
+    private final KeyPreGenerationService keyPreGenerationService;
+
     @Autowired(required = false)
     private void setPsiCacheProvider(PsiCacheProvider psiCacheProvider){
         this.psiCacheProvider = psiCacheProvider;
     }
 
-    public PsiSessionService(PsiSessionRepository psiSessionRepository, PsiKeyService psiKeyService, BloomFilterService bloomFilterService) {
+    public PsiSessionService(PsiSessionRepository psiSessionRepository, PsiKeyService psiKeyService, BloomFilterService bloomFilterService, PsiServerCache psiServerCache, KeyPreGenerationService keyPreGenerationService) {
         this.psiSessionRepository = psiSessionRepository;
         this.psiKeyService = psiKeyService;
         this.bloomFilterService = bloomFilterService;
+        this.psiServerCache = psiServerCache;
+        this.keyPreGenerationService = keyPreGenerationService;
+    }
+
+    /**
+     * Restricts the cache to the entries of the input key, so that the entries of different keys never collide.
+     * @param keyId the id of the key
+     * @return a view of the cache containing the entries of the key, or null if the cache is not used
+     */
+    private PsiCacheProvider scopedPsiCacheProvider(long keyId) {
+        return psiCacheProvider == null ? null : new ScopedPsiCacheProvider(psiCacheProvider, keyId);
     }
 
     /**
@@ -89,20 +107,23 @@ public class PsiSessionService {
         PsiAlgorithmParameter psiAlgorithmParameter = psiAlgorithmParameterDTO.getContent();
 
         // Retrieves the key corresponding to the pair <algorithm, keySIze>
-        Optional<PsiKey> psiKeyOptional = psiKeyService.findByPsiAlgorithmParameter(psiAlgorithmParameter);
+        Optional<RegisteredKey> registeredKeyOptional = psiKeyService.findByPsiAlgorithmParameter(psiAlgorithmParameter);
 
         PsiServerSession psiServerSession;
-        Long psiKeyId = psiKeyOptional.map(PsiKey::getKeyId).orElse(null);
+        Long psiKeyId = registeredKeyOptional.map(RegisteredKey::getKeyId).orElse(null);
         // If a key is available it is used in the new server session
         try {
-            if(psiKeyOptional.isPresent()){
-                // Builds ServerKeyDescription with the stored key
-                PsiServerKeyDescription psiServerKeyDescription = psiKeyService.buildPsiServerKeyDescription(psiKeyOptional.get());
-                psiServerSession = PsiServerFactory.initSession(psiAlgorithmParameter, psiServerKeyDescription, psiCacheProvider);
+            if(registeredKeyOptional.isPresent()){
+                // Uses the ServerKeyDescription already built from the stored key
+                PsiServerKeyDescription psiServerKeyDescription = registeredKeyOptional.get().getPsiServerKeyDescription();
+                psiServerSession = PsiServerFactory.initSession(psiAlgorithmParameter, psiServerKeyDescription, scopedPsiCacheProvider(psiKeyId));
 
             } else {
-                psiServerSession = PsiServerFactory.initSession(psiAlgorithmParameter, psiCacheProvider);
-                psiKeyId = psiKeyService.storePsiServerKeyDescription(psiAlgorithmParameter, psiServerSession.getPsiServerKeyDescription());
+                // Uses a spare key generated in the background if ready, otherwise the key is generated by this thread.
+                // The key is stored before the session is initialized, so that the session uses the cache of its keyId
+                PsiServerKeyDescription psiServerKeyDescription = keyPreGenerationService.newKey(psiAlgorithmParameter);
+                psiKeyId = psiKeyService.storePsiServerKeyDescription(psiAlgorithmParameter, psiServerKeyDescription);
+                psiServerSession = PsiServerFactory.initSession(psiAlgorithmParameter, psiServerKeyDescription, scopedPsiCacheProvider(psiKeyId));
             }
         } catch (UnsupportedKeySizeException e) {
             throw new AlgorithmInvalidKeyException("The keySize " + psiAlgorithmParameter.getKeySize() + " is not supported for the algorithm " + psiAlgorithmParameter.getAlgorithm());
@@ -124,10 +145,12 @@ public class PsiSessionService {
         psiClientSessionDTO.setSessionId(psiSession.getSessionId());
         psiClientSessionDTO.setPsiClientSession(PsiClientSession.getFromServerSession(psiServerSession));
 
-        // If bloom filter is enabled, gets the last generated bloom filter (if available) and sets it
+        // If bloom filter is enabled, gets the description of the last generated bloom filter (if available) and sets it.
+        // The bloom filter itself is downloaded by the client through a separate request, only when its version changes
         if(bloomFilterEnabled){
-            Optional<SerializedBloomFilter> serializedBloomFilterOptional = bloomFilterService.getLastSerializedBloomFilter();
-            serializedBloomFilterOptional.ifPresent(serializedBloomFilter -> psiClientSessionDTO.setBloomFilterDTO(new BloomFilterDTO(serializedBloomFilter)));
+            bloomFilterService.getCurrentBloomFilterVersion()
+                    .map(BloomFilterVersion::getBloomFilterDescriptionDTO)
+                    .ifPresent(psiClientSessionDTO::setBloomFilterDTO);
         }
 
         return psiClientSessionDTO;
@@ -135,7 +158,8 @@ public class PsiSessionService {
 
     /**
      * Builds a PsiServer instance based on the input sessionId.
-     * The information about the session are retrieved from the database.
+     * The PsiServer instances are cached by sessionId, hence the information about the session are retrieved
+     * from the database only the first time the session is loaded.
      * @param sessionId the id identifying the session associated to the client
      * @return a PsiServer initialized with the requested session
      * @throws SessionNotFoundException if the sessionId does not correspond to any session in the database
@@ -143,6 +167,30 @@ public class PsiSessionService {
      */
     PsiServer loadPsiServerBySessionId(long sessionId) throws SessionNotFoundException, SessionExpiredException {
         log.debug("Calling loadPsiServerBySessionId with sessionId = {}", sessionId);
+        return loadCachedPsiServerBySessionId(sessionId).getPsiServer();
+    }
+
+    /**
+     * Retrieves the PsiServer instance associated to the input sessionId, together with the metadata of the session.
+     * If not already cached, the PsiServer is built from the session information stored into the database.
+     * @param sessionId the id identifying the session associated to the client
+     * @return a CachedPsiServer containing a PsiServer initialized with the requested session
+     * @throws SessionNotFoundException if the sessionId does not correspond to any session in the database
+     * @throws SessionExpiredException  if the session is expired
+     */
+    CachedPsiServer loadCachedPsiServerBySessionId(long sessionId) throws SessionNotFoundException, SessionExpiredException {
+        log.trace("Calling loadCachedPsiServerBySessionId with sessionId = {}", sessionId);
+
+        // If the PsiServer has already been built for this session, neither the database nor the key store are accessed
+        Optional<CachedPsiServer> cachedPsiServerOptional = psiServerCache.get(sessionId);
+        if(cachedPsiServerOptional.isPresent()){
+            CachedPsiServer cachedPsiServer = cachedPsiServerOptional.get();
+            if(cachedPsiServer.isExpired()) {
+                psiServerCache.evict(sessionId);
+                throw new SessionExpiredException();
+            }
+            return cachedPsiServer;
+        }
 
         // Retrieves the session information from the database.
         // These information will be used to build the PsiServerSession object required to create the PsiServe object
@@ -153,20 +201,35 @@ public class PsiSessionService {
         if(psiSession.getExpiration().isBefore(Instant.now()))
             throw new SessionExpiredException();
 
-        // Retrieves the key used by the current session
-        PsiServerKeyDescription psiServerKeyDescription = psiKeyService.findAndBuildByKeyId(psiSession.getKeyId());
-
-        // Build the ServerSession used to load the PsiServer
-        PsiServerSession psiServerSession = new PsiServerSession(
-                AlgorithmMapper.toPsiAlgorithm(psiSession.getAlgorithm()),
-                psiSession.getKeySize(),
-                psiSession.getCacheEnabled(),
-                psiServerKeyDescription);
+        // Retrieves the ServerSession used to load the PsiServer, already built from the key used by the current session
+        PsiServerSession psiServerSession = psiKeyService.findByKeyId(psiSession.getKeyId())
+                .getPsiServerSession(Boolean.TRUE.equals(psiSession.getCacheEnabled()));
 
-        // Initialize the PsiServer with the PsiServerSession
-        PsiServer psiServer = PsiServerFactory.loadSession(psiServerSession, psiCacheProvider);
+        // Initialize the PsiServer with the PsiServerSession, accessing only the cache entries of its key
+        PsiServer psiServer = PsiServerFactory.loadSession(psiServerSession, scopedPsiCacheProvider(psiSession.getKeyId()));
         psiServer.setConfiguration(new PsiThreadConfiguration(numThreads));
-        return psiServer;
+
+        // If the cache supports bulk operations, the client sets are encrypted by a PsiServer without cache,
+        // while their encryption results are cached in bulk by the EncryptionService
+        PsiServer uncachedPsiServer = psiServer;
+        if (psiCacheProvider instanceof BulkPsiCacheProvider) {
+            uncachedPsiServer = PsiServerFactory.loadSession(psiServerSession);
+            uncachedPsiServer.setConfiguration(new PsiThreadConfiguration(numThreads));
+        }
+
+        CachedPsiServer cachedPsiServer = new CachedPsiServer(psiServer, uncachedPsiServer, psiSession.getKeyId(), psiSession.getExpiration());
+        psiServerCache.put(sessionId, cachedPsiServer);
+        return cachedPsiServer;
+    }
+
+    /**
+     * Removes from the cache the PsiServer instance associated to the input sessionId.
+     * The next request for the session will load it again from the database.
+     * @param sessionId the id identifying the session associated to the client
+     */
+    public void evictPsiServer(long sessionId) {
+        log.debug("Calling evictPsiServer with sessionId = {}", sessionId);
+        psiServerCache.evict(sessionId);
     }
 
     /**
@@ -183,25 +246,20 @@ public class PsiSessionService {
         PsiSession psiSession = psiSessionRepository.findBySessionId(sessionId)
                 .orElseThrow(SessionNotFoundException::new);
 
-        // Retrieves the key used by the current session
-        PsiServerKeyDescription psiServerKeyDescription = psiKeyService.findAndBuildByKeyId(psiSession.getKeyId());
-
-        // Builds the PsiServerSession object
-        PsiServerSession psiServerSession =new PsiServerSession(
-                AlgorithmMapper.toPsiAlgorithm(psiSession.getAlgorithm()),
-                psiSession.getKeySize(),
-                psiSession.getCacheEnabled(),
-                psiServerKeyDescription);
+        // Retrieves the PsiServerSession object, already built from the key used by the current session
+        PsiServerSession psiServerSession = psiKeyService.findByKeyId(psiSession.getKeyId())
+                .getPsiServerSession(Boolean.TRUE.equals(psiSession.getCacheEnabled()));
 
         PsiClientSessionDTO psiClientSessionDTO = new PsiClientSessionDTO();
         psiClientSessionDTO.setExpiration(psiSession.getExpiration());
         psiClientSessionDTO.setSessionId(psiSession.getId());
         psiClientSessionDTO.setPsiClientSession(PsiClientSession.getFromServerSession(psiServerSession));
 
-        // If bloom filter is enabled, gets the last generated bloom filter (if available) and set it
+        // If bloom filter is enabled, gets the description of the last generated bloom filter (if available) and set it
         if(bloomFilterEnabled){
-            Optional<SerializedBloomFilter> serializedBloomFilterOptional = bloomFilterService.getLastSerializedBloomFilter();
-            serializedBloomFilterOptional.ifPresent(serializedBloomFilter -> psiClientSessionDTO.setBloomFilterDTO(new BloomFilterDTO(serializedBloomFilter)));
+            bloomFilterService.getCurrentBloomFilterVersion()
+                    .map(BloomFilterVersion::getBloomFilterDescriptionDTO)
+                    .ifPresent(psiClientSessionDTO::setBloomFilterDTO);
         }
         return psiClientSessionDTO;
     }
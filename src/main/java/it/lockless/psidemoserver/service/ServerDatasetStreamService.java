@@ -0,0 +1,241 @@
+package it.lockless.psidemoserver.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.lockless.psidemoserver.entity.PsiElement;
+import it.lockless.psidemoserver.repository.PsiElementRepository;
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+import it.lockless.psidemoserver.util.exception.InvalidChunkSizeException;
+import it.lockless.psidemoserver.util.exception.SessionExpiredException;
+import it.lockless.psidemoserver.util.exception.SessionNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import psi.server.PsiServer;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams the whole encrypted server dataset as a newline delimited JSON (NDJSON) document,
+ * where each line is a JSON string containing an encrypted element.
+ * The computation is organized as a pipeline of three stages running concurrently:
+ * reading chunks of the dataset from the database, encrypting them and writing them to the client.
+ * Stages are connected by bounded queues, hence a slow stage blocks the previous ones and the memory
+ * used by a stream is bounded by the number of queued chunks.
+ * The read and encrypt stages run on a fixed pool of 2 * stream.max.concurrent threads (see StreamConfig), hence
+ * concurrent streams do not create threads without limit. Since the stages of a stream wait for each other, at most
+ * stream.max.concurrent streams are admitted at once, so that both stages of every admitted stream get a thread:
+ * further streams wait for a running one to end.
+ */
+
+@Service
+public class ServerDatasetStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(ServerDatasetStreamService.class);
+
+    private final PsiSessionService psiSessionService;
+
+    private final PsiElementRepository psiElementRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final ExecutorService executorService;
+
+    // Permits of the streams allowed to run their stages at once
+    private final Semaphore admittedStreams;
+
+    @Value("${stream.queue.chunks:4}")
+    private int queueChunks;
+
+    @Value("${stream.max.chunk.size:10000}")
+    private int maxChunkSize;
+
+    public ServerDatasetStreamService(PsiSessionService psiSessionService, PsiElementRepository psiElementRepository, ObjectMapper objectMapper,
+                                      @Qualifier("serverDatasetStreamExecutor") ExecutorService executorService,
+                                      @Value("${stream.max.concurrent:8}") int maxConcurrentStreams) {
+        this.psiSessionService = psiSessionService;
+        this.psiElementRepository = psiElementRepository;
+        this.objectMapper = objectMapper;
+        this.executorService = executorService;
+        this.admittedStreams = new Semaphore(Math.max(1, maxConcurrentStreams), true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Builds the body streaming the server dataset encrypted with the key associated with the session.
+     * The chunk size and the session are validated before returning, so that errors can be reported before the
+     * stream starts.
+     * @param sessionId the id identifying the session associated to the client
+     * @param chunkSize the number of elements read and encrypted at once
+     * @return the StreamingResponseBody writing the encrypted server dataset
+     * @throws InvalidChunkSizeException if the chunk size is not positive or greater than stream.max.chunk.size
+     * @throws SessionNotFoundException if the sessionId does not correspond to any session in the database
+     * @throws SessionExpiredException  if the session is expired
+     */
+    public StreamingResponseBody streamEncryptedServerDataset(long sessionId, int chunkSize) throws InvalidChunkSizeException, SessionNotFoundException, SessionExpiredException {
+        log.debug("Calling streamEncryptedServerDataset with sessionId = {}, chunkSize = {}", sessionId, chunkSize);
+        if (chunkSize < 1 || chunkSize > maxChunkSize)
+            throw new InvalidChunkSizeException("The chunkSize must be between 1 and " + maxChunkSize);
+        PsiServer psiServer = psiSessionService.loadPsiServerBySessionId(sessionId);
+        return outputStream -> writeEncryptedServerDataset(psiServer, chunkSize, outputStream);
+    }
+
+    /**
+     * Waits for the admission of the stream, then runs the stream, releasing its admission when done.
+     */
+    private void writeEncryptedServerDataset(PsiServer psiServer, int chunkSize, OutputStream outputStream) throws IOException {
+        try {
+            admittedStreams.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CustomRuntimeException(e);
+        }
+        try {
+            runStages(psiServer, chunkSize, outputStream);
+        } finally {
+            admittedStreams.release();
+        }
+    }
+
+    /**
+     * Runs the read and encrypt stages on the executor and the write stage on the calling thread.
+     * If the write stage fails (e.g., the client closes the connection), the other stages are interrupted.
+     */
+    private void runStages(PsiServer psiServer, int chunkSize, OutputStream outputStream) throws IOException {
+        BlockingQueue<Chunk> clearQueue = new ArrayBlockingQueue<>(queueChunks);
+        BlockingQueue<Chunk> encryptedQueue = new ArrayBlockingQueue<>(queueChunks);
+
+        Future<?> readStage = executorService.submit(() -> readServerDataset(chunkSize, clearQueue));
+        Future<?> encryptStage = executorService.submit(() -> encryptServerDataset(psiServer, clearQueue, encryptedQueue));
+
+        long writtenEntries = 0;
+        try (JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(outputStream)) {
+            jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            jsonGenerator.setRootValueSeparator(null);
+            Chunk chunk = encryptedQueue.take();
+            while (!chunk.isLast()) {
+                for (String encryptedElement : chunk.getContent()) {
+                    jsonGenerator.writeString(encryptedElement);
+                    jsonGenerator.writeRaw('\n');
+                }
+                jsonGenerator.flush();
+                writtenEntries += chunk.getContent().size();
+                chunk = encryptedQueue.take();
+            }
+            if (chunk.getError() != null)
+                throw new CustomRuntimeException(chunk.getError());
+            log.debug("Streamed {} encrypted entries of the server dataset", writtenEntries);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CustomRuntimeException(e);
+        } finally {
+            readStage.cancel(true);
+            encryptStage.cancel(true);
+        }
+    }
+
+    /**
+     * Read stage: iterates over the dataset by id, so that each chunk costs the same regardless of its position.
+     */
+    private void readServerDataset(int chunkSize, BlockingQueue<Chunk> clearQueue) {
+        try {
+            try {
+                long lastId = Long.MIN_VALUE;
+                List<PsiElement> psiElementList = psiElementRepository.findByIdGreaterThan(lastId, PageRequest.of(0, chunkSize, Sort.by("id").ascending()));
+                while (!psiElementList.isEmpty()) {
+                    Set<String> clearElementSet = new HashSet<>(psiElementList.size());
+                    psiElementList.forEach(psiElement -> clearElementSet.add(psiElement.getValue()));
+                    clearQueue.put(new Chunk(clearElementSet));
+                    lastId = psiElementList.get(psiElementList.size() - 1).getId();
+                    psiElementList = psiElementRepository.findByIdGreaterThan(lastId, PageRequest.of(0, chunkSize, Sort.by("id").ascending()));
+                }
+                clearQueue.put(Chunk.last(null));
+            } catch (RuntimeException e) {
+                log.error("Error while reading the server dataset", e);
+                clearQueue.put(Chunk.last(e));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Encrypt stage: encrypts the chunks produced by the read stage, in order.
+     */
+    private void encryptServerDataset(PsiServer psiServer, BlockingQueue<Chunk> clearQueue, BlockingQueue<Chunk> encryptedQueue) {
+        try {
+            try {
+                Chunk chunk = clearQueue.take();
+                while (!chunk.isLast()) {
+                    encryptedQueue.put(new Chunk(psiServer.encryptDataset(chunk.getContent())));
+                    chunk = clearQueue.take();
+                }
+                encryptedQueue.put(chunk);
+            } catch (RuntimeException e) {
+                log.error("Error while encrypting the server dataset", e);
+                encryptedQueue.put(Chunk.last(e));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Unit of work exchanged between the pipeline stages. The last chunk of a stream carries no content,
+     * and possibly the error that interrupted the stream.
+     */
+    private static class Chunk {
+
+        private final Set<String> content;
+
+        private final boolean last;
+
+        private final RuntimeException error;
+
+        private Chunk(Set<String> content) {
+            this(content, false, null);
+        }
+
+        private Chunk(Set<String> content, boolean last, RuntimeException error) {
+            this.content = content;
+            this.last = last;
+            this.error = error;
+        }
+
+        private static Chunk last(RuntimeException error) {
+            return new Chunk(Collections.emptySet(), true, error);
+        }
+
+        private Set<String> getContent() {
+            return content;
+        }
+
+        private boolean isLast() {
+            return last;
+        }
+
+        private RuntimeException getError() {
+            return error;
+        }
+    }
+}
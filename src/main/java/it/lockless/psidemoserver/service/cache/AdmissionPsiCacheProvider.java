@@ -0,0 +1,165 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import psi.cache.PsiCacheProvider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PsiCacheProvider deciding which writes reach another PsiCacheProvider based on how frequently their keys are looked
+ * up. Lookups are recorded in a FrequencySketch, and a key is written only if it has been recently looked up at least
+ * minFrequency times. Since the SDK looks a value up before encrypting and writing it, one-off values, such as most of
+ * the elements of the client sets, are not written, while the encryption of the server dataset, looked up by every
+ * session using the same key, is written from the second session on.
+ * Hence the one-off values do not evict the entries which are actually hit.
+ */
+
+public class AdmissionPsiCacheProvider implements BulkPsiCacheProvider, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionPsiCacheProvider.class);
+
+    private final PsiCacheProvider psiCacheProvider;
+
+    private final FrequencySketch frequencySketch;
+
+    private final int minFrequency;
+
+    private final AtomicLong admittedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Builds the admission policy in front of the input PsiCacheProvider.
+     * @param psiCacheProvider  the underlying PsiCacheProvider
+     * @param minFrequency      the minimum number of recent lookups of a key for it to be written
+     * @param expectedEntries   the number of distinct keys expected to be looked up before the frequencies are aged
+     */
+    public AdmissionPsiCacheProvider(PsiCacheProvider psiCacheProvider, int minFrequency, int expectedEntries) {
+        if (minFrequency < 1 || minFrequency > FrequencySketch.MAX_COUNT)
+            throw new IllegalArgumentException("The minimum frequency must be between 1 and " + FrequencySketch.MAX_COUNT);
+        log.info("Creating AdmissionPsiCacheProvider with minFrequency = {}, expectedEntries = {}", minFrequency, expectedEntries);
+        this.psiCacheProvider = psiCacheProvider;
+        this.minFrequency = minFrequency;
+        this.frequencySketch = new FrequencySketch(expectedEntries);
+    }
+
+    private boolean admit(String key) {
+        if (frequencySketch.estimate(key) >= minFrequency) {
+            admittedCount.incrementAndGet();
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Retrieves the value linked to a given key, recording the lookup.
+     * @param key   key corresponding to the value to be retrieved
+     * @return an Optional containing the cached value if present, Optional.empty() otherwise
+     */
+    @Override
+    public Optional<String> get(String key) {
+        frequencySketch.increment(key);
+        return psiCacheProvider.get(key);
+    }
+
+    /**
+     * Stores the pair <key, value> into the underlying provider, if the key has been looked up frequently enough.
+     * @param key       key corresponding to the value to be stored
+     * @param value     value to be stored
+     */
+    @Override
+    public void put(String key, String value) {
+        if (admit(key))
+            psiCacheProvider.put(key, value);
+    }
+
+    /**
+     * Retrieves the values linked to the input keys, in bulk if supported, recording the lookups.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        frequencySketch.incrementAll(keys);
+        if (psiCacheProvider instanceof BulkPsiCacheProvider)
+            return ((BulkPsiCacheProvider) psiCacheProvider).getAll(keys);
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys)
+            psiCacheProvider.get(key).ifPresent(value -> values.put(key, value));
+        return values;
+    }
+
+    /**
+     * Stores the pairs whose keys have been looked up frequently enough into the underlying provider, in bulk if
+     * supported. Existing keys are not replaced.
+     * @param entries   the pairs to be stored
+     * @return the number of keys which have been stored
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        Map<String, String> admittedEntries = new HashMap<>();
+        for (Map.Entry<String, String> entry : entries.entrySet())
+            if (admit(entry.getKey()))
+                admittedEntries.put(entry.getKey(), entry.getValue());
+        if (admittedEntries.isEmpty())
+            return 0;
+        if (psiCacheProvider instanceof BulkPsiCacheProvider)
+            return ((BulkPsiCacheProvider) psiCacheProvider).putAll(admittedEntries);
+        int stored = 0;
+        for (Map.Entry<String, String> entry : admittedEntries.entrySet()) {
+            if (psiCacheProvider.get(entry.getKey()).isPresent())
+                continue;
+            psiCacheProvider.put(entry.getKey(), entry.getValue());
+            stored++;
+        }
+        return stored;
+    }
+
+    @Override
+    public long invalidateKey(long keyId) {
+        return psiCacheProvider instanceof BulkPsiCacheProvider ? ((BulkPsiCacheProvider) psiCacheProvider).invalidateKey(keyId) : 0;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !(psiCacheProvider instanceof BulkPsiCacheProvider) || ((BulkPsiCacheProvider) psiCacheProvider).isAvailable();
+    }
+
+    /**
+     * @return the number of writes which have reached the underlying provider
+     */
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    /**
+     * @return the number of writes which have been discarded
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionPsiCacheProvider{" +
+                "minFrequency=" + minFrequency +
+                ", admittedCount=" + admittedCount.get() +
+                ", rejectedCount=" + rejectedCount.get() +
+                ", underlying=" + psiCacheProvider +
+                '}';
+    }
+
+    /**
+     * Closes the underlying provider.
+     */
+    @Override
+    public void close() throws IOException {
+        if (psiCacheProvider instanceof Closeable)
+            ((Closeable) psiCacheProvider).close();
+    }
+}
@@ -0,0 +1,89 @@
+package it.lockless.psidemoserver.service.cache;
+
+import it.lockless.psidemoserver.entity.SerializedBloomFilter;
+import it.lockless.psidemoserver.model.BloomFilterDTO;
+import it.lockless.psidemoserver.util.filter.FilterType;
+
+import java.time.Instant;
+
+/**
+ * Immutable in-memory copy of a Bloom Filter, which might not have been stored yet.
+ * The version is assigned by the BloomFilterService and increases every time a new Bloom Filter is published; Bloom
+ * Filters stored without version are identified by their id.
+ * The serialized representation and the DTOs sent to the clients are built once, when the version is created,
+ * and shared by all the requests: they must not be modified.
+ */
+
+public class BloomFilterVersion {
+
+    private final long version;
+
+    private final Instant creationDate;
+
+    private final byte[] serializedValue;
+
+    private final FilterType filterType;
+
+    private final BloomFilterDTO bloomFilterDTO;
+
+    private final BloomFilterDTO bloomFilterDescriptionDTO;
+
+    private final String eTag;
+
+    public BloomFilterVersion(SerializedBloomFilter serializedBloomFilter) {
+        this.version = serializedBloomFilter.getPublishedVersion();
+        this.creationDate = serializedBloomFilter.getBloomFilterCreationDate();
+        this.serializedValue = serializedBloomFilter.getSerializedValue();
+        this.bloomFilterDTO = new BloomFilterDTO(serializedBloomFilter);
+        this.filterType = FilterType.fromName(bloomFilterDTO.getType());
+        this.bloomFilterDescriptionDTO = new BloomFilterDTO(version, creationDate, filterType.getName());
+        this.eTag = "\"" + version + "\"";
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getCreationDate() {
+        return creationDate;
+    }
+
+    public byte[] getSerializedValue() {
+        return serializedValue;
+    }
+
+    public FilterType getFilterType() {
+        return filterType;
+    }
+
+    /**
+     * @return the DTO containing the serialized Bloom Filter with its version and creation date
+     */
+    public BloomFilterDTO getBloomFilterDTO() {
+        return bloomFilterDTO;
+    }
+
+    /**
+     * @return the DTO containing only the version and the creation date of the Bloom Filter
+     */
+    public BloomFilterDTO getBloomFilterDescriptionDTO() {
+        return bloomFilterDescriptionDTO;
+    }
+
+    /**
+     * @return the HTTP entity tag identifying this version
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    @Override
+    public String toString() {
+        return "BloomFilterVersion{" +
+                "version=" + version +
+                ", creationDate=" + creationDate +
+                ", filterType=" + filterType +
+                ", serializedValue.length=" + serializedValue.length +
+                '}';
+    }
+}
@@ -0,0 +1,44 @@
+package it.lockless.psidemoserver.service.cache;
+
+import psi.cache.PsiCacheProvider;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * PsiCacheProvider which can also retrieve and store many keys at once, so that the cost of reaching the cache
+ * is paid once per batch of keys rather than once per key.
+ */
+
+public interface BulkPsiCacheProvider extends PsiCacheProvider {
+
+    /**
+     * Retrieves the values linked to the input keys.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values. Keys not cached are not contained in the map
+     */
+    Map<String, String> getAll(Collection<String> keys);
+
+    /**
+     * Stores the input pairs <key, value> into the cache. Differently from put, keys which already exist are
+     * neither replaced nor reported as errors, since concurrent writers store the same value for the same key.
+     * @param entries   the pairs to be stored
+     * @return the number of keys which have been stored, i.e., which did not exist
+     */
+    int putAll(Map<String, String> entries);
+
+    /**
+     * Removes all the entries of a key, i.e., whose cache key starts with the namespace of the key
+     * (see ScopedPsiCacheProvider), e.g., when the key is retired.
+     * @param keyId the id of the key
+     * @return the number of entries which have been removed
+     */
+    long invalidateKey(long keyId);
+
+    /**
+     * @return false if the cache is temporarily not used, e.g., since it is not reachable, true otherwise
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+}
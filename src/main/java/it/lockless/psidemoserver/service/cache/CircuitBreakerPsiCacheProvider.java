@@ -0,0 +1,239 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import psi.cache.PsiCacheProvider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * PsiCacheProvider protecting the encryption from the failures of a remote PsiCacheProvider (e.g., Redis).
+ * While the circuit is closed, operations are forwarded to the underlying provider. After failureThreshold consecutive
+ * failed operations the circuit opens: operations are no longer forwarded and the cache behaves as an empty cache
+ * (lookups miss and writes are discarded), hence the encryption continues without cache instead of waiting for the
+ * timeouts of the underlying provider. While the circuit is open, a background thread runs the health check every
+ * probeIntervalMillis and closes the circuit as soon as it succeeds.
+ */
+
+public class CircuitBreakerPsiCacheProvider implements BulkPsiCacheProvider, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreakerPsiCacheProvider.class);
+
+    private final PsiCacheProvider psiCacheProvider;
+
+    private final BooleanSupplier healthCheck;
+
+    private final int failureThreshold;
+
+    private final ScheduledExecutorService scheduledExecutorService;
+
+    private final AtomicBoolean open = new AtomicBoolean();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    /**
+     * Builds the circuit breaker in front of the input PsiCacheProvider. The circuit is initially open if the health
+     * check fails.
+     * @param psiCacheProvider  the underlying PsiCacheProvider
+     * @param healthCheck       returns true if the underlying provider is reachable, without throwing exceptions
+     * @param failureThreshold  number of consecutive failed operations opening the circuit
+     * @param probeIntervalMillis interval between two health checks while the circuit is open
+     */
+    public CircuitBreakerPsiCacheProvider(PsiCacheProvider psiCacheProvider, BooleanSupplier healthCheck, int failureThreshold, long probeIntervalMillis) {
+        if (failureThreshold < 1)
+            throw new IllegalArgumentException("The failure threshold must be positive");
+        this.psiCacheProvider = psiCacheProvider;
+        this.healthCheck = healthCheck;
+        this.failureThreshold = failureThreshold;
+        this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-circuit-breaker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!healthCheck.getAsBoolean()) {
+            open.set(true);
+            log.warn("The cache is not reachable, continuing without cache until it becomes reachable");
+        }
+        scheduledExecutorService.scheduleWithFixedDelay(this::probe, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the circuit if it is open and the health check succeeds.
+     */
+    private void probe() {
+        if (!open.get())
+            return;
+        boolean healthy;
+        try {
+            healthy = healthCheck.getAsBoolean();
+        } catch (RuntimeException e) {
+            healthy = false;
+        }
+        if (healthy) {
+            consecutiveFailures.set(0);
+            open.set(false);
+            log.info("The cache is reachable again, caching is enabled after skipping {} operations", skippedCount.getAndSet(0));
+        }
+    }
+
+    private void onSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    private void onFailure(RuntimeException e) {
+        log.debug("Cache operation failed: {}", e.getMessage());
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && open.compareAndSet(false, true))
+            log.warn("The cache is not reachable ({}), continuing without cache until it becomes reachable", e.getMessage());
+    }
+
+    private boolean skip() {
+        if (!open.get())
+            return false;
+        skippedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return true if the circuit is closed, i.e., operations are forwarded to the underlying provider
+     */
+    @Override
+    public boolean isAvailable() {
+        return !open.get();
+    }
+
+    /**
+     * Retrieves the value linked to a given key from the underlying provider, if the circuit is closed.
+     * @param key   key corresponding to the value to be retrieved
+     * @return an Optional containing the cached value if present and available, Optional.empty() otherwise
+     */
+    @Override
+    public Optional<String> get(String key) {
+        if (skip())
+            return Optional.empty();
+        try {
+            Optional<String> value = psiCacheProvider.get(key);
+            onSuccess();
+            return value;
+        } catch (RuntimeException e) {
+            onFailure(e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the pair <key, value> into the underlying provider, if the circuit is closed.
+     * @param key       key corresponding to the value to be stored
+     * @param value     value to be stored
+     */
+    @Override
+    public void put(String key, String value) {
+        if (skip())
+            return;
+        try {
+            psiCacheProvider.put(key, value);
+            onSuccess();
+        } catch (RuntimeException e) {
+            onFailure(e);
+        }
+    }
+
+    /**
+     * Retrieves the values linked to the input keys from the underlying provider, if the circuit is closed.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values, empty if the circuit is open
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        if (skip())
+            return new HashMap<>();
+        try {
+            Map<String, String> values;
+            if (psiCacheProvider instanceof BulkPsiCacheProvider)
+                values = ((BulkPsiCacheProvider) psiCacheProvider).getAll(keys);
+            else {
+                values = new HashMap<>();
+                for (String key : keys)
+                    psiCacheProvider.get(key).ifPresent(value -> values.put(key, value));
+            }
+            onSuccess();
+            return values;
+        } catch (RuntimeException e) {
+            onFailure(e);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Stores the input pairs into the underlying provider, if the circuit is closed.
+     * @param entries   the pairs to be stored
+     * @return the number of keys which have been stored, 0 if the circuit is open
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        if (skip())
+            return 0;
+        try {
+            int stored;
+            if (psiCacheProvider instanceof BulkPsiCacheProvider)
+                stored = ((BulkPsiCacheProvider) psiCacheProvider).putAll(entries);
+            else {
+                stored = 0;
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    if (psiCacheProvider.get(entry.getKey()).isPresent())
+                        continue;
+                    psiCacheProvider.put(entry.getKey(), entry.getValue());
+                    stored++;
+                }
+            }
+            onSuccess();
+            return stored;
+        } catch (RuntimeException e) {
+            onFailure(e);
+            return 0;
+        }
+    }
+
+    /**
+     * Removes all the entries of a key from the underlying provider. Differently from the other operations, the
+     * invalidation is attempted even if the circuit is open, and its failures are thrown, since silently keeping the
+     * entries of a retired key is not acceptable.
+     * @param keyId the id of the key
+     * @return the number of entries which have been removed
+     */
+    @Override
+    public long invalidateKey(long keyId) {
+        if (!(psiCacheProvider instanceof BulkPsiCacheProvider))
+            return 0;
+        return ((BulkPsiCacheProvider) psiCacheProvider).invalidateKey(keyId);
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreakerPsiCacheProvider{" +
+                "open=" + open.get() +
+                ", consecutiveFailures=" + consecutiveFailures.get() +
+                ", skippedCount=" + skippedCount.get() +
+                '}';
+    }
+
+    /**
+     * Stops the health checks and closes the underlying provider.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduledExecutorService.shutdownNow();
+        if (psiCacheProvider instanceof Closeable)
+            ((Closeable) psiCacheProvider).close();
+    }
+}
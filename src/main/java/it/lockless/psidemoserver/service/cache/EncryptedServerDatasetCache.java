@@ -0,0 +1,184 @@
+package it.lockless.psidemoserver.service.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Materialization of the encrypted pages of the server dataset.
+ * Since every session created with the same key produces the same encryption of the server dataset,
+ * pages are stored by keyId and shared among all the sessions using that key.
+ * Pages are also identified by the version of the server dataset they were computed on, so that
+ * a page is never served after the dataset changes. The cache is bounded by the overall number of
+ * encrypted entries it contains.
+ */
+
+@Component
+public class EncryptedServerDatasetCache {
+
+    private static final Logger log = LoggerFactory.getLogger(EncryptedServerDatasetCache.class);
+
+    private final Cache<PageKey, EncryptedServerDatasetPage> cache;
+
+    // Latest version of the server dataset seen, used to drop pages of older versions as soon as possible
+    private final AtomicLong latestDatasetVersion = new AtomicLong();
+
+    public EncryptedServerDatasetCache(@Value("${encryption.materialization.max.entries:1000000}") long maximumEntries) {
+        log.info("Creating EncryptedServerDatasetCache with maximumEntries = {}", maximumEntries);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumEntries)
+                .weigher((PageKey key, EncryptedServerDatasetPage page) -> page.getContent().size() + 1)
+                .build();
+    }
+
+    /**
+     * Retrieves the encrypted page identified by page number and size. If the page is not available,
+     * it is computed by the loader and stored. Concurrent requests for the same page wait for a single computation.
+     * @param datasetVersion    the version of the server dataset
+     * @param keyId             the id of the key used to encrypt the page
+     * @param page              the page of the server dataset
+     * @param size              the size of the page
+     * @param loader            the function computing the encrypted page when not available
+     * @return the encrypted page
+     */
+    public EncryptedServerDatasetPage getPage(long datasetVersion, long keyId, int page, int size, Supplier<EncryptedServerDatasetPage> loader) {
+        log.trace("Calling getPage with datasetVersion = {}, keyId = {}, page = {}, size = {}", datasetVersion, keyId, page, size);
+        return get(new PageKey(datasetVersion, keyId, false, page, size), loader);
+    }
+
+    /**
+     * Retrieves the encrypted page containing the elements following the input element id. If the page is not
+     * available, it is computed by the loader and stored. Concurrent requests for the same page wait for a single computation.
+     * @param datasetVersion    the version of the server dataset
+     * @param keyId             the id of the key used to encrypt the page
+     * @param afterId           the id of the element preceding the page
+     * @param size              the size of the page
+     * @param loader            the function computing the encrypted page when not available
+     * @return the encrypted page
+     */
+    public EncryptedServerDatasetPage getPageAfter(long datasetVersion, long keyId, long afterId, int size, Supplier<EncryptedServerDatasetPage> loader) {
+        log.trace("Calling getPageAfter with datasetVersion = {}, keyId = {}, afterId = {}, size = {}", datasetVersion, keyId, afterId, size);
+        return get(new PageKey(datasetVersion, keyId, true, afterId, size), loader);
+    }
+
+    private EncryptedServerDatasetPage get(PageKey pageKey, Supplier<EncryptedServerDatasetPage> loader) {
+        dropOlderVersions(pageKey.datasetVersion);
+        try {
+            return cache.get(pageKey, loader::get);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new CustomRuntimeException("Unable to encrypt the server dataset page");
+        }
+    }
+
+    /**
+     * Drops all the materialized pages when a new version of the server dataset is seen for the first time.
+     */
+    private void dropOlderVersions(long datasetVersion) {
+        long latest = latestDatasetVersion.get();
+        if (datasetVersion > latest && latestDatasetVersion.compareAndSet(latest, datasetVersion)) {
+            log.debug("Dropping the pages materialized before version {} of the server dataset", datasetVersion);
+            cache.asMap().keySet().removeIf(pageKey -> pageKey.datasetVersion < datasetVersion);
+        }
+    }
+
+    /**
+     * Drops all the materialized pages.
+     */
+    public void invalidateAll() {
+        log.debug("Calling invalidateAll");
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Encrypted content of a page of the server dataset with the related paging metadata.
+     */
+    public static class EncryptedServerDatasetPage {
+
+        private final Set<String> content;
+
+        private final int entries;
+
+        private final long lastId;
+
+        private final boolean last;
+
+        public EncryptedServerDatasetPage(Set<String> content, int entries, long lastId, boolean last) {
+            this.content = Collections.unmodifiableSet(content);
+            this.entries = entries;
+            this.lastId = lastId;
+            this.last = last;
+        }
+
+        public Set<String> getContent() {
+            return content;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getLastId() {
+            return lastId;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+    }
+
+    private static class PageKey {
+
+        private final long datasetVersion;
+
+        private final long keyId;
+
+        private final boolean keyset;
+
+        private final long position;
+
+        private final int size;
+
+        private PageKey(long datasetVersion, long keyId, boolean keyset, long position, int size) {
+            this.datasetVersion = datasetVersion;
+            this.keyId = keyId;
+            this.keyset = keyset;
+            this.position = position;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PageKey pageKey = (PageKey) o;
+            return datasetVersion == pageKey.datasetVersion &&
+                    keyId == pageKey.keyId &&
+                    keyset == pageKey.keyset &&
+                    position == pageKey.position &&
+                    size == pageKey.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(datasetVersion, keyId, keyset, position, size);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package it.lockless.psidemoserver.service.cache;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Count-min sketch estimating how many times each key has been recently accessed, with a bounded memory footprint.
+ * Each key is mapped to one counter in each of the DEPTH rows, and its frequency is estimated as the minimum of its
+ * counters, which can overestimate (due to collisions) but never underestimate it. Counters are increased through
+ * conservative update (only the minimum ones are increased) and saturate at MAX_COUNT.
+ * To keep the estimates recent, all the counters are halved once the number of increments reaches 10 times the width
+ * of the sketch (aging), hence keys which are no longer accessed are gradually forgotten.
+ * Keys are hashed outside of the lock guarding the counters.
+ */
+
+@SuppressWarnings("UnstableApiUsage")
+class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    static final int MAX_COUNT = 15;
+
+    private final byte[] counters;
+
+    private final int width;
+
+    private final long sampleSize;
+
+    private long additions;
+
+    /**
+     * @param expectedEntries   the number of distinct keys expected to be accessed in a sample period
+     */
+    FrequencySketch(int expectedEntries) {
+        // The smallest power of two not lower than expectedEntries
+        this.width = Integer.highestOneBit(Math.max(16, Math.min(1 << 28, expectedEntries) - 1) << 1);
+        this.counters = new byte[DEPTH * width];
+        this.sampleSize = 10L * width;
+    }
+
+    /**
+     * @return two independent 64-bit hashes of the key, combined to obtain the index of the key in each row
+     */
+    private static long[] hash(String key) {
+        ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8).asBytes());
+        return new long[]{hash.getLong(0), hash.getLong(8)};
+    }
+
+    private int index(long[] hash, int row) {
+        return row * width + (int) ((hash[0] + row * (hash[1] | 1)) & (width - 1));
+    }
+
+    /**
+     * Records an access to the key.
+     * @param key   the accessed key
+     */
+    void increment(String key) {
+        long[] hash = hash(key);
+        synchronized (this) {
+            incrementHash(hash);
+        }
+    }
+
+    /**
+     * Records an access to each of the keys.
+     * @param keys  the accessed keys
+     */
+    void incrementAll(Collection<String> keys) {
+        List<long[]> hashes = new ArrayList<>(keys.size());
+        for (String key : keys)
+            hashes.add(hash(key));
+        synchronized (this) {
+            hashes.forEach(this::incrementHash);
+        }
+    }
+
+    private void incrementHash(long[] hash) {
+        int[] indexes = new int[DEPTH];
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            indexes[row] = index(hash, row);
+            min = Math.min(min, counters[indexes[row]]);
+        }
+        if (min == MAX_COUNT)
+            return;
+        for (int index : indexes)
+            if (counters[index] == min)
+                counters[index]++;
+        if (++additions >= sampleSize)
+            age();
+    }
+
+    /**
+     * Halves all the counters.
+     */
+    synchronized void age() {
+        for (int i = 0; i < counters.length; i++)
+            counters[i] >>= 1;
+        additions /= 2;
+    }
+
+    /**
+     * @param key   the key
+     * @return the estimated number of recent accesses to the key, at most MAX_COUNT
+     */
+    int estimate(String key) {
+        long[] hash = hash(key);
+        int min = MAX_COUNT;
+        synchronized (this) {
+            for (int row = 0; row < DEPTH; row++)
+                min = Math.min(min, counters[index(hash, row)]);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,355 @@
+package it.lockless.psidemoserver.service.cache;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implementation of a PsiCacheProvider storing the entries in a memory-mapped file on the local disk, so that the cache
+ * does not require any external service, its content is kept off the heap and survives the restarts of the server.
+ * The file contains a header, an open-addressing hash table with linear probing and an append-only data region:
+ * - header: magic (4 bytes), format version (4 bytes), slotCount (4 bytes), dataCapacity (8 bytes), dataEnd (8 bytes),
+ *   entryCount (8 bytes), removedCount (8 bytes);
+ * - slots: slotCount slots of 16 bytes, each containing the hash of the key (0 if the slot is empty) and the offset of
+ *   its entry in the data region (REMOVED if the entry has been removed by invalidateKey);
+ * - data: entries made of the length of the key (4 bytes), the length of the value (4 bytes) and their UTF-8 bytes.
+ * The size of the file is fixed when it is created. Since the space of the removed entries is not reclaimed, once the
+ * data region or 3/4 of the slots are used the new entries are discarded. A file created with a different size is
+ * cleared. Entries never expire, and writing a key which already exists is a no-op.
+ * An entry is published by writing its hash into the slot after its data, hence a crash can only lose the last entries.
+ */
+
+@SuppressWarnings("UnstableApiUsage")
+public class MappedFilePsiCacheProvider implements BulkPsiCacheProvider, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedFilePsiCacheProvider.class);
+
+    private static final int MAGIC = 0x50534943;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 64;
+
+    private static final int DATA_END_OFFSET = 20;
+
+    private static final int ENTRY_COUNT_OFFSET = 28;
+
+    private static final int REMOVED_COUNT_OFFSET = 36;
+
+    // Offset of the removed entries, kept in their slots so that the following entries can still be found
+    private static final long REMOVED = -1;
+
+    private static final int SLOT_BYTES = 16;
+
+    // Expected average size of an entry in the data region
+    private static final int DATA_BYTES_PER_SLOT = 112;
+
+    private static final double MAX_LOAD = 0.75;
+
+    private final Path path;
+
+    private final FileChannel fileChannel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int slotCount;
+
+    private final long dataStart;
+
+    private final long dataCapacity;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private long dataEnd;
+
+    // Number of used slots, including the removed entries
+    private long entryCount;
+
+    private long removedCount;
+
+    private boolean fullLogged;
+
+    /**
+     * Opens the cache stored in the input file, creating it if it does not exist.
+     * @param path      the path of the file
+     * @param maxBytes  the size of the file, at most Integer.MAX_VALUE bytes
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public MappedFilePsiCacheProvider(Path path, long maxBytes) throws IOException {
+        if (maxBytes < HEADER_BYTES + SLOT_BYTES + DATA_BYTES_PER_SLOT || maxBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The size of the cache file must be between " + (HEADER_BYTES + SLOT_BYTES + DATA_BYTES_PER_SLOT)
+                    + " and " + Integer.MAX_VALUE + " bytes");
+        this.path = path;
+        // The number of slots is a power of two between 1 and 2 times the expected number of entries
+        int slots = Integer.highestOneBit((int) Math.min(1 << 30, 2 * ((maxBytes - HEADER_BYTES) / (SLOT_BYTES + DATA_BYTES_PER_SLOT))));
+        this.slotCount = slots;
+        this.dataStart = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        this.dataCapacity = maxBytes - dataStart;
+
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        this.fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean reused = fileChannel.size() == maxBytes;
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        if (reused && buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION
+                && buffer.getInt(8) == slotCount && buffer.getLong(12) == dataCapacity) {
+            this.dataEnd = buffer.getLong(DATA_END_OFFSET);
+            this.entryCount = buffer.getLong(ENTRY_COUNT_OFFSET);
+            this.removedCount = buffer.getLong(REMOVED_COUNT_OFFSET);
+            log.info("Opened the cache file {} containing {} entries", path, entryCount - removedCount);
+        } else {
+            clear();
+            log.info("Created the cache file {} with maxBytes = {}, slotCount = {}", path, maxBytes, slotCount);
+        }
+    }
+
+    private void clear() {
+        for (long i = 0; i < dataStart; i += 8)
+            buffer.putLong((int) i, 0);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(8, slotCount);
+        buffer.putLong(12, dataCapacity);
+        dataEnd = 0;
+        entryCount = 0;
+        removedCount = 0;
+        writeCounters();
+    }
+
+    private void writeCounters() {
+        buffer.putLong(DATA_END_OFFSET, dataEnd);
+        buffer.putLong(ENTRY_COUNT_OFFSET, entryCount);
+        buffer.putLong(REMOVED_COUNT_OFFSET, removedCount);
+    }
+
+    private static long hash(byte[] key) {
+        long hash = Hashing.murmur3_128().hashBytes(key).asLong();
+        // 0 denotes an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    private int slotPosition(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    /**
+     * Finds the slot containing the key, or the empty slot where it should be inserted.
+     * Must be called while holding the lock.
+     */
+    private int findSlot(byte[] key, long hash) {
+        int slot = (int) hash & (slotCount - 1);
+        while (true) {
+            int slotPosition = slotPosition(slot);
+            long slotHash = buffer.getLong(slotPosition);
+            if (slotHash == 0)
+                return slot;
+            if (slotHash == hash) {
+                long entryOffset = buffer.getLong(slotPosition + 8);
+                if (entryOffset != REMOVED && keyEquals(entryOffset, key))
+                    return slot;
+            }
+            slot = (slot + 1) & (slotCount - 1);
+        }
+    }
+
+    private boolean keyEquals(long entryOffset, byte[] key) {
+        return buffer.getInt((int) (dataStart + entryOffset)) == key.length && keyStartsWith(entryOffset, key);
+    }
+
+    private boolean keyStartsWith(long entryOffset, byte[] prefix) {
+        int position = (int) (dataStart + entryOffset);
+        if (buffer.getInt(position) < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (buffer.get(position + 8 + i) != prefix[i])
+                return false;
+        return true;
+    }
+
+    private String readValue(long entryOffset) {
+        int position = (int) (dataStart + entryOffset);
+        int keyLength = buffer.getInt(position);
+        byte[] value = new byte[buffer.getInt(position + 4)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 8 + keyLength);
+        view.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Retrieves the value linked to a given key.
+     * @param key   key corresponding to the value to be retrieved
+     * @return an Optional containing the cached value if present, Optional.empty() otherwise
+     */
+    @Override
+    public Optional<String> get(String key) {
+        log.trace("Calling get with key = {}", key);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(keyBytes);
+        lock.readLock().lock();
+        try {
+            int slotPosition = slotPosition(findSlot(keyBytes, hash));
+            if (buffer.getLong(slotPosition) == 0)
+                return Optional.empty();
+            return Optional.of(readValue(buffer.getLong(slotPosition + 8)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the pair <key, value> into the cache. If the key exists or the cache is full, the pair is discarded.
+     * @param key       key corresponding to the value to be stored
+     * @param value     value to be stored
+     */
+    @Override
+    public void put(String key, String value) {
+        log.trace("Calling put with key = {}", key);
+        lock.writeLock().lock();
+        try {
+            if (insert(key, value) < 0)
+                log.trace("The key {} already exists", key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts the pair if the key does not exist. Must be called while holding the write lock.
+     * @return 1 if the pair has been stored, 0 if it has been discarded since the cache is full, -1 if the key exists
+     */
+    private int insert(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(keyBytes);
+        int slotPosition = slotPosition(findSlot(keyBytes, hash));
+        if (buffer.getLong(slotPosition) != 0)
+            return -1;
+
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        long entryBytes = 8L + keyBytes.length + valueBytes.length;
+        if (entryCount + 1 > slotCount * MAX_LOAD || dataEnd + entryBytes > dataCapacity) {
+            if (!fullLogged) {
+                log.warn("The cache file {} is full with {} entries, new entries are discarded", path, entryCount);
+                fullLogged = true;
+            }
+            return 0;
+        }
+
+        int position = (int) (dataStart + dataEnd);
+        buffer.putInt(position, keyBytes.length);
+        buffer.putInt(position + 4, valueBytes.length);
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 8);
+        view.put(keyBytes);
+        view.put(valueBytes);
+        buffer.putLong(slotPosition + 8, dataEnd);
+        buffer.putLong(slotPosition, hash);
+        dataEnd += entryBytes;
+        entryCount++;
+        writeCounters();
+        return 1;
+    }
+
+    /**
+     * Retrieves the values linked to the input keys.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        log.trace("Calling getAll with keys.size() = {}", keys.size());
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys)
+            get(key).ifPresent(value -> values.put(key, value));
+        return values;
+    }
+
+    /**
+     * Stores the input pairs into the cache, without replacing the existing keys.
+     * @param entries   the pairs to be stored
+     * @return the number of keys which have been stored
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        log.trace("Calling putAll with entries.size() = {}", entries.size());
+        int stored = 0;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet())
+                if (insert(entry.getKey(), entry.getValue()) > 0)
+                    stored++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return stored;
+    }
+
+    /**
+     * Removes all the entries of a key. The space they use in the file is not reclaimed.
+     * @param keyId the id of the key
+     * @return the number of entries which have been removed
+     */
+    @Override
+    public long invalidateKey(long keyId) {
+        log.debug("Calling invalidateKey with keyId = {}", keyId);
+        byte[] namespace = ScopedPsiCacheProvider.getNamespace(keyId).getBytes(StandardCharsets.UTF_8);
+        long removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < slotCount; slot++) {
+                int slotPosition = slotPosition(slot);
+                long entryOffset = buffer.getLong(slotPosition + 8);
+                if (buffer.getLong(slotPosition) != 0 && entryOffset != REMOVED && keyStartsWith(entryOffset, namespace)) {
+                    buffer.putLong(slotPosition + 8, REMOVED);
+                    removed++;
+                }
+            }
+            removedCount += removed;
+            writeCounters();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Removed {} cached entries of the key {}", removed, keyId);
+        return removed;
+    }
+
+    /**
+     * @return the number of entries stored in the cache
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return entryCount - removedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the content of the cache to the disk and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            fileChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
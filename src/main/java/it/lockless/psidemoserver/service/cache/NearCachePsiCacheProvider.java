@@ -0,0 +1,273 @@
+package it.lockless.psidemoserver.service.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import psi.cache.PsiCacheProvider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PsiCacheProvider keeping the most recently used entries of another PsiCacheProvider (e.g., Redis) in memory,
+ * so that hot entries, such as the encryption of the server dataset shared by all the sessions using the same key,
+ * are served without a network round trip.
+ * The near cache is bounded by the estimated number of bytes of its entries, and entries are evicted in least recently
+ * used order. Writes go through to the underlying provider before being stored in the near cache, and the ones which
+ * the underlying provider discards (e.g., since its circuit is open or its write buffer is full) are not kept in memory,
+ * hence the near cache only contains entries which are also stored by the underlying provider. Entries kept in memory expire together with
+ * the ones of the underlying provider, if expireAfterWriteSeconds is positive, and are removed by invalidateKey.
+ * Hits and misses are counted separately for the near cache and the underlying provider.
+ */
+
+public class NearCachePsiCacheProvider implements BulkPsiCacheProvider, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(NearCachePsiCacheProvider.class);
+
+    // Estimated memory used by an entry besides its characters: the entry of the cache and the two String objects
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final PsiCacheProvider psiCacheProvider;
+
+    private final Cache<String, String> nearCache;
+
+    private final long maximumBytes;
+
+    private final AtomicLong nearHitCount = new AtomicLong();
+
+    private final AtomicLong nearMissCount = new AtomicLong();
+
+    private final AtomicLong remoteHitCount = new AtomicLong();
+
+    private final AtomicLong remoteMissCount = new AtomicLong();
+
+    /**
+     * Builds the near cache in front of the input PsiCacheProvider, whose entries never expire.
+     * @param psiCacheProvider  the underlying PsiCacheProvider
+     * @param maximumBytes      the maximum estimated number of bytes of the entries kept in memory
+     */
+    public NearCachePsiCacheProvider(PsiCacheProvider psiCacheProvider, long maximumBytes) {
+        this(psiCacheProvider, maximumBytes, 0);
+    }
+
+    /**
+     * Builds the near cache in front of the input PsiCacheProvider.
+     * @param psiCacheProvider          the underlying PsiCacheProvider
+     * @param maximumBytes              the maximum estimated number of bytes of the entries kept in memory
+     * @param expireAfterWriteSeconds   the time to live of the entries kept in memory, 0 if they never expire
+     */
+    public NearCachePsiCacheProvider(PsiCacheProvider psiCacheProvider, long maximumBytes, long expireAfterWriteSeconds) {
+        log.info("Creating NearCachePsiCacheProvider with maximumBytes = {}, expireAfterWriteSeconds = {}", maximumBytes, expireAfterWriteSeconds);
+        this.psiCacheProvider = psiCacheProvider;
+        this.maximumBytes = maximumBytes;
+        CacheBuilder<String, String> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher((String key, String value) -> weigh(key, value));
+        if (expireAfterWriteSeconds > 0)
+            cacheBuilder.expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS);
+        this.nearCache = cacheBuilder.build();
+    }
+
+    /**
+     * Estimates the memory used by an entry, where each character takes 2 bytes.
+     */
+    static int weigh(String key, String value) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 2L * (key.length() + value.length());
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    /**
+     * Retrieves the value linked to a given key from the near cache, or from the underlying provider if not
+     * contained in the near cache. Values retrieved from the underlying provider are stored in the near cache.
+     * @param key   key corresponding to the value to be retrieved
+     * @return an Optional containing the cached value if present, Optional.empty() otherwise
+     */
+    @Override
+    public Optional<String> get(String key) {
+        log.trace("Calling get with key = {}", key);
+        String value = nearCache.getIfPresent(key);
+        if (value != null) {
+            nearHitCount.incrementAndGet();
+            return Optional.of(value);
+        }
+        nearMissCount.incrementAndGet();
+        Optional<String> remoteValue = psiCacheProvider.get(key);
+        if (remoteValue.isPresent()) {
+            remoteHitCount.incrementAndGet();
+            nearCache.put(key, remoteValue.get());
+        } else
+            remoteMissCount.incrementAndGet();
+        return remoteValue;
+    }
+
+    /**
+     * Stores the pair <key, value> into the underlying provider and then into the near cache, unless the underlying
+     * provider is not available. Whether writing a key which already exists is an error depends on the underlying provider.
+     * @param key       key corresponding to the value to be stored
+     * @param value     value to be stored
+     */
+    @Override
+    public void put(String key, String value) {
+        log.trace("Calling put with key = {}", key);
+        psiCacheProvider.put(key, value);
+        if (isAvailable())
+            nearCache.put(key, value);
+    }
+
+    /**
+     * Retrieves the values linked to the input keys from the near cache, and the remaining ones from the underlying
+     * provider, in bulk if supported.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        log.trace("Calling getAll with keys.size() = {}", keys.size());
+        Map<String, String> values = new HashMap<>(nearCache.getAllPresent(keys));
+        nearHitCount.addAndGet(values.size());
+        List<String> missingKeys = new ArrayList<>(keys.size() - values.size());
+        for (String key : keys)
+            if (!values.containsKey(key))
+                missingKeys.add(key);
+        nearMissCount.addAndGet(missingKeys.size());
+        if (missingKeys.isEmpty())
+            return values;
+
+        Map<String, String> remoteValues;
+        if (psiCacheProvider instanceof BulkPsiCacheProvider)
+            remoteValues = ((BulkPsiCacheProvider) psiCacheProvider).getAll(missingKeys);
+        else {
+            remoteValues = new HashMap<>();
+            for (String key : missingKeys)
+                psiCacheProvider.get(key).ifPresent(value -> remoteValues.put(key, value));
+        }
+        remoteHitCount.addAndGet(remoteValues.size());
+        remoteMissCount.addAndGet(missingKeys.size() - remoteValues.size());
+        nearCache.putAll(remoteValues);
+        values.putAll(remoteValues);
+        return values;
+    }
+
+    /**
+     * Stores the input pairs into the underlying provider, in bulk if supported, and then into the near cache.
+     * If some keys have not been stored, since they already existed or since the underlying provider discarded them,
+     * only the entries which the underlying provider actually holds are stored into the near cache.
+     * @param entries   the pairs to be stored
+     * @return the number of keys which did not exist in the underlying provider
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        log.trace("Calling putAll with entries.size() = {}", entries.size());
+        int stored;
+        if (psiCacheProvider instanceof BulkPsiCacheProvider) {
+            BulkPsiCacheProvider bulkPsiCacheProvider = (BulkPsiCacheProvider) psiCacheProvider;
+            stored = bulkPsiCacheProvider.putAll(entries);
+            if (stored == entries.size())
+                nearCache.putAll(entries);
+            else
+                nearCache.putAll(bulkPsiCacheProvider.getAll(entries.keySet()));
+        } else {
+            stored = 0;
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                Optional<String> remoteValue = psiCacheProvider.get(entry.getKey());
+                if (remoteValue.isPresent()) {
+                    nearCache.put(entry.getKey(), remoteValue.get());
+                    continue;
+                }
+                psiCacheProvider.put(entry.getKey(), entry.getValue());
+                nearCache.put(entry.getKey(), entry.getValue());
+                stored++;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Removes all the entries of a key from the underlying provider, if supported, and from the near cache.
+     * @param keyId the id of the key
+     * @return the number of entries removed from the underlying provider
+     */
+    @Override
+    public long invalidateKey(long keyId) {
+        log.debug("Calling invalidateKey with keyId = {}", keyId);
+        long removed = psiCacheProvider instanceof BulkPsiCacheProvider
+                ? ((BulkPsiCacheProvider) psiCacheProvider).invalidateKey(keyId) : 0;
+        String namespace = ScopedPsiCacheProvider.getNamespace(keyId);
+        nearCache.asMap().keySet().removeIf(key -> key.startsWith(namespace));
+        return removed;
+    }
+
+    /**
+     * @return whether the underlying provider is available. Entries kept in memory are served in any case
+     */
+    @Override
+    public boolean isAvailable() {
+        return !(psiCacheProvider instanceof BulkPsiCacheProvider) || ((BulkPsiCacheProvider) psiCacheProvider).isAvailable();
+    }
+
+    public long getNearHitCount() {
+        return nearHitCount.get();
+    }
+
+    public long getNearMissCount() {
+        return nearMissCount.get();
+    }
+
+    public long getRemoteHitCount() {
+        return remoteHitCount.get();
+    }
+
+    public long getRemoteMissCount() {
+        return remoteMissCount.get();
+    }
+
+    /**
+     * @return the fraction of the lookups served by the near cache
+     */
+    public double getNearHitRate() {
+        return hitRate(nearHitCount.get(), nearMissCount.get());
+    }
+
+    /**
+     * @return the fraction of the lookups missing the near cache which have been served by the underlying provider
+     */
+    public double getRemoteHitRate() {
+        return hitRate(remoteHitCount.get(), remoteMissCount.get());
+    }
+
+    private static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public long size() {
+        return nearCache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "NearCachePsiCacheProvider{" +
+                "maximumBytes=" + maximumBytes +
+                ", size=" + nearCache.size() +
+                ", nearHitRate=" + getNearHitRate() +
+                ", nearHitCount=" + nearHitCount.get() +
+                ", nearMissCount=" + nearMissCount.get() +
+                ", remoteHitRate=" + getRemoteHitRate() +
+                ", remoteHitCount=" + remoteHitCount.get() +
+                ", remoteMissCount=" + remoteMissCount.get() +
+                ", remote=" + psiCacheProvider +
+                '}';
+    }
+
+    /**
+     * Closes the underlying provider.
+     */
+    @Override
+    public void close() throws IOException {
+        if (psiCacheProvider instanceof Closeable)
+            ((Closeable) psiCacheProvider).close();
+    }
+}
@@ -0,0 +1,192 @@
+package it.lockless.psidemoserver.service.cache;
+
+import com.google.common.hash.Hashing;
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of the keys and values of the cache.
+ * Keys: the namespace of the key (the "k{keyId}:" prefix added by ScopedPsiCacheProvider, if any) is kept as it is,
+ * so that the entries of a key can be found by prefix, while the rest of the key is stored as its UTF-8 bytes preceded
+ * by 0x00 if not longer than MAX_RAW_KEY_BYTES, otherwise as its SHA-256 digest preceded by 0x01.
+ * Values: FORMAT_TAG (1 byte), flags (1 byte) and payload, where the lowest 2 bits of the flags identify the
+ * representation of the value and the COMPRESSED bit is set if the payload is compressed with Deflate:
+ * - TEXT: UTF-8 bytes of the value;
+ * - DECIMAL: two's-complement bytes of a decimal integer (e.g., the big integers used by the PSI algorithms);
+ * - BASE64: bytes decoded from a base64 value.
+ * Binary representations are used only if they give back exactly the same string.
+ * Values not starting with FORMAT_TAG, which is not a valid first byte of a UTF-8 string, have been written as plain
+ * UTF-8 strings (e.g., by previous versions of the server) and are decoded as such.
+ */
+
+@SuppressWarnings("UnstableApiUsage")
+public class PsiCacheCodec {
+
+    static final byte FORMAT_TAG = (byte) 0xC1;
+
+    static final int TEXT = 0;
+
+    static final int DECIMAL = 1;
+
+    static final int BASE64 = 2;
+
+    static final int COMPRESSED = 0x04;
+
+    static final int MAX_RAW_KEY_BYTES = 32;
+
+    private final int compressionMinBytes;
+
+    /**
+     * @param compressionMinBytes the minimum size of a payload to be compressed, 0 to disable compression
+     */
+    public PsiCacheCodec(int compressionMinBytes) {
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
+    /**
+     * Encodes the key, keeping its namespace and replacing the rest with its digest if long.
+     * @param key the key
+     * @return the encoded key
+     */
+    public byte[] encodeKey(String key) {
+        int namespaceLength = ScopedPsiCacheProvider.getNamespaceLength(key);
+        byte[] namespace = key.substring(0, namespaceLength).getBytes(StandardCharsets.UTF_8);
+        byte[] rest = key.substring(namespaceLength).getBytes(StandardCharsets.UTF_8);
+        byte marker = 0;
+        if (rest.length > MAX_RAW_KEY_BYTES) {
+            rest = Hashing.sha256().hashBytes(rest).asBytes();
+            marker = 1;
+        }
+        byte[] encodedKey = Arrays.copyOf(namespace, namespace.length + 1 + rest.length);
+        encodedKey[namespace.length] = marker;
+        System.arraycopy(rest, 0, encodedKey, namespace.length + 1, rest.length);
+        return encodedKey;
+    }
+
+    /**
+     * Encodes the value in its most compact representation.
+     * @param value the value
+     * @return the encoded value
+     */
+    public byte[] encodeValue(String value) {
+        int representation = TEXT;
+        byte[] payload = null;
+        if (isDecimal(value)) {
+            BigInteger bigInteger = new BigInteger(value);
+            if (bigInteger.toString().equals(value)) {
+                representation = DECIMAL;
+                payload = bigInteger.toByteArray();
+            }
+        } else if (isBase64(value)) {
+            representation = BASE64;
+            payload = Base64.getDecoder().decode(value);
+        }
+        if (payload == null)
+            payload = value.getBytes(StandardCharsets.UTF_8);
+
+        int flags = representation;
+        if (compressionMinBytes > 0 && payload.length >= compressionMinBytes) {
+            byte[] compressedPayload = deflate(payload);
+            if (compressedPayload.length < payload.length) {
+                payload = compressedPayload;
+                flags |= COMPRESSED;
+            }
+        }
+        byte[] encodedValue = new byte[payload.length + 2];
+        encodedValue[0] = FORMAT_TAG;
+        encodedValue[1] = (byte) flags;
+        System.arraycopy(payload, 0, encodedValue, 2, payload.length);
+        return encodedValue;
+    }
+
+    /**
+     * Decodes a value encoded by encodeValue, or written as a plain UTF-8 string.
+     * @param encodedValue the encoded value
+     * @return the value
+     */
+    public String decodeValue(byte[] encodedValue) {
+        if (encodedValue.length < 2 || encodedValue[0] != FORMAT_TAG)
+            return new String(encodedValue, StandardCharsets.UTF_8);
+        int flags = encodedValue[1];
+        byte[] payload = Arrays.copyOfRange(encodedValue, 2, encodedValue.length);
+        if ((flags & COMPRESSED) != 0)
+            payload = inflate(payload);
+        switch (flags & 0x03) {
+            case DECIMAL:
+                return new BigInteger(payload).toString();
+            case BASE64:
+                return Base64.getEncoder().encodeToString(payload);
+            default:
+                return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static boolean isDecimal(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        if (value.length() == start)
+            return false;
+        for (int i = start; i < value.length(); i++)
+            if (value.charAt(i) < '0' || value.charAt(i) > '9')
+                return false;
+        return true;
+    }
+
+    private static boolean isBase64(String value) {
+        if (value.isEmpty() || value.length() % 4 != 0)
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '+' || c == '/' || c == '='))
+                return false;
+        }
+        try {
+            // Only the canonical encoding of the decoded bytes gives back the same string
+            return Base64.getEncoder().encodeToString(Base64.getDecoder().decode(value)).equals(value);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(payload.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+                outputStream.write(buffer, 0, deflater.deflate(buffer));
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] payload) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(payload.length * 2);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new CustomRuntimeException("The cached value is truncated");
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } catch (DataFormatException e) {
+            throw new CustomRuntimeException("The cached value is not valid: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
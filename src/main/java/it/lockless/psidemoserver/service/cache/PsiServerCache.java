@@ -0,0 +1,173 @@
+package it.lockless.psidemoserver.service.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import psi.server.PsiServer;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of the PsiServer instances built for the sessions, identified by their sessionId.
+ * Each entry keeps the expiration of the session it belongs to, in order to allow the callers to reject
+ * expired sessions without querying the database. Entries are dropped when the cache exceeds its maximum size
+ * (least recently used first) or when the session expiration time has passed.
+ */
+
+@Component
+public class PsiServerCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PsiServerCache.class);
+
+    private final Cache<Long, CachedPsiServer> cache;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    public PsiServerCache(@Value("${session.cache.size:1000}") long maximumSize,
+                          @Value("${session.expiration.minutes}") long minutesBeforeSessionExpiration) {
+        log.info("Creating PsiServerCache with maximumSize = {}", maximumSize);
+        // A session cannot outlive its expiration, hence entries are also dropped after the session duration
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(minutesBeforeSessionExpiration, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Retrieves the PsiServer associated to the sessionId, if cached.
+     * An entry whose session is expired is still returned, so that the caller can detect the expiration.
+     * @param sessionId the id identifying the session
+     * @return an Optional containing the cached entry if present, Optional.empty() otherwise
+     */
+    public Optional<CachedPsiServer> get(long sessionId) {
+        CachedPsiServer cachedPsiServer = cache.getIfPresent(sessionId);
+        if (cachedPsiServer == null) {
+            missCount.incrementAndGet();
+            return Optional.empty();
+        }
+        hitCount.incrementAndGet();
+        return Optional.of(cachedPsiServer);
+    }
+
+    /**
+     * Stores the PsiServer built for the session identified by sessionId.
+     * @param sessionId         the id identifying the session
+     * @param cachedPsiServer   the PsiServer with its session metadata
+     */
+    public void put(long sessionId, CachedPsiServer cachedPsiServer) {
+        log.trace("Calling put with sessionId = {}", sessionId);
+        cache.put(sessionId, cachedPsiServer);
+    }
+
+    /**
+     * Removes the PsiServer associated to the sessionId, if any.
+     * @param sessionId the id identifying the session
+     */
+    public void evict(long sessionId) {
+        log.debug("Calling evict with sessionId = {}", sessionId);
+        cache.invalidate(sessionId);
+    }
+
+    /**
+     * Removes all the cached PsiServer instances.
+     */
+    public void evictAll() {
+        log.debug("Calling evictAll");
+        cache.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Contains a PsiServer ready to be used, together with the metadata of the session it was built for.
+     * If the encryption results are cached in bulk by the caller, it also contains a PsiServer which does not access
+     * the cache, so that the cache is not accessed once per element by the PSI-SDK as well.
+     */
+    public static class CachedPsiServer {
+
+        private final PsiServer psiServer;
+
+        private final PsiServer uncachedPsiServer;
+
+        private final Long keyId;
+
+        private final Instant expiration;
+
+        public CachedPsiServer(PsiServer psiServer, Long keyId, Instant expiration) {
+            this(psiServer, psiServer, keyId, expiration);
+        }
+
+        public CachedPsiServer(PsiServer psiServer, PsiServer uncachedPsiServer, Long keyId, Instant expiration) {
+            this.psiServer = psiServer;
+            this.uncachedPsiServer = uncachedPsiServer;
+            this.keyId = keyId;
+            this.expiration = expiration;
+        }
+
+        public PsiServer getPsiServer() {
+            return psiServer;
+        }
+
+        /**
+         * @return the PsiServer which does not access the cache, or the PsiServer itself if the cache is not
+         * accessed in bulk
+         */
+        public PsiServer getUncachedPsiServer() {
+            return uncachedPsiServer;
+        }
+
+        public Long getKeyId() {
+            return keyId;
+        }
+
+        public Instant getExpiration() {
+            return expiration;
+        }
+
+        public boolean isExpired() {
+            return expiration.isBefore(Instant.now());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CachedPsiServer that = (CachedPsiServer) o;
+            return Objects.equals(psiServer, that.psiServer) &&
+                    Objects.equals(keyId, that.keyId) &&
+                    Objects.equals(expiration, that.expiration);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(psiServer, keyId, expiration);
+        }
+
+        @Override
+        public String toString() {
+            return "CachedPsiServer{" +
+                    "keyId=" + keyId +
+                    ", expiration=" + expiration +
+                    '}';
+        }
+    }
+}
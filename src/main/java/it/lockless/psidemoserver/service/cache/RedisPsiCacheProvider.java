@@ -1,38 +1,91 @@
 package it.lockless.psidemoserver.service.cache;
 
-import it.lockless.psidemoserver.util.exception.CacheKeyAlreadyWrittenException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import psi.cache.PsiCacheProvider;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
 
-import java.util.Optional;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
 
 /**
  * Implementation of a PsiCacheProvided based on Redis.
+ * Batches of keys are retrieved through MGET and stored through pipelined SETNX commands, in groups of at most
+ * batchSize keys, hence a batch costs one network round trip per group instead of one per key.
+ * Keys and values are stored in the compact binary format of PsiCacheCodec.
+ * Entries are written through SET NX, expire after ttlSeconds (if positive), and writing a key which already exists
+ * is a no-op, since concurrent writers store the same value for the same key. The entries of a key are removed at once
+ * by invalidateKey, which finds them by namespace through SCAN and removes them through UNLINK.
+ * Connecting, waiting for a connection of the pool and waiting for a response take at most timeoutMillis, after which
+ * a JedisException is thrown. Since redis might not be reachable, it is meant to be used behind a
+ * CircuitBreakerPsiCacheProvider.
  */
 
-public class RedisPsiCacheProvider implements PsiCacheProvider {
+public class RedisPsiCacheProvider implements BulkPsiCacheProvider, Closeable {
 
     private static final Logger log = LoggerFactory.getLogger(RedisPsiCacheProvider.class);
 
     private final JedisPool jedisPool;
 
+    private final int batchSize;
+
+    private final long ttlSeconds;
+
+    private final PsiCacheCodec psiCacheCodec;
+
     /**
-     * Initializes the connection with redis the value linked to a given key.
-     * If redis is not reachable, throws the runtime exception JedisConnectionException
+     * Initializes the pool of connections with redis. Connections are opened lazily, hence redis does not need to be
+     * reachable when the provider is created.
      *
-     * @param host   host of the redis service
-     * @param port   port of the redis service
-     * @throws JedisConnectionException if jedis is not reachable
+     * @param host       host of the redis service
+     * @param port       port of the redis service
+     * @param timeoutMillis maximum time spent connecting, waiting for a connection of the pool or for a response
+     * @param batchSize  maximum number of keys sent with a single MGET, pipeline or SCAN
+     * @param ttlSeconds time to live of the entries in seconds, 0 if the entries never expire
+     * @param psiCacheCodec the codec of the keys and values stored into redis
      */
-    public RedisPsiCacheProvider(String host, int port) {
-        this.jedisPool = new JedisPool(host, port);
-        Jedis jedis = jedisPool.getResource();
-        jedis.ping();
-        this.jedisPool.returnResource(jedis);
+    public RedisPsiCacheProvider(String host, int port, int timeoutMillis, int batchSize, long ttlSeconds, PsiCacheCodec psiCacheCodec) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be positive");
+        this.batchSize = batchSize;
+        this.ttlSeconds = ttlSeconds;
+        this.psiCacheCodec = psiCacheCodec;
+        JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
+        jedisPoolConfig.setMaxWait(Duration.ofMillis(timeoutMillis));
+        this.jedisPool = new JedisPool(jedisPoolConfig, host, port, timeoutMillis);
+    }
+
+    /**
+     * Checks whether redis is reachable.
+     * @return true if redis answered a PING command, false otherwise
+     */
+    public boolean ping() {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.ping();
+            return true;
+        } catch (JedisException e) {
+            log.debug("Redis is not reachable: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return the parameters of the SET command writing an entry only if its key does not exist
+     */
+    private SetParams setIfAbsentParams() {
+        SetParams setParams = SetParams.setParams().nx();
+        if (ttlSeconds > 0)
+            setParams.ex(ttlSeconds);
+        return setParams;
     }
 
     /**
@@ -44,16 +97,17 @@ public class RedisPsiCacheProvider implements PsiCacheProvider {
     @Override
     public Optional<String> get(String key) {
         log.trace("Calling get with key = {}", key);
-        Jedis jedis = this.jedisPool.getResource();
-        String cachedResponse = jedis.get(key);
-        this.jedisPool.returnResource(jedis);
+        byte[] cachedResponse;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            cachedResponse = jedis.get(psiCacheCodec.encodeKey(key));
+        }
         if(cachedResponse == null)
             return Optional.empty();
-        else return Optional.of(cachedResponse);
+        else return Optional.of(psiCacheCodec.decodeValue(cachedResponse));
     }
 
     /**
-     * Stores the pair <key, value> into the cache. If the key exists, it is not replaced.
+     * Stores the pair <key, value> into the cache. If the key exists, it is not replaced and nothing happens.
      * @param key       key corresponding to the value to be stored
      * @param value     value to be stored
      */
@@ -61,11 +115,107 @@ public class RedisPsiCacheProvider implements PsiCacheProvider {
     @Override
     public void put(String key, String value) {
         log.trace("Calling put with key = {}, value = {}", key, value);
-        Jedis jedis = this.jedisPool.getResource();
-        long response = jedis.setnx(key, value);
-        this.jedisPool.returnResource(jedis);
-        if (response == 0)
-            throw new CacheKeyAlreadyWrittenException();
+        String response;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            response = jedis.set(psiCacheCodec.encodeKey(key), psiCacheCodec.encodeValue(value), setIfAbsentParams());
+        }
+        if (response == null)
+            log.trace("The key {} already exists", key);
+    }
+
+    /**
+     * Retrieves the values linked to the input keys, through one MGET command for each group of batchSize keys.
+     *
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        log.trace("Calling getAll with keys.size() = {}", keys.size());
+        Map<String, String> cachedValues = new HashMap<>();
+        if (keys.isEmpty())
+            return cachedValues;
+        List<String> keyList = new ArrayList<>(keys);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            for (int from = 0; from < keyList.size(); from += batchSize) {
+                List<String> batch = keyList.subList(from, Math.min(from + batchSize, keyList.size()));
+                byte[][] encodedKeys = new byte[batch.size()][];
+                for (int i = 0; i < batch.size(); i++)
+                    encodedKeys[i] = psiCacheCodec.encodeKey(batch.get(i));
+                List<byte[]> values = jedis.mget(encodedKeys);
+                for (int i = 0; i < batch.size(); i++)
+                    if (values.get(i) != null)
+                        cachedValues.put(batch.get(i), psiCacheCodec.decodeValue(values.get(i)));
+            }
+        }
+        return cachedValues;
     }
 
+    /**
+     * Stores the input pairs <key, value> into the cache through pipelined SET NX commands, synchronized once for each
+     * group of batchSize keys. Existing keys are not replaced.
+     *
+     * @param entries   the pairs to be stored
+     * @return the number of keys which did not exist
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        log.trace("Calling putAll with entries.size() = {}", entries.size());
+        if (entries.isEmpty())
+            return 0;
+        int stored = 0;
+        List<Response<String>> responses = new ArrayList<>(Math.min(batchSize, entries.size()));
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            Iterator<Map.Entry<String, String>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Pipeline pipeline = jedis.pipelined();
+                responses.clear();
+                while (iterator.hasNext() && responses.size() < batchSize) {
+                    Map.Entry<String, String> entry = iterator.next();
+                    responses.add(pipeline.set(psiCacheCodec.encodeKey(entry.getKey()), psiCacheCodec.encodeValue(entry.getValue()),
+                            setIfAbsentParams()));
+                }
+                pipeline.sync();
+                for (Response<String> response : responses)
+                    if (response.get() != null)
+                        stored++;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Removes all the entries of a key, scanning the keys matching its namespace in groups of batchSize keys.
+     * Since SCAN does not block redis, entries written during the invalidation might not be removed.
+     *
+     * @param keyId the id of the key
+     * @return the number of entries which have been removed
+     */
+    @Override
+    public long invalidateKey(long keyId) {
+        log.debug("Calling invalidateKey with keyId = {}", keyId);
+        byte[] pattern = (ScopedPsiCacheProvider.getNamespace(keyId) + "*").getBytes(StandardCharsets.UTF_8);
+        ScanParams scanParams = new ScanParams().match(pattern).count(batchSize);
+        ScanResult<byte[]> scanResult = null;
+        long removed = 0;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            do {
+                byte[] cursor = scanResult == null ? ScanParams.SCAN_POINTER_START_BINARY : scanResult.getCursorAsBytes();
+                scanResult = jedis.scan(cursor, scanParams);
+                List<byte[]> keys = scanResult.getResult();
+                if (!keys.isEmpty())
+                    removed += jedis.unlink(keys.toArray(new byte[0][]));
+            } while (!scanResult.isCompleteIteration());
+        }
+        log.info("Removed {} cached entries of the key {}", removed, keyId);
+        return removed;
+    }
+
+    /**
+     * Closes the connections with redis.
+     */
+    @Override
+    public void close() {
+        jedisPool.close();
+    }
 }
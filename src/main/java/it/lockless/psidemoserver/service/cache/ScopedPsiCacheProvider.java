@@ -0,0 +1,116 @@
+package it.lockless.psidemoserver.service.cache;
+
+import psi.cache.PsiCacheProvider;
+
+import java.util.*;
+
+/**
+ * View of a PsiCacheProvider restricted to the entries of a single key, obtained by prefixing the cache keys with
+ * the namespace "k{keyId}:". Since the encryption of a value only depends on the key, the entries of different keys
+ * never collide, and the entries of a key can be found (e.g., by the codec of RedisPsiCacheProvider) by prefix.
+ */
+
+public class ScopedPsiCacheProvider implements BulkPsiCacheProvider {
+
+    private final PsiCacheProvider psiCacheProvider;
+
+    private final String namespace;
+
+    /**
+     * @param psiCacheProvider  the underlying PsiCacheProvider
+     * @param keyId             the id of the key whose entries are accessed
+     */
+    public ScopedPsiCacheProvider(PsiCacheProvider psiCacheProvider, long keyId) {
+        this.psiCacheProvider = psiCacheProvider;
+        this.namespace = getNamespace(keyId);
+    }
+
+    /**
+     * @param keyId the id of the key
+     * @return the prefix of the cache keys of the input key
+     */
+    public static String getNamespace(long keyId) {
+        return "k" + keyId + ":";
+    }
+
+    /**
+     * @param key   a cache key
+     * @return the length of the namespace prefix of the key, 0 if the key is not namespaced
+     */
+    public static int getNamespaceLength(String key) {
+        if (key.length() < 3 || key.charAt(0) != 'k')
+            return 0;
+        int i = key.charAt(1) == '-' ? 2 : 1;
+        int digitsStart = i;
+        while (i < key.length() && key.charAt(i) >= '0' && key.charAt(i) <= '9')
+            i++;
+        return i > digitsStart && i < key.length() && key.charAt(i) == ':' ? i + 1 : 0;
+    }
+
+    @Override
+    public Optional<String> get(String key) {
+        return psiCacheProvider.get(namespace + key);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        psiCacheProvider.put(namespace + key, value);
+    }
+
+    /**
+     * Retrieves the values linked to the input keys, in bulk if supported by the underlying provider.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys, without namespace, with their values
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        if (psiCacheProvider instanceof BulkPsiCacheProvider) {
+            List<String> scopedKeys = new ArrayList<>(keys.size());
+            keys.forEach(key -> scopedKeys.add(namespace + key));
+            ((BulkPsiCacheProvider) psiCacheProvider).getAll(scopedKeys)
+                    .forEach((scopedKey, value) -> values.put(scopedKey.substring(namespace.length()), value));
+        } else {
+            for (String key : keys)
+                get(key).ifPresent(value -> values.put(key, value));
+        }
+        return values;
+    }
+
+    /**
+     * Stores the input pairs, in bulk if supported by the underlying provider. Existing keys are not replaced.
+     * @param entries   the pairs to be stored
+     * @return the number of keys which have been stored
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        if (psiCacheProvider instanceof BulkPsiCacheProvider) {
+            Map<String, String> scopedEntries = new HashMap<>(entries.size() * 2);
+            entries.forEach((key, value) -> scopedEntries.put(namespace + key, value));
+            return ((BulkPsiCacheProvider) psiCacheProvider).putAll(scopedEntries);
+        }
+        int stored = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (get(entry.getKey()).isPresent())
+                continue;
+            put(entry.getKey(), entry.getValue());
+            stored++;
+        }
+        return stored;
+    }
+
+    /**
+     * Removes all the entries of a key from the underlying provider, if supported.
+     * @param keyId the id of the key
+     * @return the number of entries which have been removed
+     */
+    @Override
+    public long invalidateKey(long keyId) {
+        return psiCacheProvider instanceof BulkPsiCacheProvider ? ((BulkPsiCacheProvider) psiCacheProvider).invalidateKey(keyId) : 0;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !(psiCacheProvider instanceof BulkPsiCacheProvider) || ((BulkPsiCacheProvider) psiCacheProvider).isAvailable();
+    }
+}
@@ -0,0 +1,119 @@
+package it.lockless.psidemoserver.service.cache;
+
+import it.lockless.psidemoserver.model.BloomFilterShardDTO;
+import it.lockless.psidemoserver.model.ShardedBloomFilterDTO;
+import it.lockless.psidemoserver.util.BloomFilterHelper;
+import it.lockless.psidemoserver.util.ShardedBloomFilter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Immutable in-memory copy of a sharded Bloom Filter, where each shard has its own version.
+ * The version of a shard only changes when its content changes, hence a client holding the shards up to a given version
+ * only needs to download the shards with a greater version. The version of the sharded Bloom Filter is the highest
+ * version among its shards. The serialized shards are shared by all the requests: they must not be modified.
+ */
+
+public class ShardedBloomFilterVersion {
+
+    private final int shardBits;
+
+    private final long[] shardVersions;
+
+    private final byte[][] serializedShards;
+
+    private final long version;
+
+    private final Instant creationDate;
+
+    private ShardedBloomFilterVersion(int shardBits, long[] shardVersions, byte[][] serializedShards, Instant creationDate) {
+        this.shardBits = shardBits;
+        this.shardVersions = shardVersions;
+        this.serializedShards = serializedShards;
+        this.version = Arrays.stream(shardVersions).max().orElse(0);
+        this.creationDate = creationDate;
+    }
+
+    /**
+     * Builds the version following the input one, where the input shards are serialized again.
+     * A shard whose serialized content did not change keeps its version, while the others get a new one.
+     * @param previous              the previous version, or null if not available
+     * @param shardedBloomFilter    the sharded Bloom Filter
+     * @param changedShards         the indexes of the shards that might have changed, or null if all of them might have
+     * @param versionSequence       the supplier of the new versions
+     * @return the new version
+     */
+    public static ShardedBloomFilterVersion next(ShardedBloomFilterVersion previous, ShardedBloomFilter shardedBloomFilter,
+                                                 Collection<Integer> changedShards, LongSupplier versionSequence) {
+        int shardCount = shardedBloomFilter.getShardCount();
+        // The previous version is only comparable if it was split in the same number of shards
+        if (previous != null && previous.shardBits != shardedBloomFilter.getShardBits())
+            previous = null;
+
+        long[] shardVersions = previous == null ? new long[shardCount] : previous.shardVersions.clone();
+        byte[][] serializedShards = previous == null ? new byte[shardCount][] : previous.serializedShards.clone();
+        Collection<Integer> shardsToSerialize = changedShards;
+        if (previous == null || shardsToSerialize == null) {
+            shardsToSerialize = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++)
+                shardsToSerialize.add(i);
+        }
+
+        long newVersion = 0;
+        for (int shardIndex : shardsToSerialize) {
+            byte[] serializedShard = BloomFilterHelper.convertBloomFilterToByteArray(shardedBloomFilter.getShard(shardIndex));
+            if (Arrays.equals(serializedShard, serializedShards[shardIndex]))
+                continue;
+            if (newVersion == 0)
+                newVersion = versionSequence.getAsLong();
+            serializedShards[shardIndex] = serializedShard;
+            shardVersions[shardIndex] = newVersion;
+        }
+        if (previous != null && newVersion == 0)
+            return previous;
+        return new ShardedBloomFilterVersion(shardedBloomFilter.getShardBits(), shardVersions, serializedShards, Instant.now());
+    }
+
+    /**
+     * Builds the DTO containing the shards changed since the input version.
+     * @param sinceVersion the version of the sharded Bloom Filter held by the client, 0 to retrieve all the shards
+     * @return the DTO containing the shards whose version is greater than sinceVersion
+     */
+    public ShardedBloomFilterDTO toDTO(long sinceVersion) {
+        List<BloomFilterShardDTO> shards = new ArrayList<>();
+        for (int i = 0; i < shardVersions.length; i++)
+            if (shardVersions[i] > sinceVersion)
+                shards.add(new BloomFilterShardDTO(i, shardVersions[i], serializedShards[i]));
+        return new ShardedBloomFilterDTO(shardVersions.length, shardBits, version, creationDate, shards);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getShardVersion(int shardIndex) {
+        return shardVersions[shardIndex];
+    }
+
+    public int getShardCount() {
+        return shardVersions.length;
+    }
+
+    public Instant getCreationDate() {
+        return creationDate;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedBloomFilterVersion{" +
+                "shardCount=" + shardVersions.length +
+                ", version=" + version +
+                ", creationDate=" + creationDate +
+                '}';
+    }
+}
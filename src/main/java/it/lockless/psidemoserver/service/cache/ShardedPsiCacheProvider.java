@@ -0,0 +1,141 @@
+package it.lockless.psidemoserver.service.cache;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * PsiCacheProvider distributing the keys over several nodes (e.g., Redis instances) by consistent hashing.
+ * Each node is placed on a ring of 64-bit hashes at virtualNodes positions, and a key is stored by the node owning the
+ * first position following the hash of the key. Hence the keys are evenly distributed, and adding or removing a node
+ * only moves the keys between that node and the others (about 1/n of the keys with n nodes), while the other keys
+ * keep their node. Bulk operations are split by node, so that each node receives a single bulk operation.
+ * Nodes are meant to be protected by their own circuit breaker, so that a failed node only affects its own keys.
+ */
+
+@SuppressWarnings("UnstableApiUsage")
+public class ShardedPsiCacheProvider implements BulkPsiCacheProvider, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedPsiCacheProvider.class);
+
+    private final Map<String, BulkPsiCacheProvider> nodes;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Builds the ring of the input nodes.
+     * @param nodes         the nodes, identified by a stable name (e.g., host:port), which determines their positions
+     * @param virtualNodes  the number of positions of each node on the ring
+     */
+    public ShardedPsiCacheProvider(Map<String, ? extends BulkPsiCacheProvider> nodes, int virtualNodes) {
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("At least one node is required");
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("The number of virtual nodes must be positive");
+        log.info("Creating ShardedPsiCacheProvider with nodes = {}, virtualNodes = {}", nodes.keySet(), virtualNodes);
+        this.nodes = new LinkedHashMap<>(nodes);
+        for (String name : nodes.keySet())
+            for (int i = 0; i < virtualNodes; i++)
+                ring.put(hash(name + "#" + i), name);
+    }
+
+    private static long hash(String value) {
+        return Hashing.murmur3_128().hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * @param key   a cache key
+     * @return the name of the node storing the key
+     */
+    String getNodeName(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private BulkPsiCacheProvider getNode(String key) {
+        return nodes.get(getNodeName(key));
+    }
+
+    @Override
+    public Optional<String> get(String key) {
+        return getNode(key).get(key);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        getNode(key).put(key, value);
+    }
+
+    /**
+     * Retrieves the values linked to the input keys, through one bulk operation for each node.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, List<String>> keysByNode = new HashMap<>();
+        for (String key : keys)
+            keysByNode.computeIfAbsent(getNodeName(key), name -> new ArrayList<>()).add(key);
+        Map<String, String> values = new HashMap<>();
+        keysByNode.forEach((name, nodeKeys) -> values.putAll(nodes.get(name).getAll(nodeKeys)));
+        return values;
+    }
+
+    /**
+     * Stores the input pairs, through one bulk operation for each node. Existing keys are not replaced.
+     * @param entries   the pairs to be stored
+     * @return the number of keys which have been stored
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        Map<String, Map<String, String>> entriesByNode = new HashMap<>();
+        entries.forEach((key, value) -> entriesByNode.computeIfAbsent(getNodeName(key), name -> new HashMap<>()).put(key, value));
+        int stored = 0;
+        for (Map.Entry<String, Map<String, String>> nodeEntries : entriesByNode.entrySet())
+            stored += nodes.get(nodeEntries.getKey()).putAll(nodeEntries.getValue());
+        return stored;
+    }
+
+    /**
+     * Removes all the entries of a key from all the nodes.
+     * @param keyId the id of the key
+     * @return the number of entries which have been removed
+     */
+    @Override
+    public long invalidateKey(long keyId) {
+        long removed = 0;
+        for (BulkPsiCacheProvider node : nodes.values())
+            removed += node.invalidateKey(keyId);
+        return removed;
+    }
+
+    /**
+     * @return true if at least one node is available
+     */
+    @Override
+    public boolean isAvailable() {
+        return nodes.values().stream().anyMatch(BulkPsiCacheProvider::isAvailable);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedPsiCacheProvider{" +
+                "nodes=" + nodes +
+                '}';
+    }
+
+    /**
+     * Closes all the nodes.
+     */
+    @Override
+    public void close() throws IOException {
+        for (BulkPsiCacheProvider node : nodes.values())
+            if (node instanceof Closeable)
+                ((Closeable) node).close();
+    }
+}
@@ -0,0 +1,285 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import psi.cache.PsiCacheProvider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PsiCacheProvider writing to another PsiCacheProvider (e.g., Redis) in the background, so that the encryption does not
+ * wait for the cache after computing a value.
+ * Writes are queued into a buffer of at most capacity keys, and a background thread flushes them to the underlying
+ * provider in bulk operations of at most batchSize keys. When the buffer is full, new writes are dropped (DROP policy)
+ * or wait until the flusher makes room for them (BLOCK policy). Queued values are served by get and getAll until they
+ * have been written, and writes of a key which is already queued are ignored.
+ * Closing the provider flushes the queued writes.
+ */
+
+public class WriteBehindPsiCacheProvider implements BulkPsiCacheProvider, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindPsiCacheProvider.class);
+
+    private static final long CLOSE_TIMEOUT_MSECONDS = 10000;
+
+    /**
+     * Behavior of the writes when the buffer is full.
+     */
+    public enum FullBufferPolicy {
+        DROP,
+        BLOCK
+    }
+
+    private final PsiCacheProvider psiCacheProvider;
+
+    private final int batchSize;
+
+    private final FullBufferPolicy fullBufferPolicy;
+
+    private final BlockingQueue<String> queue;
+
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong queuedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong flushedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Builds the write-behind buffer in front of the input PsiCacheProvider and starts its flusher.
+     * @param psiCacheProvider  the underlying PsiCacheProvider
+     * @param capacity          the maximum number of queued writes
+     * @param batchSize         the maximum number of writes flushed with a single bulk operation
+     * @param fullBufferPolicy  the behavior of the writes when the buffer is full
+     */
+    public WriteBehindPsiCacheProvider(PsiCacheProvider psiCacheProvider, int capacity, int batchSize, FullBufferPolicy fullBufferPolicy) {
+        if (capacity < 1 || batchSize < 1)
+            throw new IllegalArgumentException("The capacity and the batch size must be positive");
+        log.info("Creating WriteBehindPsiCacheProvider with capacity = {}, batchSize = {}, fullBufferPolicy = {}", capacity, batchSize, fullBufferPolicy);
+        this.psiCacheProvider = psiCacheProvider;
+        this.batchSize = batchSize;
+        this.fullBufferPolicy = fullBufferPolicy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flusher = new Thread(this::flushLoop, "cache-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    private void flushLoop() {
+        List<String> keys = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                String key = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (key == null)
+                    continue;
+                keys.add(key);
+                queue.drainTo(keys, batchSize - 1);
+                flush(keys);
+                keys.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the queued values of the input keys to the underlying provider, then removes them from the pending ones.
+     */
+    private void flush(List<String> keys) {
+        Map<String, String> entries = new HashMap<>(keys.size() * 2);
+        for (String key : keys) {
+            String value = pending.get(key);
+            // Keys removed by invalidateKey are not written
+            if (value != null)
+                entries.put(key, value);
+        }
+        if (entries.isEmpty())
+            return;
+        try {
+            if (psiCacheProvider instanceof BulkPsiCacheProvider)
+                ((BulkPsiCacheProvider) psiCacheProvider).putAll(entries);
+            else
+                entries.forEach(psiCacheProvider::put);
+            flushedCount.addAndGet(entries.size());
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(entries.size());
+            log.warn("Unable to write {} queued entries to the cache: {}", entries.size(), e.getMessage());
+        } finally {
+            entries.forEach(pending::remove);
+        }
+    }
+
+    /**
+     * Queues the key, applying the policy if the buffer is full. The value must already be pending.
+     */
+    private boolean enqueue(String key, String value) {
+        boolean queued;
+        if (fullBufferPolicy == FullBufferPolicy.BLOCK) {
+            try {
+                queue.put(key);
+                queued = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        } else
+            queued = queue.offer(key);
+        if (queued)
+            queuedCount.incrementAndGet();
+        else {
+            pending.remove(key, value);
+            droppedCount.incrementAndGet();
+        }
+        return queued;
+    }
+
+    /**
+     * Retrieves the value linked to a given key, among the queued writes or from the underlying provider.
+     * @param key   key corresponding to the value to be retrieved
+     * @return an Optional containing the cached value if present, Optional.empty() otherwise
+     */
+    @Override
+    public Optional<String> get(String key) {
+        String value = pending.get(key);
+        if (value != null)
+            return Optional.of(value);
+        return psiCacheProvider.get(key);
+    }
+
+    /**
+     * Queues the write of the pair <key, value>, without waiting for it unless the buffer is full with the BLOCK
+     * policy. If the key is already queued, nothing happens.
+     * @param key       key corresponding to the value to be stored
+     * @param value     value to be stored
+     */
+    @Override
+    public void put(String key, String value) {
+        if (pending.putIfAbsent(key, value) == null)
+            enqueue(key, value);
+    }
+
+    /**
+     * Retrieves the values linked to the input keys, among the queued writes or from the underlying provider,
+     * in bulk if supported.
+     * @param keys  keys corresponding to the values to be retrieved
+     * @return a map containing the cached keys with their values
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        List<String> missingKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            String value = pending.get(key);
+            if (value != null)
+                values.put(key, value);
+            else
+                missingKeys.add(key);
+        }
+        if (missingKeys.isEmpty())
+            return values;
+        if (psiCacheProvider instanceof BulkPsiCacheProvider)
+            values.putAll(((BulkPsiCacheProvider) psiCacheProvider).getAll(missingKeys));
+        else
+            for (String key : missingKeys)
+                psiCacheProvider.get(key).ifPresent(value -> values.put(key, value));
+        return values;
+    }
+
+    /**
+     * Queues the writes of the input pairs, as put does.
+     * @param entries   the pairs to be stored
+     * @return the number of writes which have been queued
+     */
+    @Override
+    public int putAll(Map<String, String> entries) {
+        int queued = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet())
+            if (pending.putIfAbsent(entry.getKey(), entry.getValue()) == null && enqueue(entry.getKey(), entry.getValue()))
+                queued++;
+        return queued;
+    }
+
+    /**
+     * Discards the queued writes of a key and removes its entries from the underlying provider.
+     * @param keyId the id of the key
+     * @return the number of entries removed from the underlying provider
+     */
+    @Override
+    public long invalidateKey(long keyId) {
+        String namespace = ScopedPsiCacheProvider.getNamespace(keyId);
+        pending.keySet().removeIf(key -> key.startsWith(namespace));
+        return psiCacheProvider instanceof BulkPsiCacheProvider ? ((BulkPsiCacheProvider) psiCacheProvider).invalidateKey(keyId) : 0;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !(psiCacheProvider instanceof BulkPsiCacheProvider) || ((BulkPsiCacheProvider) psiCacheProvider).isAvailable();
+    }
+
+    /**
+     * @return the number of writes waiting to be flushed
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindPsiCacheProvider{" +
+                "pending=" + pending.size() +
+                ", queuedCount=" + queuedCount.get() +
+                ", droppedCount=" + droppedCount.get() +
+                ", flushedCount=" + flushedCount.get() +
+                ", failedCount=" + failedCount.get() +
+                ", underlying=" + psiCacheProvider +
+                '}';
+    }
+
+    /**
+     * Flushes the queued writes, waiting at most CLOSE_TIMEOUT_MSECONDS, and closes the underlying provider.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            flusher.join(CLOSE_TIMEOUT_MSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!pending.isEmpty())
+            log.warn("Closing the cache with {} writes not flushed", pending.size());
+        if (psiCacheProvider instanceof Closeable)
+            ((Closeable) psiCacheProvider).close();
+    }
+}
@@ -25,6 +25,17 @@ public class BloomFilterHelper {
 
     private BloomFilterHelper() {}
 
+    /**
+     * Creates an empty Bloom Filter of strings.
+     * @param expectedInsertions        number of elements expected to be inserted in the Bloom Filter
+     * @param falsePositiveProbability  false positive probability characterizing the produced Bloom Filter
+     * @return the empty Bloom Filter
+     */
+    public static BloomFilter<CharSequence> createBloomFilter(long expectedInsertions, double falsePositiveProbability){
+        log.debug("Called createBloomFilter() with expectedInsertions = {}", expectedInsertions);
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveProbability);
+    }
+
     /**
      * Generates a Bloom Filter from the current set of elements.
      * @param dataSet                   dataset on which compute the Bloom Filter
@@ -33,7 +44,7 @@ public class BloomFilterHelper {
      */
     public static BloomFilter<CharSequence> createBloomFilterByteArrayFromSet(Set<String> dataSet, Double falsePositiveProbability){
         log.debug("Called createBloomFilterByteArrayFromStringSet()");
-        BloomFilter<CharSequence> bloomFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), dataSet.size(), falsePositiveProbability);
+        BloomFilter<CharSequence> bloomFilter = createBloomFilter(dataSet.size(), falsePositiveProbability);
         for(String s : dataSet){
             bloomFilter.put(s);
         }
@@ -61,7 +72,7 @@ public class BloomFilterHelper {
      * @param bloomFilterByteArray an array of bytes representing a serialized Bloom Filter
      * @return the Bloom Filter
      */
-    static BloomFilter<CharSequence> getBloomFilterFromByteArray(byte[] bloomFilterByteArray){
+    public static BloomFilter<CharSequence> getBloomFilterFromByteArray(byte[] bloomFilterByteArray){
         log.debug("Called getBloomFilterFromByteArray()");
         InputStream inputStream = new ByteArrayInputStream(bloomFilterByteArray);
         try {
@@ -0,0 +1,108 @@
+package it.lockless.psidemoserver.util;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bloom Filter split in a power of two number of independent shards.
+ * Each element is routed to the shard identified by the first bits of the MurmurHash3 (32 bits, x86, seed 0) of its
+ * UTF-8 representation, hence a shard only changes when one of the elements routed to it changes.
+ * Shards are sized on the next power of two of the number of elements expected by each shard, so that their size
+ * (and thus their content, if their elements did not change) is stable across computations of the whole dataset.
+ */
+
+@SuppressWarnings("UnstableApiUsage")
+public class ShardedBloomFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedBloomFilter.class);
+
+    private final int shardBits;
+
+    private final List<BloomFilter<CharSequence>> shards;
+
+    private ShardedBloomFilter(int shardBits, List<BloomFilter<CharSequence>> shards) {
+        this.shardBits = shardBits;
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Creates an empty sharded Bloom Filter.
+     * @param expectedInsertions        number of elements expected to be inserted in the whole Bloom Filter
+     * @param falsePositiveProbability  false positive probability characterizing each shard
+     * @param shardCount                number of shards, must be a power of two
+     * @return the empty sharded Bloom Filter
+     */
+    public static ShardedBloomFilter create(long expectedInsertions, double falsePositiveProbability, int shardCount){
+        if (shardCount < 1 || Integer.bitCount(shardCount) != 1)
+            throw new IllegalArgumentException("The number of shards must be a power of two");
+        long shardInsertions = getShardInsertions(expectedInsertions, shardCount);
+        log.debug("Called create() with expectedInsertions = {}, shardCount = {}, shardInsertions = {}", expectedInsertions, shardCount, shardInsertions);
+        List<BloomFilter<CharSequence>> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++)
+            shards.add(BloomFilterHelper.createBloomFilter(shardInsertions, falsePositiveProbability));
+        return new ShardedBloomFilter(Integer.numberOfTrailingZeros(shardCount), shards);
+    }
+
+    /**
+     * Computes the number of insertions expected by each shard, rounded up to the next power of two.
+     */
+    static long getShardInsertions(long expectedInsertions, int shardCount){
+        long shardInsertions = Math.max(1, (expectedInsertions + shardCount - 1) / shardCount);
+        return shardInsertions == 1 ? 1 : Long.highestOneBit(shardInsertions - 1) << 1;
+    }
+
+    /**
+     * Identifies the shard of the input value.
+     * @param value     the value of the element
+     * @param shardBits the base 2 logarithm of the number of shards
+     * @return the index of the shard
+     */
+    public static int getShardIndex(CharSequence value, int shardBits){
+        if (shardBits == 0)
+            return 0;
+        return Hashing.murmur3_32_fixed().hashString(value, StandardCharsets.UTF_8).asInt() >>> (Integer.SIZE - shardBits);
+    }
+
+    /**
+     * Inserts the value into its shard.
+     * @param value the value of the element
+     * @return the index of the shard containing the value
+     */
+    public int put(CharSequence value){
+        int shardIndex = getShardIndex(value, shardBits);
+        shards.get(shardIndex).put(value);
+        return shardIndex;
+    }
+
+    /**
+     * Merges the input sharded Bloom Filter, which must have been created with the same parameters, into this one.
+     * @param shardedBloomFilter the sharded Bloom Filter to be merged
+     */
+    public void putAll(ShardedBloomFilter shardedBloomFilter){
+        for (int i = 0; i < shards.size(); i++)
+            shards.get(i).putAll(shardedBloomFilter.shards.get(i));
+    }
+
+    public boolean mightContain(CharSequence value){
+        return shards.get(getShardIndex(value, shardBits)).mightContain(value);
+    }
+
+    public BloomFilter<CharSequence> getShard(int shardIndex){
+        return shards.get(shardIndex);
+    }
+
+    public int getShardCount(){
+        return shards.size();
+    }
+
+    public int getShardBits(){
+        return shardBits;
+    }
+}
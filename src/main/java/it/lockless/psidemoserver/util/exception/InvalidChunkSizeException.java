@@ -0,0 +1,13 @@
+package it.lockless.psidemoserver.util.exception;
+
+/**
+ Exception thrown whenever the client requests a chunk size which is not positive or exceeds the maximum one.
+ */
+public class InvalidChunkSizeException extends Exception {
+    public InvalidChunkSizeException(String message) {
+        super(message);
+    }
+    public InvalidChunkSizeException() {
+        super();
+    }
+}
@@ -0,0 +1,13 @@
+package it.lockless.psidemoserver.util.exception;
+
+/**
+ Exception thrown whenever the client provides a cursor that was not generated by the server.
+ */
+public class InvalidCursorException extends Exception {
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+    public InvalidCursorException() {
+        super();
+    }
+}
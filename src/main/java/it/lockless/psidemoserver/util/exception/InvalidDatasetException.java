@@ -0,0 +1,13 @@
+package it.lockless.psidemoserver.util.exception;
+
+/**
+ Exception thrown whenever the dataset sent by the client cannot be parsed.
+ */
+public class InvalidDatasetException extends Exception {
+    public InvalidDatasetException(String message) {
+        super(message);
+    }
+    public InvalidDatasetException() {
+        super();
+    }
+}
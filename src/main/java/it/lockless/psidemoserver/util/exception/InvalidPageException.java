@@ -0,0 +1,13 @@
+package it.lockless.psidemoserver.util.exception;
+
+/**
+ Exception thrown whenever the client requests a page with a negative number or a size which is not positive.
+ */
+public class InvalidPageException extends Exception {
+    public InvalidPageException(String message) {
+        super(message);
+    }
+    public InvalidPageException() {
+        super();
+    }
+}
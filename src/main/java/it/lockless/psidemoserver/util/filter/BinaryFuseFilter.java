@@ -0,0 +1,191 @@
+package it.lockless.psidemoserver.util.filter;
+
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary fuse filter with 8 bits fingerprints and arity 3 (Graf and Lemire, "Binary Fuse Filters: Fast and Smaller Than
+ * Xor Filters"). The filter is built once on the whole set of keys and, for large sets, uses about 9 bits per element,
+ * with a false positive probability of about 0.39%.
+ * Serialized representation (big-endian): seed (8 bytes), segmentLength (4 bytes), segmentCountLength (4 bytes),
+ * arrayLength (4 bytes), fingerprints (arrayLength bytes).
+ * A value might be contained if the xor of its fingerprint with the fingerprints at its three positions is 0, where,
+ * given hash = FilterHashing.hash(key, seed), h0 is the high 64 bits of the unsigned product hash * segmentCountLength,
+ * h1 = (h0 + segmentLength) ^ ((hash >>> 18) & (segmentLength - 1)) and
+ * h2 = (h0 + 2 * segmentLength) ^ (hash & (segmentLength - 1)).
+ */
+public class BinaryFuseFilter implements MembershipFilter {
+
+    private static final int ARITY = 3;
+
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+
+    private static final int MAX_ATTEMPTS = 100;
+
+    private final long seed;
+
+    private final int segmentLength;
+
+    private final int segmentCountLength;
+
+    private final byte[] fingerprints;
+
+    private BinaryFuseFilter(long seed, int segmentLength, int segmentCountLength, byte[] fingerprints) {
+        this.seed = seed;
+        this.segmentLength = segmentLength;
+        this.segmentCountLength = segmentCountLength;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Builds the binary fuse filter of the input keys.
+     * @param keys  the keys of the values, computed with FilterHashing.key. The array is sorted and deduplicated in place
+     * @param size  the number of keys in the array
+     * @return the binary fuse filter
+     */
+    static BinaryFuseFilter build(long[] keys, int size) {
+        size = FilterHashing.sortAndRemoveDuplicates(keys, size);
+
+        // Sizing as in the reference implementation
+        int segmentLength = size == 0 ? 4 : 1 << (int) Math.floor(Math.log(size) / Math.log(3.33) + 2.25);
+        segmentLength = Math.min(segmentLength, MAX_SEGMENT_LENGTH);
+        double sizeFactor = size <= 1 ? 0 : Math.max(1.125, 0.875 + 0.25 * Math.log(1000000) / Math.log(size));
+        int capacity = (int) Math.round(size * sizeFactor);
+        int initSegmentCount = (capacity + segmentLength - 1) / segmentLength - (ARITY - 1);
+        int arrayLength = (initSegmentCount + ARITY - 1) * segmentLength;
+        int segmentCount = (arrayLength + segmentLength - 1) / segmentLength;
+        segmentCount = segmentCount <= ARITY - 1 ? 1 : segmentCount - (ARITY - 1);
+        arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+        int segmentCountLength = segmentCount * segmentLength;
+
+        long[] hashes = new long[size];
+        int[] positions = new int[size];
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long seed = FilterHashing.mix(attempt + 0x9e3779b97f4a7c15L);
+            if (peel(keys, size, seed, segmentLength, segmentCountLength, arrayLength, hashes, positions)) {
+                // Fingerprints are assigned in reverse peeling order, hence each position is set after the other two
+                // positions of its key have been set
+                byte[] fingerprints = new byte[arrayLength];
+                for (int i = size - 1; i >= 0; i--) {
+                    long hash = hashes[i];
+                    int h0 = position0(hash, segmentCountLength);
+                    fingerprints[positions[i]] = (byte) (FilterHashing.fingerprint8(hash)
+                            ^ fingerprints[h0]
+                            ^ fingerprints[position1(hash, h0, segmentLength)]
+                            ^ fingerprints[position2(hash, h0, segmentLength)]);
+                }
+                return new BinaryFuseFilter(seed, segmentLength, segmentCountLength, fingerprints);
+            }
+        }
+        throw new CustomRuntimeException("Unable to build the binary fuse filter");
+    }
+
+    /**
+     * Peels the hypergraph of the keys, storing the hashes and the positions assigned to them in peeling order.
+     * @return true if all the keys have been peeled
+     */
+    private static boolean peel(long[] keys, int size, long seed, int segmentLength, int segmentCountLength, int arrayLength,
+                                long[] hashes, int[] positions) {
+        int[] counts = new int[arrayLength];
+        long[] xorHashes = new long[arrayLength];
+        int[] keyPositions = new int[ARITY];
+        for (int i = 0; i < size; i++) {
+            long hash = FilterHashing.hash(keys[i], seed);
+            for (int position : positions(hash, segmentLength, segmentCountLength, keyPositions)) {
+                counts[position]++;
+                xorHashes[position] ^= hash;
+            }
+        }
+
+        int[] queue = new int[arrayLength + ARITY * size];
+        int queueSize = 0;
+        for (int i = 0; i < arrayLength; i++)
+            if (counts[i] == 1)
+                queue[queueSize++] = i;
+
+        int peeled = 0;
+        while (queueSize > 0) {
+            int position = queue[--queueSize];
+            if (counts[position] != 1)
+                continue;
+            long hash = xorHashes[position];
+            hashes[peeled] = hash;
+            positions[peeled] = position;
+            peeled++;
+            for (int otherPosition : positions(hash, segmentLength, segmentCountLength, keyPositions)) {
+                counts[otherPosition]--;
+                xorHashes[otherPosition] ^= hash;
+                if (counts[otherPosition] == 1)
+                    queue[queueSize++] = otherPosition;
+            }
+        }
+        return peeled == size;
+    }
+
+    private static int[] positions(long hash, int segmentLength, int segmentCountLength, int[] keyPositions) {
+        int h0 = position0(hash, segmentCountLength);
+        keyPositions[0] = h0;
+        keyPositions[1] = position1(hash, h0, segmentLength);
+        keyPositions[2] = position2(hash, h0, segmentLength);
+        return keyPositions;
+    }
+
+    /**
+     * Computes the high 64 bits of the unsigned product of hash and segmentCountLength, which is lower than 2^31.
+     */
+    private static int position0(long hash, int segmentCountLength) {
+        long low = ((hash & 0xffffffffL) * segmentCountLength) >>> 32;
+        return (int) (((hash >>> 32) * segmentCountLength + low) >>> 32);
+    }
+
+    private static int position1(long hash, int h0, int segmentLength) {
+        return (h0 + segmentLength) ^ ((int) (hash >>> 18) & (segmentLength - 1));
+    }
+
+    private static int position2(long hash, int h0, int segmentLength) {
+        return (h0 + 2 * segmentLength) ^ ((int) hash & (segmentLength - 1));
+    }
+
+    @Override
+    public FilterType getType() {
+        return FilterType.BINARY_FUSE;
+    }
+
+    @Override
+    public boolean mightContain(CharSequence value) {
+        long hash = FilterHashing.hash(FilterHashing.key(value), seed);
+        int h0 = position0(hash, segmentCountLength);
+        byte fingerprint = (byte) (FilterHashing.fingerprint8(hash)
+                ^ fingerprints[h0]
+                ^ fingerprints[position1(hash, h0, segmentLength)]
+                ^ fingerprints[position2(hash, h0, segmentLength)]);
+        return fingerprint == 0;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return ByteBuffer.allocate(20 + fingerprints.length)
+                .putLong(seed)
+                .putInt(segmentLength)
+                .putInt(segmentCountLength)
+                .putInt(fingerprints.length)
+                .put(fingerprints)
+                .array();
+    }
+
+    /**
+     * Retrieves a binary fuse filter from its serialized representation.
+     * @param bytes the serialized representation of the filter
+     * @return the binary fuse filter
+     */
+    public static BinaryFuseFilter fromByteArray(byte[] bytes) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        long seed = byteBuffer.getLong();
+        int segmentLength = byteBuffer.getInt();
+        int segmentCountLength = byteBuffer.getInt();
+        byte[] fingerprints = new byte[byteBuffer.getInt()];
+        byteBuffer.get(fingerprints);
+        return new BinaryFuseFilter(seed, segmentLength, segmentCountLength, fingerprints);
+    }
+}
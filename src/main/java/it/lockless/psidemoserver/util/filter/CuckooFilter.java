@@ -0,0 +1,271 @@
+package it.lockless.psidemoserver.util.filter;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Cuckoo filter with 16 bits fingerprints and buckets of 4 entries (Fan et al., "Cuckoo Filter: Practically Better
+ * Than Bloom"). Differently from a Bloom Filter, elements can be deleted, provided that they have been inserted.
+ * With a load up to 95%, it uses about 17 bits per element, with a false positive probability of about 0.012%.
+ * A value is stored at most MAX_COPIES times, since the copies of a value share the 8 entries of its two buckets and
+ * would otherwise make the filter full however large it is.
+ * Serialized representation (big-endian): bucketCount (4 bytes), count (8 bytes), victimIndex (4 bytes),
+ * victimFingerprint (2 bytes), entries (bucketCount * 4 * 2 bytes), where 0 denotes an empty entry and a
+ * victimFingerprint of 0 denotes the absence of the victim.
+ * Given hash = FilterHashing.hash(key, 0), the fingerprint of a value is (hash & 0xffff), or 1 if 0, and its buckets are
+ * i1 = (hash >>> 32) & (bucketCount - 1) and i2 = (i1 ^ FilterHashing.mix(fingerprint)) & (bucketCount - 1).
+ */
+public class CuckooFilter implements MembershipFilter {
+
+    private static final int BUCKET_SIZE = 4;
+
+    private static final double MAX_LOAD = 0.95;
+
+    private static final int MAX_KICKS = 500;
+
+    // Maximum number of entries of the same fingerprint in a pair of buckets
+    public static final int MAX_COPIES = 2;
+
+    private final int bucketCount;
+
+    private final short[] entries;
+
+    private long count;
+
+    // Entry which could not be placed after the maximum number of kicks. While set, no insertion is accepted
+    private int victimIndex;
+
+    private short victimFingerprint;
+
+    // State of the kicks, so that the choice of the evicted entry is reproducible
+    private long kickState;
+
+    private CuckooFilter(int bucketCount, short[] entries, long count, int victimIndex, short victimFingerprint) {
+        this.bucketCount = bucketCount;
+        this.entries = entries;
+        this.count = count;
+        this.victimIndex = victimIndex;
+        this.victimFingerprint = victimFingerprint;
+    }
+
+    /**
+     * Creates an empty cuckoo filter.
+     * @param expectedInsertions number of elements expected to be inserted in the filter
+     * @return the empty cuckoo filter
+     */
+    public static CuckooFilter create(long expectedInsertions) {
+        long minimumBuckets = Math.max(2, (long) Math.ceil(expectedInsertions / (BUCKET_SIZE * MAX_LOAD)));
+        int bucketCount = (int) Math.min(1 << 30, Long.highestOneBit(minimumBuckets - 1) << 1);
+        return new CuckooFilter(bucketCount, new short[bucketCount * BUCKET_SIZE], 0, 0, (short) 0);
+    }
+
+    /**
+     * Inserts the value into the filter. Once a value is stored MAX_COPIES times, further insertions are accepted without
+     * storing it again, hence a value inserted n times must be deleted min(n, MAX_COPIES) times.
+     * @param value the value of the element
+     * @return true if the value has been inserted, false if the filter is full
+     */
+    public boolean put(CharSequence value) {
+        long hash = FilterHashing.hash(FilterHashing.key(value), 0);
+        short fingerprint = fingerprint(hash);
+        return insertCopy(index(hash), fingerprint);
+    }
+
+    /**
+     * Deletes the value from the filter. Only values which have been inserted must be deleted, otherwise a value sharing
+     * fingerprint and bucket could be deleted in their place.
+     * @param value the value of the element
+     * @return true if the value has been deleted, false if it was not contained
+     */
+    public boolean remove(CharSequence value) {
+        long hash = FilterHashing.hash(FilterHashing.key(value), 0);
+        short fingerprint = fingerprint(hash);
+        int i1 = index(hash);
+        int i2 = alternateIndex(i1, fingerprint);
+        if (removeFromBucket(i1, fingerprint) || removeFromBucket(i2, fingerprint)) {
+            count--;
+            // The victim can now be placed
+            if (victimFingerprint != 0) {
+                short fingerprintToPlace = victimFingerprint;
+                victimFingerprint = 0;
+                insert(victimIndex, fingerprintToPlace);
+                count--;
+            }
+            return true;
+        }
+        if (victimFingerprint == fingerprint && (victimIndex == i1 || victimIndex == i2)) {
+            victimFingerprint = 0;
+            count--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes all the copies of the value stored in the filter, i.e. min(n, MAX_COPIES) copies of a value inserted n times.
+     * @param value     the value of the element
+     * @param inserted  the number of times the value has been inserted
+     * @return the number of deleted copies
+     */
+    public int removeCopies(CharSequence value, long inserted) {
+        int removed = 0;
+        while (removed < Math.min(inserted, MAX_COPIES) && remove(value))
+            removed++;
+        return removed;
+    }
+
+    /**
+     * Inserts all the entries of the input cuckoo filter, which must have been created with the same parameters.
+     * @param cuckooFilter the cuckoo filter to be merged
+     * @return true if all the entries have been inserted, false if the filter is full
+     */
+    public boolean putAll(CuckooFilter cuckooFilter) {
+        for (int i = 0; i < cuckooFilter.entries.length; i++)
+            if (cuckooFilter.entries[i] != 0 && !insertCopy(i / BUCKET_SIZE, cuckooFilter.entries[i]))
+                return false;
+        return cuckooFilter.victimFingerprint == 0 || insertCopy(cuckooFilter.victimIndex, cuckooFilter.victimFingerprint);
+    }
+
+    /**
+     * Inserts the fingerprint unless its pair of buckets already contains MAX_COPIES copies of it.
+     */
+    private boolean insertCopy(int index, short fingerprint) {
+        int alternateIndex = alternateIndex(index, fingerprint);
+        int copies = countInBucket(index, fingerprint);
+        if (alternateIndex != index)
+            copies += countInBucket(alternateIndex, fingerprint);
+        if (victimFingerprint == fingerprint && (victimIndex == index || victimIndex == alternateIndex))
+            copies++;
+        return copies >= MAX_COPIES || insert(index, fingerprint);
+    }
+
+    private boolean insert(int index, short fingerprint) {
+        if (victimFingerprint != 0)
+            return false;
+        count++;
+        if (insertIntoBucket(index, fingerprint) || insertIntoBucket(alternateIndex(index, fingerprint), fingerprint))
+            return true;
+
+        // Evicts an entry of one of the buckets and moves it to its alternate bucket, up to MAX_KICKS times
+        int currentIndex = kickState++ % 2 == 0 ? index : alternateIndex(index, fingerprint);
+        short currentFingerprint = fingerprint;
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int entry = currentIndex * BUCKET_SIZE + (int) (FilterHashing.mix(kickState++) & (BUCKET_SIZE - 1));
+            short evicted = entries[entry];
+            entries[entry] = currentFingerprint;
+            currentFingerprint = evicted;
+            currentIndex = alternateIndex(currentIndex, currentFingerprint);
+            if (insertIntoBucket(currentIndex, currentFingerprint))
+                return true;
+        }
+        victimIndex = currentIndex;
+        victimFingerprint = currentFingerprint;
+        return true;
+    }
+
+    private boolean insertIntoBucket(int index, short fingerprint) {
+        for (int i = index * BUCKET_SIZE; i < (index + 1) * BUCKET_SIZE; i++) {
+            if (entries[i] == 0) {
+                entries[i] = fingerprint;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeFromBucket(int index, short fingerprint) {
+        for (int i = index * BUCKET_SIZE; i < (index + 1) * BUCKET_SIZE; i++) {
+            if (entries[i] == fingerprint) {
+                entries[i] = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int countInBucket(int index, short fingerprint) {
+        int copies = 0;
+        for (int i = index * BUCKET_SIZE; i < (index + 1) * BUCKET_SIZE; i++)
+            if (entries[i] == fingerprint)
+                copies++;
+        return copies;
+    }
+
+    private boolean bucketContains(int index, short fingerprint) {
+        for (int i = index * BUCKET_SIZE; i < (index + 1) * BUCKET_SIZE; i++)
+            if (entries[i] == fingerprint)
+                return true;
+        return false;
+    }
+
+    private static short fingerprint(long hash) {
+        short fingerprint = (short) hash;
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private int index(long hash) {
+        return (int) (hash >>> 32) & (bucketCount - 1);
+    }
+
+    private int alternateIndex(int index, short fingerprint) {
+        return (int) (index ^ FilterHashing.mix(fingerprint & 0xffff)) & (bucketCount - 1);
+    }
+
+    @Override
+    public FilterType getType() {
+        return FilterType.CUCKOO;
+    }
+
+    @Override
+    public boolean mightContain(CharSequence value) {
+        long hash = FilterHashing.hash(FilterHashing.key(value), 0);
+        short fingerprint = fingerprint(hash);
+        int i1 = index(hash);
+        int i2 = alternateIndex(i1, fingerprint);
+        return bucketContains(i1, fingerprint) || bucketContains(i2, fingerprint)
+                || (victimFingerprint == fingerprint && (victimIndex == i1 || victimIndex == i2));
+    }
+
+    /**
+     * @return the number of copies of the values stored and not deleted
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the upper bound of the false positive probability, given the current load of the filter
+     */
+    public double expectedFpp() {
+        double load = (double) count / entries.length;
+        return Math.min(1, 2 * BUCKET_SIZE * load / 65536);
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(18 + 2 * entries.length)
+                .putInt(bucketCount)
+                .putLong(count)
+                .putInt(victimIndex)
+                .putShort(victimFingerprint);
+        byteBuffer.asShortBuffer().put(entries);
+        return byteBuffer.array();
+    }
+
+    /**
+     * Retrieves a cuckoo filter from its serialized representation.
+     * @param bytes the serialized representation of the filter
+     * @return the cuckoo filter
+     */
+    public static CuckooFilter fromByteArray(byte[] bytes) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        int bucketCount = byteBuffer.getInt();
+        long count = byteBuffer.getLong();
+        int victimIndex = byteBuffer.getInt();
+        short victimFingerprint = byteBuffer.getShort();
+        short[] entries = new short[bucketCount * BUCKET_SIZE];
+        ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
+        shortBuffer.get(entries);
+        return new CuckooFilter(bucketCount, entries, count, victimIndex, victimFingerprint);
+    }
+}
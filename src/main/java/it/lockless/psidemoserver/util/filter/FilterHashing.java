@@ -0,0 +1,58 @@
+package it.lockless.psidemoserver.util.filter;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Hash functions shared by the filters built on 64 bits keys (cuckoo, xor and binary fuse).
+ * The key of a value is the first 8 bytes (little-endian) of the MurmurHash3 (128 bits, x64, seed 0) of its
+ * UTF-8 representation, which is then mixed with the seed of the filter through the MurmurHash3 64 bits finalizer.
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class FilterHashing {
+
+    private FilterHashing() {}
+
+    static long key(CharSequence value) {
+        return Hashing.murmur3_128().hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    static long hash(long key, long seed) {
+        return mix(key + seed);
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Maps a 32 bits hash to [0, n) without divisions.
+     */
+    static int reduce(int hash, int n) {
+        return (int) (((hash & 0xffffffffL) * n) >>> 32);
+    }
+
+    static byte fingerprint8(long hash) {
+        return (byte) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Removes the duplicated keys, sorting the input array.
+     * @return the number of distinct keys, stored at the beginning of the array
+     */
+    static int sortAndRemoveDuplicates(long[] keys, int size) {
+        Arrays.sort(keys, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++)
+            if (distinct == 0 || keys[i] != keys[distinct - 1])
+                keys[distinct++] = keys[i];
+        return distinct;
+    }
+}
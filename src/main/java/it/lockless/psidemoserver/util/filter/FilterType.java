@@ -0,0 +1,38 @@
+package it.lockless.psidemoserver.util.filter;
+
+/**
+ * Types of approximate membership filters that can represent the server dataset.
+ * GUAVA: Bloom Filter of the Google Guava library, supporting insertions.
+ * CUCKOO: cuckoo filter with 16 bits fingerprints, supporting insertions and deletions.
+ * XOR: xor filter with 8 bits fingerprints, built once on the whole dataset.
+ * BINARY_FUSE: binary fuse filter with 8 bits fingerprints, built once on the whole dataset.
+ */
+public enum FilterType {
+    GUAVA("guava"),
+    CUCKOO("cuckoo"),
+    XOR("xor"),
+    BINARY_FUSE("binary_fuse");
+
+    private final String name;
+
+    FilterType(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retrieves the filter type identified by the input name.
+     * @param name the name of the filter type, as used in the configuration and in the BloomFilterDTO
+     * @return the filter type
+     * @throws IllegalArgumentException if the name does not identify any filter type
+     */
+    public static FilterType fromName(String name) {
+        for (FilterType filterType : values())
+            if (filterType.name.equalsIgnoreCase(name))
+                return filterType;
+        throw new IllegalArgumentException("Unsupported filter type " + name);
+    }
+}
@@ -0,0 +1,40 @@
+package it.lockless.psidemoserver.util.filter;
+
+/**
+ * Approximate membership filter over the values of the server dataset, which can show false positives but
+ * no false negatives.
+ */
+public interface MembershipFilter {
+
+    FilterType getType();
+
+    /**
+     * @param value the value of the element
+     * @return false if the value is certainly not contained in the filter, true if it might be contained
+     */
+    boolean mightContain(CharSequence value);
+
+    /**
+     * @return the serialized representation of the filter, to be decoded by the clients according to its type
+     */
+    byte[] toByteArray();
+
+    /**
+     * Retrieves a membership filter from its serialized representation.
+     * @param filterType    the type of the filter, different from GUAVA
+     * @param bytes         the serialized representation of the filter
+     * @return the membership filter
+     */
+    static MembershipFilter fromByteArray(FilterType filterType, byte[] bytes) {
+        switch (filterType) {
+            case CUCKOO:
+                return CuckooFilter.fromByteArray(bytes);
+            case XOR:
+                return XorFilter.fromByteArray(bytes);
+            case BINARY_FUSE:
+                return BinaryFuseFilter.fromByteArray(bytes);
+            default:
+                throw new IllegalArgumentException("Unsupported filter type " + filterType);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package it.lockless.psidemoserver.util.filter;
+
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+
+import java.util.Arrays;
+
+/**
+ * Builds a membership filter of the values streamed into it. Builders of the same type and parameters can be merged,
+ * so that the values can be split among builders working in parallel.
+ * Guava Bloom Filters are not built through this class, since they are managed directly by the BloomFilterService.
+ */
+public abstract class MembershipFilterBuilder {
+
+    /**
+     * Creates a builder of the input filter type.
+     * @param filterType            the type of the filter, different from GUAVA
+     * @param expectedInsertions    number of elements expected to be inserted in the whole filter
+     * @return the builder
+     */
+    public static MembershipFilterBuilder create(FilterType filterType, long expectedInsertions) {
+        switch (filterType) {
+            case CUCKOO:
+                return new CuckooFilterBuilder(expectedInsertions);
+            case XOR:
+            case BINARY_FUSE:
+                return new StaticFilterBuilder(filterType);
+            default:
+                throw new IllegalArgumentException("Unsupported filter type " + filterType);
+        }
+    }
+
+    public abstract void put(String value);
+
+    /**
+     * Merges the values of the input builder, which must have been created with the same parameters, into this one.
+     */
+    public abstract void putAll(MembershipFilterBuilder membershipFilterBuilder);
+
+    /**
+     * @return the number of values put into the builder, including duplicates (up to CuckooFilter.MAX_COPIES per value
+     * for a cuckoo filter)
+     */
+    public abstract long getCount();
+
+    public abstract MembershipFilter build();
+
+    /**
+     * Inserts the values in a cuckoo filter as they are received. Duplicates beyond CuckooFilter.MAX_COPIES are not
+     * stored, hence a dataset with many copies of a value fits the filter sized on its elements.
+     */
+    private static class CuckooFilterBuilder extends MembershipFilterBuilder {
+
+        private final CuckooFilter cuckooFilter;
+
+        private CuckooFilterBuilder(long expectedInsertions) {
+            this.cuckooFilter = CuckooFilter.create(expectedInsertions);
+        }
+
+        @Override
+        public void put(String value) {
+            if (!cuckooFilter.put(value))
+                throw new CustomRuntimeException("The cuckoo filter is full");
+        }
+
+        @Override
+        public void putAll(MembershipFilterBuilder membershipFilterBuilder) {
+            if (!cuckooFilter.putAll(((CuckooFilterBuilder) membershipFilterBuilder).cuckooFilter))
+                throw new CustomRuntimeException("The cuckoo filter is full");
+        }
+
+        @Override
+        public long getCount() {
+            return cuckooFilter.getCount();
+        }
+
+        @Override
+        public MembershipFilter build() {
+            return cuckooFilter;
+        }
+    }
+
+    /**
+     * Collects the 64 bits keys of the values, since xor and binary fuse filters are built once on the whole set of keys.
+     * The memory required is 8 bytes per value.
+     */
+    private static class StaticFilterBuilder extends MembershipFilterBuilder {
+
+        private final FilterType filterType;
+
+        private long[] keys = new long[1024];
+
+        private int size;
+
+        private StaticFilterBuilder(FilterType filterType) {
+            this.filterType = filterType;
+        }
+
+        @Override
+        public void put(String value) {
+            ensureCapacity(size + 1);
+            keys[size++] = FilterHashing.key(value);
+        }
+
+        @Override
+        public void putAll(MembershipFilterBuilder membershipFilterBuilder) {
+            StaticFilterBuilder staticFilterBuilder = (StaticFilterBuilder) membershipFilterBuilder;
+            ensureCapacity(size + staticFilterBuilder.size);
+            System.arraycopy(staticFilterBuilder.keys, 0, keys, size, staticFilterBuilder.size);
+            size += staticFilterBuilder.size;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > keys.length)
+                keys = Arrays.copyOf(keys, Math.max(capacity, keys.length + (keys.length >> 1)));
+        }
+
+        @Override
+        public long getCount() {
+            return size;
+        }
+
+        @Override
+        public MembershipFilter build() {
+            if (filterType == FilterType.XOR)
+                return XorFilter.build(keys, size);
+            return BinaryFuseFilter.build(keys, size);
+        }
+    }
+}
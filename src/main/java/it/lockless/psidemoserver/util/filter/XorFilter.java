@@ -0,0 +1,149 @@
+package it.lockless.psidemoserver.util.filter;
+
+import it.lockless.psidemoserver.util.exception.CustomRuntimeException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Xor filter with 8 bits fingerprints (Graf and Lemire, "Xor Filters: Faster and Smaller Than Bloom and Cuckoo Filters").
+ * The filter is built once on the whole set of keys and uses about 9.84 bits per element, with a false positive
+ * probability of about 0.39%.
+ * Serialized representation (big-endian): seed (8 bytes), blockLength (4 bytes), fingerprints (3 * blockLength bytes).
+ * A value might be contained if the xor of its fingerprint with the fingerprints at its three positions is 0, where,
+ * given hash = FilterHashing.hash(key, seed), the positions are reduce(rotl(hash, 21 * i), blockLength) + i * blockLength
+ * for i in {0, 1, 2}.
+ */
+public class XorFilter implements MembershipFilter {
+
+    private static final int MAX_ATTEMPTS = 100;
+
+    private final long seed;
+
+    private final int blockLength;
+
+    private final byte[] fingerprints;
+
+    private XorFilter(long seed, int blockLength, byte[] fingerprints) {
+        this.seed = seed;
+        this.blockLength = blockLength;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Builds the xor filter of the input keys.
+     * @param keys  the keys of the values, computed with FilterHashing.key. The array is sorted and deduplicated in place
+     * @param size  the number of keys in the array
+     * @return the xor filter
+     */
+    static XorFilter build(long[] keys, int size) {
+        size = FilterHashing.sortAndRemoveDuplicates(keys, size);
+        int arrayLength = 32 + (int) Math.ceil(1.23 * size);
+        int blockLength = arrayLength / 3;
+        arrayLength = 3 * blockLength;
+
+        long[] hashes = new long[size];
+        int[] positions = new int[size];
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long seed = FilterHashing.mix(attempt + 0x9e3779b97f4a7c15L);
+            if (peel(keys, size, seed, blockLength, arrayLength, hashes, positions)) {
+                // Fingerprints are assigned in reverse peeling order, hence each position is set after the other two
+                // positions of its key have been set
+                byte[] fingerprints = new byte[arrayLength];
+                for (int i = size - 1; i >= 0; i--) {
+                    long hash = hashes[i];
+                    fingerprints[positions[i]] = (byte) (FilterHashing.fingerprint8(hash)
+                            ^ fingerprints[position(hash, 0, blockLength)]
+                            ^ fingerprints[position(hash, 1, blockLength)]
+                            ^ fingerprints[position(hash, 2, blockLength)]);
+                }
+                return new XorFilter(seed, blockLength, fingerprints);
+            }
+        }
+        throw new CustomRuntimeException("Unable to build the xor filter");
+    }
+
+    /**
+     * Peels the hypergraph of the keys, storing the hashes and the positions assigned to them in peeling order.
+     * @return true if all the keys have been peeled
+     */
+    private static boolean peel(long[] keys, int size, long seed, int blockLength, int arrayLength, long[] hashes, int[] positions) {
+        int[] counts = new int[arrayLength];
+        long[] xorHashes = new long[arrayLength];
+        for (int i = 0; i < size; i++) {
+            long hash = FilterHashing.hash(keys[i], seed);
+            for (int j = 0; j < 3; j++) {
+                int position = position(hash, j, blockLength);
+                counts[position]++;
+                xorHashes[position] ^= hash;
+            }
+        }
+
+        int[] queue = new int[arrayLength + 3 * size];
+        int queueSize = 0;
+        for (int i = 0; i < arrayLength; i++)
+            if (counts[i] == 1)
+                queue[queueSize++] = i;
+
+        int peeled = 0;
+        while (queueSize > 0) {
+            int position = queue[--queueSize];
+            if (counts[position] != 1)
+                continue;
+            long hash = xorHashes[position];
+            hashes[peeled] = hash;
+            positions[peeled] = position;
+            peeled++;
+            for (int j = 0; j < 3; j++) {
+                int otherPosition = position(hash, j, blockLength);
+                counts[otherPosition]--;
+                xorHashes[otherPosition] ^= hash;
+                if (counts[otherPosition] == 1)
+                    queue[queueSize++] = otherPosition;
+            }
+        }
+        return peeled == size;
+    }
+
+    private static int position(long hash, int index, int blockLength) {
+        long rotated = Long.rotateLeft(hash, 21 * index);
+        return FilterHashing.reduce((int) rotated, blockLength) + index * blockLength;
+    }
+
+    @Override
+    public FilterType getType() {
+        return FilterType.XOR;
+    }
+
+    @Override
+    public boolean mightContain(CharSequence value) {
+        long hash = FilterHashing.hash(FilterHashing.key(value), seed);
+        byte fingerprint = (byte) (FilterHashing.fingerprint8(hash)
+                ^ fingerprints[position(hash, 0, blockLength)]
+                ^ fingerprints[position(hash, 1, blockLength)]
+                ^ fingerprints[position(hash, 2, blockLength)]);
+        return fingerprint == 0;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return ByteBuffer.allocate(12 + fingerprints.length)
+                .putLong(seed)
+                .putInt(blockLength)
+                .put(fingerprints)
+                .array();
+    }
+
+    /**
+     * Retrieves a xor filter from its serialized representation.
+     * @param bytes the serialized representation of the filter
+     * @return the xor filter
+     */
+    public static XorFilter fromByteArray(byte[] bytes) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        long seed = byteBuffer.getLong();
+        int blockLength = byteBuffer.getInt();
+        byte[] fingerprints = new byte[3 * blockLength];
+        byteBuffer.get(fingerprints);
+        return new XorFilter(seed, blockLength, fingerprints);
+    }
+}
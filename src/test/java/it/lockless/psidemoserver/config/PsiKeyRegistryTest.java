@@ -0,0 +1,48 @@
+package it.lockless.psidemoserver.config;
+
+import it.lockless.psidemoserver.config.PsiKeyRegistry.RegisteredKey;
+import it.lockless.psidemoserver.entity.enumeration.Algorithm;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PsiKeyRegistryTest {
+
+	private static PsiKey buildEcDhKey(long keyId, int keySize) {
+		PsiKey psiKey = new PsiKey();
+		psiKey.setKeyId(keyId);
+		psiKey.setAlgorithm(Algorithm.ECDH);
+		psiKey.setKeySize(keySize);
+		psiKey.setPrivateKey("privateKey" + keyId);
+		return psiKey;
+	}
+
+	@Test
+	void registryTest() {
+		PsiKeyRegistry psiKeyRegistry = new PsiKeyRegistry(new StoredAlgorithmKey());
+		int initialSize = psiKeyRegistry.size();
+		assertNull(psiKeyRegistry.findByKeyId(-1L));
+		assertNull(psiKeyRegistry.findByAlgorithmAndKeySize(Algorithm.ECDH, 1024));
+
+		// Keys are parsed once, when registered
+		PsiKey psiKey = buildEcDhKey(-1L, 256);
+		RegisteredKey registeredKey = psiKeyRegistry.register(psiKey);
+		assertEquals(initialSize + 1, psiKeyRegistry.size());
+		assertSame(registeredKey, psiKeyRegistry.findByKeyId(-1L));
+		assertEquals(Algorithm.ECDH, registeredKey.getAlgorithm());
+		assertEquals(256, registeredKey.getKeySize());
+		assertSame(registeredKey.getPsiServerSession(true), psiKeyRegistry.findByKeyId(-1L).getPsiServerSession(true));
+		assertNotSame(registeredKey.getPsiServerSession(true), registeredKey.getPsiServerSession(false));
+
+		// The last registered key of a pair is used by new sessions, while the previous one is still available
+		assertSame(registeredKey, psiKeyRegistry.findByAlgorithmAndKeySize(Algorithm.ECDH, 256));
+		RegisteredKey rotatedKey = psiKeyRegistry.register(buildEcDhKey(-2L, 256));
+		assertSame(rotatedKey, psiKeyRegistry.findByAlgorithmAndKeySize(Algorithm.ECDH, 256));
+		assertSame(registeredKey, psiKeyRegistry.findByKeyId(-1L));
+
+		// Registering a key again has no effect
+		assertSame(registeredKey, psiKeyRegistry.register(buildEcDhKey(-1L, 256)));
+		assertSame(rotatedKey, psiKeyRegistry.findByAlgorithmAndKeySize(Algorithm.ECDH, 256));
+		assertEquals(initialSize + 2, psiKeyRegistry.size());
+	}
+}
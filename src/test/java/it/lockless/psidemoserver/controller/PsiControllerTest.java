@@ -1,8 +1,10 @@
 package it.lockless.psidemoserver.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import it.lockless.psidemoserver.entity.PsiElement;
 import it.lockless.psidemoserver.model.*;
 import it.lockless.psidemoserver.repository.PsiElementRepository;
+import it.lockless.psidemoserver.service.BloomFilterService;
 import it.lockless.psidemoserver.service.EncryptionService;
 import it.lockless.psidemoserver.service.PsiSessionService;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,8 +12,16 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import psi.PsiClientFactory;
 import psi.PsiClientKeyDescription;
 import psi.cache.PsiCacheProvider;
@@ -20,6 +30,9 @@ import psi.exception.UnsupportedKeySizeException;
 import psi.model.PsiAlgorithm;
 import psi.model.PsiAlgorithmParameter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -29,7 +42,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
-@SpringBootTest
+@SpringBootTest(properties = "bloomfilter.rebuild.debounce.mseconds=600000")
 @DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
 class PsiControllerTest {
 
@@ -45,6 +58,9 @@ class PsiControllerTest {
 	@Autowired
 	private EncryptionService encryptionService;
 
+	@Autowired
+	private BloomFilterService bloomFilterService;
+
 	@Mock
 	private PsiCacheProvider psiCacheProvider;
 
@@ -170,7 +186,7 @@ class PsiControllerTest {
 				assertEquals(clientDataset.size(), returnedPsiDatasetMapDTO.getContent().size());
 
 				// Encrypting server dataset in two different pages
-				PsiServerDatasetPageDTO page = (PsiServerDatasetPageDTO) controller.getEncryptedServerServerDataset(sessionId, 0, 20).getBody();
+				PsiServerDatasetPageDTO page = (PsiServerDatasetPageDTO) controller.getEncryptedServerServerDataset(sessionId, 0, 20, null).getBody();
 				assertNotNull(page);
 				assertEquals(serverTotalElements, page.getTotalEntries());
 				assertEquals(2, page.getTotalPages());
@@ -178,7 +194,7 @@ class PsiControllerTest {
 				assertEquals(20, page.getSize());
 
 				Set<String> encryptedServerDataset = new HashSet<>(page.getContent());
-				page = (PsiServerDatasetPageDTO) controller.getEncryptedServerServerDataset(sessionId, 1, 20).getBody();
+				page = (PsiServerDatasetPageDTO) controller.getEncryptedServerServerDataset(sessionId, 1, 20, null).getBody();
 				assertNotNull(page);
 				assertEquals(10, page.getEntries());
 				assertEquals(20, page.getSize());
@@ -186,17 +202,32 @@ class PsiControllerTest {
 				assertEquals(30, encryptedServerDataset.size());
 
 				if (i == 0){
-					// During the first execution the only cacheHits are the one linked to the keyId retrieving
-					assertEquals(2, cacheHit.get()); // related to the two keyDescription retrieving during the initSession, after the first one
+					// During the first execution there are no cacheHits, since the PsiServer is loaded only once per session
+					assertEquals(0, cacheHit.get());
 					assertEquals(serverTotalElements+clientTotalElements + 1, cacheMiss.get()); // first keyStoring + server dataset + client dataset
 					assertEquals(serverTotalElements+clientTotalElements + 1, cachePut.get()); // first keyStoring + server dataset + client dataset
 				} else {
 					// During the second execution we have not cacheMiss/cachePut since we are working on the same dataset of the first execution
-					assertEquals(serverTotalElements+clientTotalElements + 3, cacheHit.get()); // 3 keyStoring + server dataset + client dataset
+					// Moreover, the PsiServer of the session is already cached, hence the key is not retrieved again,
+					// and the encrypted server dataset pages are served from the ones materialized for the key
+					assertEquals(clientTotalElements, cacheHit.get()); // client dataset
 					assertEquals(0, cacheMiss.get());
 					assertEquals(0, cachePut.get());
 				}
 
+				// Encrypting server dataset by cursor, which must return the same dataset of the retrieval by page number
+				Set<String> cursorEncryptedServerDataset = new HashSet<>();
+				String cursor = "";
+				do {
+					page = (PsiServerDatasetPageDTO) controller.getEncryptedServerServerDataset(sessionId, 0, 20, cursor).getBody();
+					assertNotNull(page);
+					assertEquals(serverTotalElements, page.getTotalEntries());
+					cursorEncryptedServerDataset.addAll(page.getContent());
+					cursor = page.getNextCursor();
+				} while (!page.isLast());
+				assertNull(cursor);
+				assertEquals(encryptedServerDataset, cursorEncryptedServerDataset);
+
 				// CLIENT SIDE: loading server encrypted datasets
 				psiClient.loadAndProcessServerDataset(encryptedServerDataset);
 				psiClient.loadDoubleEncryptedClientDataset(returnedPsiDatasetMapDTO.getContent());
@@ -210,6 +241,101 @@ class PsiControllerTest {
 		}
 	}
 
+	@Test
+	void serverDatasetStreamTest() throws IOException {
+		int serverTotalElements = 30;
+		int chunkSize = 7;
+		setupServerDataset(serverTotalElements, 10);
+		PsiAlgorithmParameter psiAlgorithmParameter = new PsiAlgorithmParameter(PsiAlgorithm.ECDH, 256);
+		PsiClientSessionDTO psiClientSessionDTO = (PsiClientSessionDTO) controller.initSession(new PsiAlgorithmParameterDTO(psiAlgorithmParameter)).getBody();
+		assertNotNull(psiClientSessionDTO);
+		Long sessionId = psiClientSessionDTO.getSessionId();
+
+		// The dataset is streamed across several chunks, one encrypted entry per line
+		ResponseEntity response = controller.streamEncryptedServerDataset(sessionId, chunkSize);
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		((StreamingResponseBody) response.getBody()).writeTo(outputStream);
+		ObjectMapper objectMapper = new ObjectMapper();
+		List<String> lines = new ArrayList<>();
+		for (String line : outputStream.toString(StandardCharsets.UTF_8.name()).split("\n"))
+			lines.add(objectMapper.readValue(line, String.class));
+		assertEquals(serverTotalElements, lines.size());
+
+		// Chunks follow the order of the dataset, and contain the same encrypted entries of the pages of the same size
+		// (the entries of a chunk are encrypted as a set, hence their order within the chunk is not defined)
+		for (int page = 0; page * chunkSize < serverTotalElements; page++) {
+			PsiServerDatasetPageDTO psiServerDatasetPageDTO = (PsiServerDatasetPageDTO) controller.getEncryptedServerServerDataset(sessionId, page, chunkSize, null).getBody();
+			assertNotNull(psiServerDatasetPageDTO);
+			Set<String> chunk = new HashSet<>(lines.subList(page * chunkSize, Math.min((page + 1) * chunkSize, serverTotalElements)));
+			assertEquals(psiServerDatasetPageDTO.getContent(), chunk);
+		}
+	}
+
+	@Test
+	void serverDatasetStreamChunkSizeTest() {
+		// Invalid chunk sizes are rejected before the stream starts
+		assertEquals(HttpStatus.BAD_REQUEST, controller.streamEncryptedServerDataset(0L, 0).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.streamEncryptedServerDataset(0L, -1).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.streamEncryptedServerDataset(0L, 10001).getStatusCode());
+		assertEquals(HttpStatus.NOT_FOUND, controller.streamEncryptedServerDataset(0L, 1000).getStatusCode());
+	}
+
+	@Test
+	void serverDatasetPageSizeTest() {
+		// Invalid pages are rejected before the session is loaded
+		assertEquals(HttpStatus.BAD_REQUEST, controller.getEncryptedServerServerDataset(0L, 0, 0, null).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.getEncryptedServerServerDataset(0L, 0, -1, null).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.getEncryptedServerServerDataset(0L, -1, 10, null).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.getEncryptedServerServerDataset(0L, 0, 0, "").getStatusCode());
+		assertEquals(HttpStatus.NOT_FOUND, controller.getEncryptedServerServerDataset(0L, 0, 10, null).getStatusCode());
+		assertEquals(HttpStatus.NOT_FOUND, controller.getEncryptedServerServerDataset(0L, 0, 10, "").getStatusCode());
+	}
+
+	@Test
+	void bloomFilterTest() {
+		assertEquals(HttpStatus.NOT_FOUND, controller.getBloomFilter(null, webRequest(null)).getStatusCode());
+
+		Map<String, Integer> datasetStructure = new HashMap<>();
+		datasetStructure.put("SERVER", 100);
+		controller.initServerDataset(datasetStructure);
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+
+		ResponseEntity response = controller.getBloomFilter(MediaType.APPLICATION_JSON_VALUE, webRequest(null));
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		String eTag = response.getHeaders().getETag();
+		assertNotNull(eTag);
+		BloomFilterDTO bloomFilterDTO = (BloomFilterDTO) response.getBody();
+		assertNotNull(bloomFilterDTO.getSerializedBloomFilter());
+		assertEquals("\"" + bloomFilterDTO.getVersion() + "\"", eTag);
+
+		ResponseEntity octetStreamResponse = controller.getBloomFilter(MediaType.APPLICATION_OCTET_STREAM_VALUE, webRequest(null));
+		assertArrayEquals(bloomFilterDTO.getSerializedBloomFilter(), (byte[]) octetStreamResponse.getBody());
+
+		// The client holding the current version does not download it again
+		assertEquals(HttpStatus.NOT_MODIFIED, controller.getBloomFilter(null, webRequest(eTag)).getStatusCode());
+
+		// A new version is downloaded
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+		ResponseEntity newResponse = controller.getBloomFilter(null, webRequest(eTag));
+		assertEquals(HttpStatus.OK, newResponse.getStatusCode());
+		assertNotEquals(eTag, newResponse.getHeaders().getETag());
+	}
+
+	@Test
+	void bloomFilterShardsTest() {
+		// The sharded Bloom Filter is disabled by default
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+		assertEquals(HttpStatus.NOT_FOUND, controller.getBloomFilterShards(0L, webRequest(null)).getStatusCode());
+	}
+
+	private ServletWebRequest webRequest(String ifNoneMatch) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/psi/bloomFilter");
+		if (ifNoneMatch != null)
+			request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+		return new ServletWebRequest(request, new MockHttpServletResponse());
+	}
+
 	private static class LocalCacheImplementation implements PsiCacheProvider {
 
 		private ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<>();
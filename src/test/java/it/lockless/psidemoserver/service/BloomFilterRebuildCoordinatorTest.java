@@ -0,0 +1,95 @@
+package it.lockless.psidemoserver.service;
+
+import it.lockless.psidemoserver.repository.SerializedBloomFilterRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"bloomfilter.rebuild.debounce.mseconds=200", "bloomfilter.rebuild.max.delay.mseconds=5000"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+class BloomFilterRebuildCoordinatorTest {
+
+	@Autowired
+	private DatasetService datasetService;
+
+	@Autowired
+	private DatasetVersionService datasetVersionService;
+
+	@Autowired
+	private BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator;
+
+	@Autowired
+	private SerializedBloomFilterRepository serializedBloomFilterRepository;
+
+	@Autowired
+	private BloomFilterService bloomFilterService;
+
+	@Test
+	void burstOfChangesTest() {
+		// A burst of changes within the debounce interval results in a single computation
+		Map<String, Integer> map = new HashMap<>();
+		map.put("ONE", 100);
+		datasetService.initServerDataset(map);
+		for (int i = 0; i < 5; i++) {
+			datasetVersionService.markChanged();
+			bloomFilterRebuildCoordinator.requestRebuild();
+		}
+		assertTrue(bloomFilterRebuildCoordinator.isStale());
+		awaitBloomFilter();
+		assertEquals(1, serializedBloomFilterRepository.count());
+
+		// The periodic job does not compute the Bloom Filter of an unchanged dataset
+		assertFalse(bloomFilterRebuildCoordinator.rebuildIfStale());
+		sleep(400);
+		assertEquals(1, serializedBloomFilterRepository.count());
+	}
+
+	@Test
+	void staleBloomFilterTest() {
+		// No Bloom Filter has been computed by this instance yet
+		assertTrue(bloomFilterRebuildCoordinator.rebuildIfStale());
+		awaitBloomFilter();
+		assertEquals(1, serializedBloomFilterRepository.count());
+
+		// Elements added in place do not make the Bloom Filter stale, and the stored one is replaced in the background
+		datasetService.addElements(Collections.singletonList("NEW-0"));
+		assertFalse(bloomFilterRebuildCoordinator.isStale());
+		long version = bloomFilterService.getCurrentBloomFilterVersion().get().getVersion();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (bloomFilterService.getLastSerializedBloomFilter().get().getPublishedVersion() != version
+				|| serializedBloomFilterRepository.count() != 1) {
+			assertTrue(System.currentTimeMillis() < deadline, "The Bloom Filter has not been stored");
+			sleep(10);
+		}
+
+		// A change which did not request a computation is caught by the periodic job
+		datasetVersionService.markChanged();
+		assertTrue(bloomFilterRebuildCoordinator.rebuildIfStale());
+		awaitBloomFilter();
+		assertEquals(2, serializedBloomFilterRepository.count());
+	}
+
+	private void awaitBloomFilter() {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (bloomFilterRebuildCoordinator.isStale()) {
+			assertTrue(System.currentTimeMillis() < deadline, "The Bloom Filter has not been computed");
+			sleep(10);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(e);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package it.lockless.psidemoserver.service;
+
+import com.google.common.hash.BloomFilter;
+import it.lockless.psidemoserver.entity.SerializedBloomFilter;
+import it.lockless.psidemoserver.model.BloomFilterShardDTO;
+import it.lockless.psidemoserver.model.ShardedBloomFilterDTO;
+import it.lockless.psidemoserver.repository.SerializedBloomFilterRepository;
+import it.lockless.psidemoserver.service.cache.BloomFilterVersion;
+import it.lockless.psidemoserver.service.cache.ShardedBloomFilterVersion;
+import it.lockless.psidemoserver.util.BloomFilterHelper;
+import it.lockless.psidemoserver.util.ShardedBloomFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"bloomfilter.build.parallelism=4", "bloomfilter.build.partitions=16", "bloomfilter.shards=16",
+		"bloomfilter.rebuild.debounce.mseconds=600000"})
+@SuppressWarnings("UnstableApiUsage")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+class BloomFilterServiceTest {
+
+	@Autowired
+	private DatasetService datasetService;
+
+	@Autowired
+	private BloomFilterService bloomFilterService;
+
+	@Autowired
+	private SerializedBloomFilterRepository serializedBloomFilterRepository;
+
+	@Test
+	void parallelComputationTest() {
+		Map<String, Integer> map = new HashMap<>();
+		map.put("ONE", 3000);
+		map.put("TWO", 2000);
+		datasetService.initServerDataset(map);
+
+		// Removed elements leave gaps in the id range of the partitions
+		List<String> removedValues = new ArrayList<>();
+		for (int i = 0; i < 1000; i += 3)
+			removedValues.add("ONE-" + i);
+		datasetService.removeElements(removedValues);
+
+		BloomFilter<CharSequence> sequentialBloomFilter = bloomFilterService.computeBloomFilter().getBloomFilter();
+		BloomFilter<CharSequence> parallelBloomFilter = bloomFilterService.computeBloomFilterInParallel().getBloomFilter();
+
+		assertArrayEquals(BloomFilterHelper.convertBloomFilterToByteArray(sequentialBloomFilter),
+				BloomFilterHelper.convertBloomFilterToByteArray(parallelBloomFilter));
+		assertTrue(parallelBloomFilter.mightContain("ONE-1"));
+		assertTrue(parallelBloomFilter.mightContain("TWO-1999"));
+	}
+
+	@Test
+	void parallelComputationOfEmptyDatasetTest() {
+		datasetService.initServerDataset(new HashMap<>());
+
+		assertArrayEquals(BloomFilterHelper.convertBloomFilterToByteArray(bloomFilterService.computeBloomFilter().getBloomFilter()),
+				BloomFilterHelper.convertBloomFilterToByteArray(bloomFilterService.computeBloomFilterInParallel().getBloomFilter()));
+	}
+
+	@Test
+	void parallelismExceedingPoolSizeTest() {
+		// Each partition computed in parallel needs its own database connection
+		assertThrows(IllegalArgumentException.class, () -> new BloomFilterService(null, null, null,
+				11, 0, 1, "guava", 0.01, 10));
+	}
+
+	@Test
+	void unreachableFppTest() {
+		// The 8 bits fingerprints of the xor and binary fuse filters cannot meet a probability lower than 1/256
+		assertThrows(IllegalArgumentException.class, () -> new BloomFilterService(null, null, null,
+				1, 0, 1, "xor", 0.001, 10));
+		assertThrows(IllegalArgumentException.class, () -> new BloomFilterService(null, null, null,
+				1, 0, 1, "binary_fuse", 0.001, 10));
+		assertDoesNotThrow(() -> new BloomFilterService(null, null, null, 1, 0, 1, "guava", 0.001, 10));
+	}
+
+	@Test
+	void currentVersionTest() {
+		assertFalse(bloomFilterService.getCurrentBloomFilterVersion().isPresent());
+
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+		BloomFilterVersion firstVersion = bloomFilterService.getCurrentBloomFilterVersion().get();
+		SerializedBloomFilter storedBloomFilter = bloomFilterService.getLastSerializedBloomFilter().get();
+		assertEquals(storedBloomFilter.getVersion(), firstVersion.getVersion());
+		assertArrayEquals(storedBloomFilter.getSerializedValue(), firstVersion.getSerializedValue());
+		assertSame(firstVersion, bloomFilterService.getCurrentBloomFilterVersion().get());
+
+		// A Bloom Filter updated in place is published as a new version without being stored
+		datasetService.addElements(Collections.singletonList("NEW-0"));
+		BloomFilterVersion secondVersion = bloomFilterService.getCurrentBloomFilterVersion().get();
+		assertTrue(secondVersion.getVersion() > firstVersion.getVersion());
+		assertTrue(BloomFilterHelper.getBloomFilterFromByteArray(secondVersion.getSerializedValue()).mightContain("NEW-0"));
+		assertArrayEquals(secondVersion.getSerializedValue(), secondVersion.getBloomFilterDTO().getSerializedBloomFilter());
+		assertEquals(storedBloomFilter.getId(), bloomFilterService.getLastSerializedBloomFilter().get().getId());
+
+		// Once stored, it keeps its version and replaces the stored one
+		bloomFilterService.storeLiveFilter();
+		assertSame(secondVersion, bloomFilterService.getCurrentBloomFilterVersion().get());
+		SerializedBloomFilter secondStoredBloomFilter = bloomFilterService.getLastSerializedBloomFilter().get();
+		assertEquals(secondVersion.getVersion(), secondStoredBloomFilter.getVersion());
+		assertArrayEquals(secondVersion.getSerializedValue(), secondStoredBloomFilter.getSerializedValue());
+		assertEquals(1, serializedBloomFilterRepository.count());
+	}
+
+	@Test
+	void shardedBloomFilterTest() {
+		Map<String, Integer> map = new HashMap<>();
+		map.put("ONE", 2000);
+		datasetService.initServerDataset(map);
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+
+		// The sharded Bloom Filter computed in parallel is the same computed sequentially
+		ShardedBloomFilter sequentialShardedBloomFilter = bloomFilterService.computeBloomFilter().getShardedBloomFilter();
+		ShardedBloomFilter parallelShardedBloomFilter = bloomFilterService.computeBloomFilterInParallel().getShardedBloomFilter();
+		assertEquals(16, parallelShardedBloomFilter.getShardCount());
+		for (int i = 0; i < 16; i++)
+			assertArrayEquals(BloomFilterHelper.convertBloomFilterToByteArray(sequentialShardedBloomFilter.getShard(i)),
+					BloomFilterHelper.convertBloomFilterToByteArray(parallelShardedBloomFilter.getShard(i)));
+		assertTrue(parallelShardedBloomFilter.mightContain("ONE-0"));
+
+		ShardedBloomFilterVersion firstVersion = bloomFilterService.getCurrentShardedBloomFilterVersion().get();
+		assertEquals(16, firstVersion.toDTO(0).getShards().size());
+		assertTrue(firstVersion.toDTO(firstVersion.getVersion()).getShards().isEmpty());
+
+		// Computing the Bloom Filter of the same dataset does not change any shard
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+		assertEquals(firstVersion.getVersion(), bloomFilterService.getCurrentShardedBloomFilterVersion().get().getVersion());
+
+		// Only the shard containing the added element changes
+		datasetService.addElements(Collections.singletonList("NEW-0"));
+		ShardedBloomFilterVersion secondVersion = bloomFilterService.getCurrentShardedBloomFilterVersion().get();
+		assertTrue(secondVersion.getVersion() > firstVersion.getVersion());
+		ShardedBloomFilterDTO changedShards = secondVersion.toDTO(firstVersion.getVersion());
+		assertEquals(1, changedShards.getShards().size());
+		BloomFilterShardDTO changedShard = changedShards.getShards().get(0);
+		int shardIndex = ShardedBloomFilter.getShardIndex("NEW-0", changedShards.getShardBits());
+		assertEquals(shardIndex, changedShard.getIndex());
+		assertTrue(BloomFilterHelper.getBloomFilterFromByteArray(changedShard.getSerializedBloomFilter()).mightContain("NEW-0"));
+
+		// A full computation including the added element does not change the other shards
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+		ShardedBloomFilterVersion thirdVersion = bloomFilterService.getCurrentShardedBloomFilterVersion().get();
+		for (int i = 0; i < 16; i++)
+			if (i != shardIndex)
+				assertEquals(firstVersion.getShardVersion(i), thirdVersion.getShardVersion(i));
+	}
+}
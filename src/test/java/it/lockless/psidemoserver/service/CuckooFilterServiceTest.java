@@ -0,0 +1,54 @@
+package it.lockless.psidemoserver.service;
+
+import it.lockless.psidemoserver.service.cache.BloomFilterVersion;
+import it.lockless.psidemoserver.util.filter.CuckooFilter;
+import it.lockless.psidemoserver.util.filter.FilterType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"bloomfilter.type=cuckoo", "bloomfilter.build.parallelism=4", "bloomfilter.build.partitions=16",
+		"bloomfilter.rebuild.debounce.mseconds=600000"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+class CuckooFilterServiceTest {
+
+	@Autowired
+	private DatasetService datasetService;
+
+	@Autowired
+	private BloomFilterService bloomFilterService;
+
+	@Test
+	void addAndRemoveElementsTest() {
+		Map<String, Integer> map = new HashMap<>();
+		map.put("ONE", 2000);
+		datasetService.initServerDataset(map);
+		bloomFilterService.computeAndSaveSerializedBloomFilter();
+
+		BloomFilterVersion firstVersion = bloomFilterService.getCurrentBloomFilterVersion().get();
+		assertEquals(FilterType.CUCKOO, firstVersion.getFilterType());
+		assertEquals("cuckoo", firstVersion.getBloomFilterDescriptionDTO().getType());
+		CuckooFilter cuckooFilter = CuckooFilter.fromByteArray(firstVersion.getSerializedValue());
+		assertEquals(2000, cuckooFilter.getCount());
+		assertTrue(cuckooFilter.mightContain("ONE-1999"));
+
+		// Added and removed elements are reflected in place by a new version
+		datasetService.addElements(Collections.singletonList("NEW-0"));
+		datasetService.removeElements(Arrays.asList("ONE-0", "ONE-1"));
+		BloomFilterVersion secondVersion = bloomFilterService.getCurrentBloomFilterVersion().get();
+		assertTrue(secondVersion.getVersion() > firstVersion.getVersion());
+		cuckooFilter = CuckooFilter.fromByteArray(secondVersion.getSerializedValue());
+		assertEquals(1999, cuckooFilter.getCount());
+		assertTrue(cuckooFilter.mightContain("NEW-0"));
+		assertFalse(cuckooFilter.mightContain("ONE-0"));
+		assertTrue(cuckooFilter.mightContain("ONE-2"));
+	}
+}
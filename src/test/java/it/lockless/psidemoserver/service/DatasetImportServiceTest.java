@@ -0,0 +1,124 @@
+package it.lockless.psidemoserver.service;
+
+import it.lockless.psidemoserver.entity.PsiElement;
+import it.lockless.psidemoserver.model.DatasetImportResultDTO;
+import it.lockless.psidemoserver.repository.PsiElementRepository;
+import it.lockless.psidemoserver.util.exception.InvalidDatasetException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+class DatasetImportServiceTest {
+
+	@Autowired
+	private PsiElementRepository psiElementRepository;
+
+	@Autowired
+	private DatasetImportService datasetImportService;
+
+	private static InputStream toInputStream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void importCsvTest() throws IOException, InvalidDatasetException {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 2500; i++)
+			csv.append("ELEMENT-").append(i).append(",other column\n");
+		csv.append("\"QUOTED, \"\"ELEMENT\"\"\",other column\n");
+
+		DatasetImportResultDTO result = datasetImportService.importServerDataset(toInputStream(csv.toString()), DatasetImportService.Format.CSV, true, false);
+
+		assertEquals(2501, result.getImportedEntries());
+		assertEquals(2501, psiElementRepository.count());
+		Set<String> values = new HashSet<>();
+		psiElementRepository.findAll().forEach(psiElement -> values.add(psiElement.getValue()));
+		assertTrue(values.contains("ELEMENT-2499"));
+		assertTrue(values.contains("QUOTED, \"ELEMENT\""));
+	}
+
+	@Test
+	void importNdjsonTest() throws IOException, InvalidDatasetException {
+		PsiElement psiElement = new PsiElement();
+		psiElement.setValue("EXISTING");
+		psiElementRepository.save(psiElement);
+
+		String ndjson = "\"ELEMENT-1\"\n{\"value\":\"ELEMENT-2\"}\n\n\"ELEMENT-3\"\n";
+		DatasetImportResultDTO result = datasetImportService.importServerDataset(toInputStream(ndjson), DatasetImportService.Format.NDJSON, false, false);
+
+		assertEquals(3, result.getImportedEntries());
+		assertEquals(4, psiElementRepository.count());
+	}
+
+	@Test
+	void importInvalidNdjsonTest() {
+		assertThrows(InvalidDatasetException.class, () ->
+				datasetImportService.importServerDataset(toInputStream("{\"other\":1}\n"), DatasetImportService.Format.NDJSON, true, false));
+	}
+
+	@Test
+	void importCsvHeaderTest() throws IOException, InvalidDatasetException {
+		String csv = "value,other\nELEMENT-1,other column\nELEMENT-2,other column\n";
+		DatasetImportResultDTO result = datasetImportService.importServerDataset(toInputStream(csv), DatasetImportService.Format.CSV, true, true);
+
+		assertEquals(2, result.getImportedEntries());
+		Set<String> values = new HashSet<>();
+		psiElementRepository.findAll().forEach(psiElement -> values.add(psiElement.getValue()));
+		assertFalse(values.contains("value"));
+		assertTrue(values.contains("ELEMENT-1"));
+	}
+
+	@Test
+	void failedImportTest() {
+		PsiElement psiElement = new PsiElement();
+		psiElement.setValue("EXISTING");
+		psiElementRepository.save(psiElement);
+
+		// The deletion and the batches already inserted are rolled back
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 2500; i++)
+			csv.append("ELEMENT-").append(i).append('\n');
+		csv.append("\"UNTERMINATED\n");
+		assertThrows(InvalidDatasetException.class, () ->
+				datasetImportService.importServerDataset(toInputStream(csv.toString()), DatasetImportService.Format.CSV, true, false));
+
+		assertEquals(1, psiElementRepository.count());
+		assertEquals("EXISTING", psiElementRepository.findAll().iterator().next().getValue());
+	}
+
+	@Test
+	void importIdsTest() throws IOException, InvalidDatasetException {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			csv.append("ELEMENT-").append(i).append('\n');
+		datasetImportService.importServerDataset(toInputStream(csv.toString()), DatasetImportService.Format.CSV, true, false);
+		PsiElement psiElement = new PsiElement();
+		psiElement.setValue("SAVED");
+		psiElementRepository.save(psiElement);
+		datasetImportService.importServerDataset(toInputStream(csv.toString()), DatasetImportService.Format.CSV, false, false);
+
+		// Ids are allocated in blocks, as done by Hibernate, without skipping ids nor colliding with its ones
+		List<Long> ids = StreamSupport.stream(psiElementRepository.findAll().spliterator(), false)
+				.map(PsiElement::getId)
+				.sorted()
+				.collect(Collectors.toList());
+		assertEquals(2001, ids.size());
+		assertEquals(2001, new HashSet<>(ids).size());
+		assertTrue(ids.get(ids.size() - 1) - ids.get(0) < 2001 + 3 * PsiElement.ID_ALLOCATION_SIZE);
+	}
+}
@@ -1,18 +1,23 @@
 package it.lockless.psidemoserver.service;
 
+import com.google.common.hash.BloomFilter;
 import it.lockless.psidemoserver.repository.PsiElementRepository;
+import it.lockless.psidemoserver.repository.SerializedBloomFilterRepository;
+import it.lockless.psidemoserver.util.BloomFilterHelper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.annotation.DirtiesContext;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "bloomfilter.rebuild.debounce.mseconds=50")
 @DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
 class DatasetServiceTest {
 
@@ -22,6 +27,15 @@ class DatasetServiceTest {
 	@Autowired
 	private DatasetService datasetService;
 
+	@Autowired
+	private BloomFilterService bloomFilterService;
+
+	@Autowired
+	private SerializedBloomFilterRepository serializedBloomFilterRepository;
+
+	@Autowired
+	private BloomFilterRebuildCoordinator bloomFilterRebuildCoordinator;
+
 	@BeforeEach
 	void setup() {
 
@@ -39,4 +53,93 @@ class DatasetServiceTest {
 		assertEquals(60, psiElementRepository.count());
 	}
 
+	@Test
+	void addAndRemoveElementsTest() {
+		Map<String, Integer> map = new HashMap<>();
+		map.put("ONE", 1000);
+		datasetService.initServerDataset(map);
+		awaitBloomFilter();
+		long bloomFilterCount = serializedBloomFilterRepository.count();
+
+		// Added elements are inserted in place in the Bloom Filter, which replaces the stored one in the background
+		long version = bloomFilterService.getCurrentBloomFilterVersion().get().getVersion();
+		datasetService.addElements(Arrays.asList("NEW-0", "NEW-1"));
+		assertEquals(1002, psiElementRepository.count());
+		long addedVersion = bloomFilterService.getCurrentBloomFilterVersion().get().getVersion();
+		assertTrue(addedVersion > version);
+		awaitStored(addedVersion, bloomFilterCount);
+		BloomFilter<CharSequence> bloomFilter = BloomFilterHelper.getBloomFilterFromByteArray(
+				bloomFilterService.getLastSerializedBloomFilter().get().getSerializedValue());
+		assertTrue(bloomFilter.mightContain("NEW-0"));
+		assertTrue(bloomFilter.mightContain("NEW-1"));
+
+		// A few removals do not degrade the Bloom Filter enough to compute it again
+		assertEquals(1, datasetService.removeElements(Collections.singletonList("ONE-0")));
+		assertEquals(0, datasetService.removeElements(Collections.singletonList("MISSING")));
+		assertEquals(1001, psiElementRepository.count());
+		awaitStored(bloomFilterService.getCurrentBloomFilterVersion().get().getVersion(), bloomFilterCount);
+		assertFalse(bloomFilterRebuildCoordinator.isStale());
+		assertTrue(bloomFilterService.estimateFpp() < 0.02);
+
+		// Removing more elements than the threshold allows triggers a new computation
+		datasetService.removeElements(Arrays.asList("ONE-1", "ONE-2", "ONE-3", "ONE-4", "ONE-5",
+				"ONE-6", "ONE-7", "ONE-8", "ONE-9", "ONE-10", "ONE-11", "ONE-12"));
+		assertEquals(989, psiElementRepository.count());
+		awaitBloomFilter();
+		assertEquals(bloomFilterCount + 1, serializedBloomFilterRepository.count());
+		bloomFilter = BloomFilterHelper.getBloomFilterFromByteArray(
+				bloomFilterService.getLastSerializedBloomFilter().get().getSerializedValue());
+		assertTrue(bloomFilter.mightContain("NEW-0"));
+		assertTrue(bloomFilterService.estimateFpp() < 0.02);
+	}
+
+	@Test
+	void repeatedAddElementsTest() {
+		Map<String, Integer> map = new HashMap<>();
+		map.put("ONE", 1000);
+		datasetService.initServerDataset(map);
+		awaitBloomFilter();
+		long bloomFilterCount = serializedBloomFilterRepository.count();
+
+		// Updates in place are stored in the background, replacing the previous one
+		for (int i = 0; i < 20; i++) {
+			datasetService.addElements(Collections.singletonList("NEW-" + i));
+			bloomFilterService.getCurrentBloomFilterVersion();
+		}
+		awaitStored(bloomFilterService.getCurrentBloomFilterVersion().get().getVersion(), bloomFilterCount);
+		BloomFilter<CharSequence> bloomFilter = BloomFilterHelper.getBloomFilterFromByteArray(
+				bloomFilterService.getLastSerializedBloomFilter().get().getSerializedValue());
+		for (int i = 0; i < 20; i++)
+			assertTrue(bloomFilter.mightContain("NEW-" + i));
+	}
+
+	/**
+	 * Waits until the Bloom Filter of the input version is the last stored one, and the input number of them are stored.
+	 */
+	private void awaitStored(long version, long count) {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (bloomFilterService.getLastSerializedBloomFilter().get().getPublishedVersion() != version
+				|| serializedBloomFilterRepository.count() != count) {
+			assertTrue(System.currentTimeMillis() < deadline, "The Bloom Filter has not been stored");
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail(e);
+			}
+		}
+	}
+
+	private void awaitBloomFilter() {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (bloomFilterRebuildCoordinator.isStale()) {
+			assertTrue(System.currentTimeMillis() < deadline, "The Bloom Filter has not been computed");
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail(e);
+			}
+		}
+	}
 }
@@ -0,0 +1,81 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.junit.jupiter.api.Test;
+import psi.cache.PsiCacheProvider;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionPsiCacheProviderTest {
+
+	@Test
+	void frequencySketchTest() {
+		FrequencySketch frequencySketch = new FrequencySketch(1024);
+		for (int i = 0; i < 5; i++)
+			frequencySketch.increment("hot");
+		frequencySketch.incrementAll(Arrays.asList("warm", "warm", "cold"));
+		assertEquals(5, frequencySketch.estimate("hot"));
+		assertEquals(2, frequencySketch.estimate("warm"));
+		assertEquals(1, frequencySketch.estimate("cold"));
+		assertEquals(0, frequencySketch.estimate("missing"));
+
+		// Aging halves the frequencies, hence keys no longer accessed are forgotten
+		frequencySketch.age();
+		assertEquals(2, frequencySketch.estimate("hot"));
+		assertEquals(1, frequencySketch.estimate("warm"));
+		assertEquals(0, frequencySketch.estimate("cold"));
+
+		// Counters saturate, and are aged once 10 increments per counter of a row have been recorded
+		for (int i = 0; i < 100; i++)
+			frequencySketch.increment("hot");
+		assertEquals(FrequencySketch.MAX_COUNT, frequencySketch.estimate("hot"));
+		for (int i = 0; i < 10 * 1024; i++)
+			frequencySketch.increment("other" + i);
+		assertTrue(frequencySketch.estimate("hot") < FrequencySketch.MAX_COUNT);
+	}
+
+	@Test
+	void admissionTest() {
+		Map<String, String> map = new ConcurrentHashMap<>();
+		PsiCacheProvider remoteCacheProvider = new PsiCacheProvider() {
+			@Override
+			public Optional<String> get(String key) {
+				return Optional.ofNullable(map.get(key));
+			}
+
+			@Override
+			public void put(String key, String value) {
+				map.putIfAbsent(key, value);
+			}
+		};
+		AdmissionPsiCacheProvider psiCacheProvider = new AdmissionPsiCacheProvider(remoteCacheProvider, 2, 1024);
+
+		// A value looked up once, as the one-off elements of a client set, is not written
+		assertEquals(Optional.empty(), psiCacheProvider.get("oneOff"));
+		psiCacheProvider.put("oneOff", "value");
+		assertFalse(map.containsKey("oneOff"));
+
+		// A value looked up again, as the server dataset by the following sessions, is written
+		for (int session = 0; session < 2; session++)
+			if (!psiCacheProvider.get("shared").isPresent())
+				psiCacheProvider.put("shared", "value");
+		assertEquals("value", map.get("shared"));
+		assertEquals(Optional.of("value"), psiCacheProvider.get("shared"));
+		assertEquals(1, psiCacheProvider.getAdmittedCount());
+		assertEquals(2, psiCacheProvider.getRejectedCount());
+
+		// Bulk operations follow the same policy
+		List<String> keys = Arrays.asList("a", "b", "c");
+		psiCacheProvider.getAll(keys);
+		psiCacheProvider.getAll(Collections.singletonList("a"));
+		Map<String, String> entries = new HashMap<>();
+		keys.forEach(key -> entries.put(key, "value"));
+		assertEquals(1, psiCacheProvider.putAll(entries));
+		assertTrue(map.containsKey("a"));
+		assertFalse(map.containsKey("b"));
+		assertEquals(2, psiCacheProvider.getAdmittedCount());
+		assertEquals(4, psiCacheProvider.getRejectedCount());
+	}
+}
@@ -0,0 +1,69 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import psi.cache.PsiCacheProvider;
+
+import java.security.SecureRandom;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the time required to retrieve and store a chunk of keys one at a time and in bulk.
+ * Like the other cache tests, it only runs if the cache is reachable, without the admission policy and write-behind.
+ */
+
+@SpringBootTest(properties = {"cache.admission.min.frequency=0", "redis.write.behind.capacity=0"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+class BulkPsiCacheProviderBenchmarkTest {
+
+	private static final Logger log = LoggerFactory.getLogger(BulkPsiCacheProviderBenchmarkTest.class);
+
+	private static final int KEYS = 20000;
+
+	@Autowired(required = false)
+	private PsiCacheProvider psiCacheProvider;
+
+	@Test
+	void perKeyAndBulkBenchmark() {
+		if (!(psiCacheProvider instanceof BulkPsiCacheProvider) || !((BulkPsiCacheProvider) psiCacheProvider).isAvailable())
+			return;
+		BulkPsiCacheProvider bulkPsiCacheProvider = (BulkPsiCacheProvider) psiCacheProvider;
+		Map<String, String> perKeyEntries = buildEntries();
+		Map<String, String> bulkEntries = buildEntries();
+
+		long start = System.nanoTime();
+		perKeyEntries.forEach(psiCacheProvider::put);
+		long perKeyPutNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		Map<String, String> perKeyValues = new HashMap<>();
+		for (String key : perKeyEntries.keySet())
+			psiCacheProvider.get(key).ifPresent(value -> perKeyValues.put(key, value));
+		long perKeyGetNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		assertEquals(KEYS, bulkPsiCacheProvider.putAll(bulkEntries));
+		long bulkPutNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		Map<String, String> bulkValues = bulkPsiCacheProvider.getAll(bulkEntries.keySet());
+		long bulkGetNanos = System.nanoTime() - start;
+
+		assertEquals(perKeyEntries, perKeyValues);
+		assertEquals(bulkEntries, bulkValues);
+		log.info("{} keys, per key: put {} ms, get {} ms; bulk: putAll {} ms, getAll {} ms", KEYS,
+				perKeyPutNanos / 1_000_000, perKeyGetNanos / 1_000_000, bulkPutNanos / 1_000_000, bulkGetNanos / 1_000_000);
+	}
+
+	private static Map<String, String> buildEntries() {
+		String prefix = "benchmark" + (new SecureRandom()).nextLong() + ":";
+		Map<String, String> entries = new HashMap<>(KEYS * 2);
+		for (int i = 0; i < KEYS; i++)
+			entries.put(prefix + i, "value" + i);
+		return entries;
+	}
+}
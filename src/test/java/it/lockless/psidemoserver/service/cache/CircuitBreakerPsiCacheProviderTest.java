@@ -0,0 +1,96 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerPsiCacheProviderTest {
+
+	private FakeRedisServer fakeRedisServer;
+
+	private RedisPsiCacheProvider redisPsiCacheProvider;
+
+	@BeforeEach
+	void setup() throws IOException {
+		fakeRedisServer = new FakeRedisServer();
+		redisPsiCacheProvider = new RedisPsiCacheProvider("localhost", fakeRedisServer.getPort(), 200, 100, 3600, new PsiCacheCodec(256));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		redisPsiCacheProvider.close();
+		fakeRedisServer.close();
+	}
+
+	@Test
+	void failoverTest() throws IOException, InterruptedException {
+		try (CircuitBreakerPsiCacheProvider psiCacheProvider = new CircuitBreakerPsiCacheProvider(redisPsiCacheProvider, redisPsiCacheProvider::ping, 2, 100)) {
+			assertTrue(psiCacheProvider.isAvailable());
+			psiCacheProvider.put("key", "value");
+			assertEquals(Optional.of("value"), psiCacheProvider.get("key"));
+
+			// While redis hangs, operations time out and behave as misses, until the circuit opens
+			fakeRedisServer.pause();
+			assertEquals(Optional.empty(), psiCacheProvider.get("key"));
+			assertTrue(psiCacheProvider.isAvailable());
+			assertEquals(0, psiCacheProvider.putAll(Collections.singletonMap("other", "value")));
+			assertFalse(psiCacheProvider.isAvailable());
+
+			// Once open, operations do not reach redis
+			long start = System.nanoTime();
+			for (int i = 0; i < 1000; i++)
+				assertEquals(Optional.empty(), psiCacheProvider.get("key"));
+			assertEquals(0, psiCacheProvider.getAll(Collections.singletonList("key")).size());
+			assertTrue(System.nanoTime() - start < 200_000_000L);
+
+			// Caching is enabled again as soon as redis answers the health check
+			fakeRedisServer.resume();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!psiCacheProvider.isAvailable() && System.currentTimeMillis() < deadline)
+				Thread.sleep(20);
+			assertTrue(psiCacheProvider.isAvailable());
+			assertEquals(Optional.of("value"), psiCacheProvider.get("key"));
+		}
+	}
+
+	@Test
+	void unreachableAtStartupTest() throws IOException, InterruptedException {
+		fakeRedisServer.pause();
+		try (CircuitBreakerPsiCacheProvider psiCacheProvider = new CircuitBreakerPsiCacheProvider(redisPsiCacheProvider, redisPsiCacheProvider::ping, 3, 100)) {
+			assertFalse(psiCacheProvider.isAvailable());
+			psiCacheProvider.put("key", "value");
+			assertEquals(0, fakeRedisServer.size());
+
+			fakeRedisServer.resume();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!psiCacheProvider.isAvailable() && System.currentTimeMillis() < deadline)
+				Thread.sleep(20);
+			psiCacheProvider.put("key", "value");
+			assertEquals(Optional.of("value"), psiCacheProvider.get("key"));
+		}
+	}
+
+	@Test
+	void redisProviderTest() {
+		// Duplicate writes, bulk operations and invalidation through the redis protocol
+		ScopedPsiCacheProvider keyCache = new ScopedPsiCacheProvider(redisPsiCacheProvider, 1);
+		ScopedPsiCacheProvider otherKeyCache = new ScopedPsiCacheProvider(redisPsiCacheProvider, 2);
+		Map<String, String> entries = new HashMap<>();
+		for (int i = 0; i < 250; i++)
+			entries.put("value" + i, "encryption" + i);
+		keyCache.put("value0", "encryption0");
+		keyCache.put("value0", "other");
+		assertEquals(249, keyCache.putAll(entries));
+		assertEquals(250, otherKeyCache.putAll(entries));
+		assertEquals(entries, keyCache.getAll(entries.keySet()));
+
+		assertEquals(250, redisPsiCacheProvider.invalidateKey(1));
+		assertEquals(Optional.empty(), keyCache.get("value0"));
+		assertEquals(entries, otherKeyCache.getAll(entries.keySet()));
+	}
+}
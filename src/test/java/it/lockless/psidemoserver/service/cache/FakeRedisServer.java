@@ -0,0 +1,254 @@
+package it.lockless.psidemoserver.service.cache;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal in-process server speaking the Redis protocol, supporting the commands used by RedisPsiCacheProvider
+ * (PING, QUIT, GET, SET with NX/EX/PX, MGET, SCAN with a MATCH pattern ending with *, UNLINK and DEL).
+ * While paused, connections are accepted but commands are not answered, as it happens when redis hangs or the
+ * network is partitioned. Commands received while paused are answered once resumed.
+ */
+
+class FakeRedisServer implements Closeable {
+
+	private final ServerSocket serverSocket;
+
+	private final Map<ByteBuffer, byte[]> values = new ConcurrentHashMap<>();
+
+	private final Map<ByteBuffer, Long> expirations = new ConcurrentHashMap<>();
+
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+	private final Object pauseLock = new Object();
+
+	private boolean paused;
+
+	FakeRedisServer() throws IOException {
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptThread = new Thread(this::acceptConnections, "fake-redis-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	int size() {
+		return values.size();
+	}
+
+	void pause() {
+		synchronized (pauseLock) {
+			paused = true;
+		}
+	}
+
+	void resume() {
+		synchronized (pauseLock) {
+			paused = false;
+			pauseLock.notifyAll();
+		}
+	}
+
+	private void awaitResumed() throws InterruptedException {
+		synchronized (pauseLock) {
+			while (paused)
+				pauseLock.wait();
+		}
+	}
+
+	private void acceptConnections() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				sockets.add(socket);
+				Thread connectionThread = new Thread(() -> serve(socket), "fake-redis-connection");
+				connectionThread.setDaemon(true);
+				connectionThread.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket ignored = socket;
+			 InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+			 OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream())) {
+			while (true) {
+				List<byte[]> command = readCommand(inputStream);
+				if (command == null)
+					return;
+				awaitResumed();
+				execute(command, outputStream);
+				if (inputStream.available() == 0)
+					outputStream.flush();
+			}
+		} catch (IOException | InterruptedException e) {
+			// The connection has been closed
+		} finally {
+			sockets.remove(socket);
+		}
+	}
+
+	private static List<byte[]> readCommand(InputStream inputStream) throws IOException {
+		String header = readLine(inputStream);
+		if (header == null)
+			return null;
+		int count = Integer.parseInt(header.substring(1));
+		List<byte[]> command = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int length = Integer.parseInt(readLine(inputStream).substring(1));
+			byte[] argument = new byte[length];
+			int read = 0;
+			while (read < length) {
+				int n = inputStream.read(argument, read, length - read);
+				if (n < 0)
+					throw new EOFException();
+				read += n;
+			}
+			readLine(inputStream);
+			command.add(argument);
+		}
+		return command;
+	}
+
+	private static String readLine(InputStream inputStream) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = inputStream.read()) != '\r') {
+			if (c < 0)
+				return null;
+			line.append((char) c);
+		}
+		inputStream.read();
+		return line.toString();
+	}
+
+	private byte[] getValue(ByteBuffer key) {
+		Long expiration = expirations.get(key);
+		if (expiration != null && expiration <= System.currentTimeMillis()) {
+			values.remove(key);
+			expirations.remove(key);
+		}
+		return values.get(key);
+	}
+
+	private void execute(List<byte[]> command, OutputStream outputStream) throws IOException {
+		String name = new String(command.get(0), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+		switch (name) {
+			case "PING":
+				writeSimple(outputStream, "+PONG");
+				break;
+			case "QUIT":
+				writeSimple(outputStream, "+OK");
+				break;
+			case "GET":
+				writeBulk(outputStream, getValue(ByteBuffer.wrap(command.get(1))));
+				break;
+			case "MGET":
+				writeSimple(outputStream, "*" + (command.size() - 1));
+				for (int i = 1; i < command.size(); i++)
+					writeBulk(outputStream, getValue(ByteBuffer.wrap(command.get(i))));
+				break;
+			case "SET":
+				set(command, outputStream);
+				break;
+			case "SCAN":
+				scan(command, outputStream);
+				break;
+			case "UNLINK":
+			case "DEL":
+				int removed = 0;
+				for (int i = 1; i < command.size(); i++) {
+					ByteBuffer key = ByteBuffer.wrap(command.get(i));
+					if (getValue(key) != null && values.remove(key) != null)
+						removed++;
+					expirations.remove(key);
+				}
+				writeSimple(outputStream, ":" + removed);
+				break;
+			default:
+				writeSimple(outputStream, "-ERR unknown command '" + name + "'");
+		}
+	}
+
+	private synchronized void set(List<byte[]> command, OutputStream outputStream) throws IOException {
+		ByteBuffer key = ByteBuffer.wrap(command.get(1));
+		boolean ifAbsent = false;
+		Long expiration = null;
+		for (int i = 3; i < command.size(); i++) {
+			String option = new String(command.get(i), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+			if (option.equals("NX"))
+				ifAbsent = true;
+			else if (option.equals("EX"))
+				expiration = System.currentTimeMillis() + 1000 * Long.parseLong(new String(command.get(++i), StandardCharsets.UTF_8));
+			else if (option.equals("PX"))
+				expiration = System.currentTimeMillis() + Long.parseLong(new String(command.get(++i), StandardCharsets.UTF_8));
+		}
+		if (ifAbsent && getValue(key) != null) {
+			writeBulk(outputStream, null);
+			return;
+		}
+		values.put(key, command.get(2));
+		if (expiration != null)
+			expirations.put(key, expiration);
+		else
+			expirations.remove(key);
+		writeSimple(outputStream, "+OK");
+	}
+
+	/**
+	 * Returns all the matching keys at once, as a complete iteration.
+	 */
+	private void scan(List<byte[]> command, OutputStream outputStream) throws IOException {
+		byte[] prefix = new byte[0];
+		for (int i = 2; i < command.size(); i++)
+			if (new String(command.get(i), StandardCharsets.UTF_8).equalsIgnoreCase("MATCH")) {
+				byte[] pattern = command.get(++i);
+				prefix = Arrays.copyOf(pattern, pattern.length - 1);
+			}
+		List<byte[]> keys = new ArrayList<>();
+		for (ByteBuffer key : values.keySet()) {
+			byte[] keyBytes = key.array();
+			if (keyBytes.length >= prefix.length && Arrays.equals(Arrays.copyOf(keyBytes, prefix.length), prefix) && getValue(key) != null)
+				keys.add(keyBytes);
+		}
+		writeSimple(outputStream, "*2");
+		writeBulk(outputStream, "0".getBytes(StandardCharsets.UTF_8));
+		writeSimple(outputStream, "*" + keys.size());
+		for (byte[] key : keys)
+			writeBulk(outputStream, key);
+	}
+
+	private static void writeSimple(OutputStream outputStream, String line) throws IOException {
+		outputStream.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void writeBulk(OutputStream outputStream, byte[] value) throws IOException {
+		if (value == null) {
+			writeSimple(outputStream, "$-1");
+			return;
+		}
+		writeSimple(outputStream, "$" + value.length);
+		outputStream.write(value);
+		outputStream.write('\r');
+		outputStream.write('\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		resume();
+		serverSocket.close();
+		for (Socket socket : sockets)
+			socket.close();
+	}
+}
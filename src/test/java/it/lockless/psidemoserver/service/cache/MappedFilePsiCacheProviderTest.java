@@ -0,0 +1,104 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFilePsiCacheProviderTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void cacheTest() throws IOException {
+		try (MappedFilePsiCacheProvider psiCacheProvider = new MappedFilePsiCacheProvider(tempDir.resolve("cache.dat"), 1 << 20)) {
+			psiCacheProvider.put("key", "value");
+			assertEquals(Optional.of("value"), psiCacheProvider.get("key"));
+			assertEquals(Optional.empty(), psiCacheProvider.get("notAKey"));
+			// Duplicate writes are ignored
+			psiCacheProvider.put("key", "value2");
+			assertEquals(Optional.of("value"), psiCacheProvider.get("key"));
+
+			// Non-ASCII keys and values, as well as many colliding slots
+			psiCacheProvider.put("chiave-è", "valore-€");
+			Map<String, String> entries = new HashMap<>();
+			for (int i = 0; i < 5000; i++)
+				entries.put("key" + i, "value" + i);
+			assertEquals(5000, psiCacheProvider.putAll(entries));
+			assertEquals(0, psiCacheProvider.putAll(Collections.singletonMap("key1", "other")));
+			assertEquals(5002, psiCacheProvider.size());
+			assertEquals(Optional.of("valore-€"), psiCacheProvider.get("chiave-è"));
+			assertEquals(entries, psiCacheProvider.getAll(entries.keySet()));
+		}
+	}
+
+	@Test
+	void persistenceTest() throws IOException {
+		Path path = tempDir.resolve("cache.dat");
+		try (MappedFilePsiCacheProvider psiCacheProvider = new MappedFilePsiCacheProvider(path, 1 << 20)) {
+			for (int i = 0; i < 100; i++)
+				psiCacheProvider.put("key" + i, "value" + i);
+		}
+
+		// The entries survive the restart
+		try (MappedFilePsiCacheProvider psiCacheProvider = new MappedFilePsiCacheProvider(path, 1 << 20)) {
+			assertEquals(100, psiCacheProvider.size());
+			assertEquals(Optional.of("value99"), psiCacheProvider.get("key99"));
+			psiCacheProvider.put("key0", "other");
+			assertEquals(Optional.of("value0"), psiCacheProvider.get("key0"));
+		}
+
+		// A file of a different size is cleared
+		try (MappedFilePsiCacheProvider psiCacheProvider = new MappedFilePsiCacheProvider(path, 1 << 21)) {
+			assertEquals(0, psiCacheProvider.size());
+			assertEquals(Optional.empty(), psiCacheProvider.get("key0"));
+		}
+	}
+
+	@Test
+	void invalidateKeyTest() throws IOException {
+		Path path = tempDir.resolve("cache.dat");
+		try (MappedFilePsiCacheProvider psiCacheProvider = new MappedFilePsiCacheProvider(path, 1 << 20)) {
+			ScopedPsiCacheProvider firstKeyCache = new ScopedPsiCacheProvider(psiCacheProvider, 1);
+			ScopedPsiCacheProvider secondKeyCache = new ScopedPsiCacheProvider(psiCacheProvider, 12);
+			for (int i = 0; i < 100; i++) {
+				firstKeyCache.put("value" + i, "first" + i);
+				secondKeyCache.put("value" + i, "second" + i);
+			}
+
+			// Only the entries of the invalidated key are removed, and they can be written again
+			assertEquals(100, psiCacheProvider.invalidateKey(1));
+			assertEquals(0, psiCacheProvider.invalidateKey(1));
+			assertEquals(100, psiCacheProvider.size());
+			assertEquals(Optional.empty(), firstKeyCache.get("value0"));
+			assertEquals(Optional.of("second0"), secondKeyCache.get("value0"));
+			firstKeyCache.put("value0", "new");
+			assertEquals(Optional.of("new"), firstKeyCache.get("value0"));
+		}
+
+		// The removal survives the restart
+		try (MappedFilePsiCacheProvider psiCacheProvider = new MappedFilePsiCacheProvider(path, 1 << 20)) {
+			assertEquals(101, psiCacheProvider.size());
+			assertEquals(Optional.empty(), psiCacheProvider.get(ScopedPsiCacheProvider.getNamespace(1) + "value1"));
+		}
+	}
+
+	@Test
+	void fullCacheTest() throws IOException {
+		try (MappedFilePsiCacheProvider psiCacheProvider = new MappedFilePsiCacheProvider(tempDir.resolve("cache.dat"), 1 << 14)) {
+			// Once full, new entries are discarded without errors
+			for (int i = 0; i < 1000; i++)
+				psiCacheProvider.put("key" + i, "value" + i);
+			long size = psiCacheProvider.size();
+			assertTrue(size > 0 && size < 1000);
+			for (int i = 0; i < size; i++)
+				assertEquals(Optional.of("value" + i), psiCacheProvider.get("key" + i));
+			assertEquals(Optional.empty(), psiCacheProvider.get("key999"));
+		}
+	}
+}
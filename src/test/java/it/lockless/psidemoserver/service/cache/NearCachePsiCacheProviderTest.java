@@ -0,0 +1,189 @@
+package it.lockless.psidemoserver.service.cache;
+
+import it.lockless.psidemoserver.util.exception.CacheKeyAlreadyWrittenException;
+import org.junit.jupiter.api.Test;
+import psi.cache.PsiCacheProvider;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCachePsiCacheProviderTest {
+
+	@Test
+	void nearCacheTest() {
+		CountingCacheProvider remoteCacheProvider = new CountingCacheProvider();
+		NearCachePsiCacheProvider nearCachePsiCacheProvider = new NearCachePsiCacheProvider(remoteCacheProvider, 1 << 20);
+
+		// Writes go through to the underlying provider
+		nearCachePsiCacheProvider.put("key", "value");
+		assertEquals("value", remoteCacheProvider.map.get("key"));
+		assertThrows(CacheKeyAlreadyWrittenException.class, () -> nearCachePsiCacheProvider.put("key", "value"));
+
+		// Hot entries are served by the near cache
+		for (int i = 0; i < 10; i++)
+			assertEquals(Optional.of("value"), nearCachePsiCacheProvider.get("key"));
+		assertEquals(0, remoteCacheProvider.getCount.get());
+		assertEquals(10, nearCachePsiCacheProvider.getNearHitCount());
+
+		// Entries written by other instances are retrieved once from the underlying provider
+		remoteCacheProvider.map.put("other", "otherValue");
+		assertEquals(Optional.of("otherValue"), nearCachePsiCacheProvider.get("other"));
+		assertEquals(Optional.of("otherValue"), nearCachePsiCacheProvider.get("other"));
+		assertEquals(Optional.empty(), nearCachePsiCacheProvider.get("missing"));
+		assertEquals(2, remoteCacheProvider.getCount.get());
+		assertEquals(1, nearCachePsiCacheProvider.getRemoteHitCount());
+		assertEquals(1, nearCachePsiCacheProvider.getRemoteMissCount());
+		assertEquals(11.0 / 13, nearCachePsiCacheProvider.getNearHitRate(), 1e-9);
+		assertEquals(0.5, nearCachePsiCacheProvider.getRemoteHitRate(), 1e-9);
+	}
+
+	@Test
+	void bulkOperationsTest() {
+		CountingCacheProvider remoteCacheProvider = new CountingCacheProvider();
+		NearCachePsiCacheProvider nearCachePsiCacheProvider = new NearCachePsiCacheProvider(remoteCacheProvider, 1 << 20);
+		nearCachePsiCacheProvider.put("key0", "value0");
+		remoteCacheProvider.map.put("key1", "value1");
+
+		Map<String, String> entries = new HashMap<>();
+		for (int i = 0; i < 4; i++)
+			entries.put("key" + i, "value" + i);
+		// Existing keys are not stored again
+		assertEquals(2, nearCachePsiCacheProvider.putAll(entries));
+		assertEquals(entries, remoteCacheProvider.map);
+
+		remoteCacheProvider.map.put("key4", "value4");
+		Map<String, String> values = nearCachePsiCacheProvider.getAll(Arrays.asList("key0", "key3", "key4", "key5"));
+		assertEquals(3, values.size());
+		assertEquals("value4", values.get("key4"));
+		assertEquals(2, nearCachePsiCacheProvider.getNearHitCount());
+		assertEquals(1, nearCachePsiCacheProvider.getRemoteHitCount());
+		assertEquals(1, nearCachePsiCacheProvider.getRemoteMissCount());
+	}
+
+	@Test
+	void boundedSizeTest() {
+		CountingCacheProvider remoteCacheProvider = new CountingCacheProvider();
+		// Each entry weighs about 150 bytes, hence only a fraction of the 1000 entries is kept in memory
+		NearCachePsiCacheProvider nearCachePsiCacheProvider = new NearCachePsiCacheProvider(remoteCacheProvider, 15000);
+		for (int i = 0; i < 1000; i++)
+			nearCachePsiCacheProvider.put("key" + i, "value" + i);
+		assertTrue(nearCachePsiCacheProvider.size() <= 100);
+		assertEquals(1000, remoteCacheProvider.map.size());
+
+		// Evicted entries are still retrieved from the underlying provider
+		for (int i = 0; i < 1000; i++)
+			assertEquals(Optional.of("value" + i), nearCachePsiCacheProvider.get("key" + i));
+		assertTrue(nearCachePsiCacheProvider.getRemoteHitCount() >= 900);
+	}
+
+	@Test
+	void invalidateKeyTest() {
+		CountingCacheProvider remoteCacheProvider = new CountingCacheProvider();
+		NearCachePsiCacheProvider nearCachePsiCacheProvider = new NearCachePsiCacheProvider(remoteCacheProvider, 1 << 20, 3600);
+		ScopedPsiCacheProvider firstKeyCache = new ScopedPsiCacheProvider(nearCachePsiCacheProvider, 1);
+		ScopedPsiCacheProvider secondKeyCache = new ScopedPsiCacheProvider(nearCachePsiCacheProvider, 2);
+		firstKeyCache.put("value", "first");
+		secondKeyCache.put("value", "second");
+		assertEquals(2, nearCachePsiCacheProvider.size());
+
+		// The entries of the invalidated key are no longer served from memory
+		nearCachePsiCacheProvider.invalidateKey(1);
+		assertEquals(1, nearCachePsiCacheProvider.size());
+		remoteCacheProvider.map.remove(ScopedPsiCacheProvider.getNamespace(1) + "value");
+		assertEquals(Optional.empty(), firstKeyCache.get("value"));
+		assertEquals(Optional.of("second"), secondKeyCache.get("value"));
+	}
+
+	@Test
+	void discardedWritesTest() {
+		DroppingCacheProvider remoteCacheProvider = new DroppingCacheProvider();
+		NearCachePsiCacheProvider nearCachePsiCacheProvider = new NearCachePsiCacheProvider(remoteCacheProvider, 1 << 20);
+		remoteCacheProvider.map.put("key0", "value0");
+
+		// Entries discarded by the underlying provider are not kept in memory
+		Map<String, String> entries = new HashMap<>();
+		for (int i = 0; i < 4; i++)
+			entries.put("key" + i, "value" + i);
+		assertEquals(1, nearCachePsiCacheProvider.putAll(entries));
+		assertEquals(2, nearCachePsiCacheProvider.size());
+		assertEquals(Optional.empty(), nearCachePsiCacheProvider.get("key2"));
+		assertEquals(Optional.empty(), nearCachePsiCacheProvider.get("key3"));
+
+		// Nothing is kept in memory while the underlying provider is not available
+		remoteCacheProvider.available = false;
+		nearCachePsiCacheProvider.put("key4", "value4");
+		assertEquals(0, nearCachePsiCacheProvider.putAll(Collections.singletonMap("key5", "value5")));
+		assertEquals(2, nearCachePsiCacheProvider.size());
+	}
+
+	/**
+	 * Bulk provider storing at most two entries, as a write buffer which fills up, and discarding all the writes
+	 * while it is not available.
+	 */
+	private static class DroppingCacheProvider implements BulkPsiCacheProvider {
+
+		private final Map<String, String> map = new ConcurrentHashMap<>();
+
+		private volatile boolean available = true;
+
+		@Override
+		public Optional<String> get(String key) {
+			return available ? Optional.ofNullable(map.get(key)) : Optional.empty();
+		}
+
+		@Override
+		public void put(String key, String value) {
+			if (available && map.size() < 2)
+				map.putIfAbsent(key, value);
+		}
+
+		@Override
+		public Map<String, String> getAll(Collection<String> keys) {
+			Map<String, String> values = new HashMap<>();
+			for (String key : keys)
+				get(key).ifPresent(value -> values.put(key, value));
+			return values;
+		}
+
+		@Override
+		public int putAll(Map<String, String> entries) {
+			int stored = 0;
+			for (Map.Entry<String, String> entry : new TreeMap<>(entries).entrySet())
+				if (available && map.size() < 2 && map.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+					stored++;
+			return stored;
+		}
+
+		@Override
+		public long invalidateKey(long keyId) {
+			return 0;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return available;
+		}
+	}
+
+	private static class CountingCacheProvider implements PsiCacheProvider {
+
+		private final Map<String, String> map = new ConcurrentHashMap<>();
+
+		private final AtomicInteger getCount = new AtomicInteger();
+
+		@Override
+		public Optional<String> get(String key) {
+			getCount.incrementAndGet();
+			return Optional.ofNullable(map.get(key));
+		}
+
+		@Override
+		public void put(String key, String value) {
+			if (map.putIfAbsent(key, value) != null)
+				throw new CacheKeyAlreadyWrittenException();
+		}
+	}
+}
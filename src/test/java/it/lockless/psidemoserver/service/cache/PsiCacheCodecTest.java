@@ -0,0 +1,101 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PsiCacheCodecTest {
+
+	private final PsiCacheCodec psiCacheCodec = new PsiCacheCodec(256);
+
+	@Test
+	void valueTest() {
+		Random random = new Random(42);
+		String decimal = new BigInteger(2048, random).toString();
+		String base64 = Base64.getEncoder().encodeToString(new BigInteger(2048, random).toByteArray());
+		StringBuilder repeated = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			repeated.append("valore-€ ");
+		List<String> values = Arrays.asList(decimal, "-" + decimal, base64, repeated.toString(), "", "0", "-", "007", "-0",
+				"abcd", "ab==", "AB=C", "value");
+		for (String value : values)
+			assertEquals(value, psiCacheCodec.decodeValue(psiCacheCodec.encodeValue(value)), value);
+
+		// Big integers are stored as raw bytes, and compressible values are compressed
+		assertTrue(psiCacheCodec.encodeValue(decimal).length < decimal.length() / 2);
+		assertTrue(psiCacheCodec.encodeValue(base64).length < base64.length() * 4 / 5);
+		assertTrue(psiCacheCodec.encodeValue(repeated.toString()).length < 100);
+		assertEquals(PsiCacheCodec.FORMAT_TAG, psiCacheCodec.encodeValue(decimal)[0]);
+
+		// Values written as plain strings are still decoded
+		for (String value : values)
+			assertEquals(value, psiCacheCodec.decodeValue(value.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	void keyTest() {
+		String longKey = new BigInteger(2048, new Random(42)).toString();
+		String namespace = ScopedPsiCacheProvider.getNamespace(12);
+		byte[] encodedKey = psiCacheCodec.encodeKey(namespace + longKey);
+		// The namespace is kept, while the rest of the long key is replaced by its digest
+		assertEquals(namespace.length() + 1 + 32, encodedKey.length);
+		assertEquals(namespace, new String(encodedKey, 0, namespace.length(), StandardCharsets.UTF_8));
+		assertArrayEquals(encodedKey, psiCacheCodec.encodeKey(namespace + longKey));
+		assertFalse(Arrays.equals(encodedKey, psiCacheCodec.encodeKey(ScopedPsiCacheProvider.getNamespace(13) + longKey)));
+		assertFalse(Arrays.equals(encodedKey, psiCacheCodec.encodeKey(namespace + longKey + "0")));
+
+		// Short keys are stored as they are
+		assertEquals(namespace.length() + 1 + 5, psiCacheCodec.encodeKey(namespace + "12345").length);
+		assertEquals(7, psiCacheCodec.encodeKey("k12345").length);
+		assertEquals(4, ScopedPsiCacheProvider.getNamespaceLength("k12:"));
+		assertEquals(0, ScopedPsiCacheProvider.getNamespaceLength("k:12"));
+	}
+
+	@Test
+	void scopedCacheTest() {
+		Map<String, String> map = new HashMap<>();
+		BulkPsiCacheProvider psiCacheProvider = new BulkPsiCacheProvider() {
+			@Override
+			public Optional<String> get(String key) {
+				return Optional.ofNullable(map.get(key));
+			}
+
+			@Override
+			public void put(String key, String value) {
+				map.put(key, value);
+			}
+
+			@Override
+			public Map<String, String> getAll(Collection<String> keys) {
+				Map<String, String> values = new HashMap<>();
+				keys.forEach(key -> get(key).ifPresent(value -> values.put(key, value)));
+				return values;
+			}
+
+			@Override
+			public int putAll(Map<String, String> entries) {
+				int stored = 0;
+				for (Map.Entry<String, String> entry : entries.entrySet())
+					if (map.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+						stored++;
+				return stored;
+			}
+
+			@Override
+			public long invalidateKey(long keyId) {
+				return 0;
+			}
+		};
+		ScopedPsiCacheProvider firstKeyCache = new ScopedPsiCacheProvider(psiCacheProvider, 1);
+		ScopedPsiCacheProvider secondKeyCache = new ScopedPsiCacheProvider(psiCacheProvider, 2);
+		firstKeyCache.put("value", "first");
+		assertEquals(1, secondKeyCache.putAll(Collections.singletonMap("value", "second")));
+		assertEquals(Optional.of("first"), firstKeyCache.get("value"));
+		assertEquals(Collections.singletonMap("value", "second"), secondKeyCache.getAll(Collections.singletonList("value")));
+		assertEquals("first", map.get("k1:value"));
+	}
+}
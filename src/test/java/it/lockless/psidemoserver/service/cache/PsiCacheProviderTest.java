@@ -1,6 +1,5 @@
 package it.lockless.psidemoserver.service.cache;
 
-import it.lockless.psidemoserver.util.exception.CacheKeyAlreadyWrittenException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,12 +8,13 @@ import org.springframework.test.annotation.DirtiesContext;
 import psi.cache.PsiCacheProvider;
 
 import java.security.SecureRandom;
-import java.util.Optional;
+import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
 
-@SpringBootTest
+// The provider is tested without the admission policy, which would discard the writes of keys never looked up,
+// and without write-behind, so that writes are completed when the tested calls return
+@SpringBootTest(properties = {"cache.admission.min.frequency=0", "redis.write.behind.capacity=0"})
 @DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
 class PsiCacheProviderTest {
 
@@ -26,19 +26,67 @@ class PsiCacheProviderTest {
 
 	}
 
+	/**
+	 * @return true if the cache is reachable
+	 */
+	private boolean isCacheAvailable() {
+		return psiCacheProvider instanceof BulkPsiCacheProvider && ((BulkPsiCacheProvider) psiCacheProvider).isAvailable();
+	}
+
 	@Test
 	void cacheTest() {
-		if (psiCacheProvider != null) {
+		if (isCacheAvailable()) {
 			String key = "key" + (new SecureRandom()).nextLong();
 
 			psiCacheProvider.put(key, "value");
 			assertEquals(Optional.of("value"), psiCacheProvider.get(key));
 			assertEquals(Optional.empty(), psiCacheProvider.get("notAKey"));
 
-			assertThrows(CacheKeyAlreadyWrittenException.class, () -> {
-				psiCacheProvider.put(key, "value2");
-			});
+			// Duplicate writes are ignored
+			psiCacheProvider.put(key, "value2");
+			assertEquals(Optional.of("value"), psiCacheProvider.get(key));
 		}
 	}
 
+	@Test
+	void bulkCacheTest() {
+		if (isCacheAvailable()) {
+			BulkPsiCacheProvider bulkPsiCacheProvider = (BulkPsiCacheProvider) psiCacheProvider;
+			String prefix = "key" + (new SecureRandom()).nextLong() + ":";
+			Map<String, String> entries = new HashMap<>();
+			for (int i = 0; i < 2500; i++)
+				entries.put(prefix + i, "value" + i);
+			psiCacheProvider.put(prefix + 0, "value0");
+
+			// Existing keys are neither replaced nor reported as errors
+			assertEquals(2499, bulkPsiCacheProvider.putAll(entries));
+			assertEquals(0, bulkPsiCacheProvider.putAll(Collections.singletonMap(prefix + 1, "other")));
+
+			List<String> keys = new ArrayList<>(entries.keySet());
+			keys.add("notAKey");
+			assertEquals(entries, bulkPsiCacheProvider.getAll(keys));
+			assertEquals(Optional.of("value1"), psiCacheProvider.get(prefix + 1));
+		}
+	}
+
+	@Test
+	void invalidateKeyTest() {
+		if (isCacheAvailable()) {
+			BulkPsiCacheProvider bulkPsiCacheProvider = (BulkPsiCacheProvider) psiCacheProvider;
+			long keyId = (new SecureRandom()).nextLong() & Long.MAX_VALUE;
+			ScopedPsiCacheProvider keyCache = new ScopedPsiCacheProvider(psiCacheProvider, keyId);
+			ScopedPsiCacheProvider otherKeyCache = new ScopedPsiCacheProvider(psiCacheProvider, keyId + 1);
+			Map<String, String> entries = new HashMap<>();
+			for (int i = 0; i < 2500; i++)
+				entries.put("value" + i, "encryption" + i);
+			keyCache.putAll(entries);
+			otherKeyCache.putAll(entries);
+
+			// Only the entries of the invalidated key are removed
+			assertEquals(2500, bulkPsiCacheProvider.invalidateKey(keyId));
+			assertEquals(0, keyCache.getAll(entries.keySet()).size());
+			assertEquals(entries, otherKeyCache.getAll(entries.keySet()));
+			bulkPsiCacheProvider.invalidateKey(keyId + 1);
+		}
+	}
 }
@@ -0,0 +1,94 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedPsiCacheProviderTest {
+
+	private static final int NODES = 3;
+
+	private final List<FakeRedisServer> fakeRedisServers = new ArrayList<>();
+
+	private final Map<String, CircuitBreakerPsiCacheProvider> nodes = new LinkedHashMap<>();
+
+	@BeforeEach
+	void setup() throws IOException {
+		for (int i = 0; i < NODES; i++) {
+			FakeRedisServer fakeRedisServer = new FakeRedisServer();
+			fakeRedisServers.add(fakeRedisServer);
+			RedisPsiCacheProvider redisPsiCacheProvider = new RedisPsiCacheProvider("localhost", fakeRedisServer.getPort(), 1000, 100, 0, new PsiCacheCodec(256));
+			nodes.put("node" + i, new CircuitBreakerPsiCacheProvider(redisPsiCacheProvider, redisPsiCacheProvider::ping, 1, 100));
+		}
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		for (CircuitBreakerPsiCacheProvider node : nodes.values())
+			node.close();
+		for (FakeRedisServer fakeRedisServer : fakeRedisServers)
+			fakeRedisServer.close();
+	}
+
+	@Test
+	void shardingTest() throws InterruptedException {
+		ShardedPsiCacheProvider psiCacheProvider = new ShardedPsiCacheProvider(nodes, 160);
+		ScopedPsiCacheProvider keyCache = new ScopedPsiCacheProvider(psiCacheProvider, 1);
+		Map<String, String> entries = new HashMap<>();
+		for (int i = 0; i < 3000; i++)
+			entries.put("value" + i, "encryption" + i);
+		keyCache.put("value0", "encryption0");
+		assertEquals(2999, keyCache.putAll(entries));
+		assertEquals(entries, keyCache.getAll(entries.keySet()));
+		assertEquals(Optional.of("encryption1"), keyCache.get("value1"));
+
+		// Keys are evenly distributed over the nodes
+		for (FakeRedisServer fakeRedisServer : fakeRedisServers)
+			assertTrue(fakeRedisServer.size() > 700 && fakeRedisServer.size() < 1300, "Node size " + fakeRedisServer.size());
+
+		// A failed node only affects its own keys
+		fakeRedisServers.get(0).pause();
+		Map<String, String> values = keyCache.getAll(entries.keySet());
+		assertTrue(psiCacheProvider.isAvailable());
+		assertTrue(values.size() > 1700 && values.size() < 2300);
+		fakeRedisServers.get(0).resume();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!nodes.get("node0").isAvailable() && System.currentTimeMillis() < deadline)
+			Thread.sleep(20);
+		assertTrue(nodes.get("node0").isAvailable());
+
+		// The entries of a key are removed from all the nodes
+		assertEquals(3000, psiCacheProvider.invalidateKey(1));
+		for (FakeRedisServer fakeRedisServer : fakeRedisServers)
+			assertEquals(0, fakeRedisServer.size());
+	}
+
+	@Test
+	void remappingTest() {
+		ShardedPsiCacheProvider psiCacheProvider = new ShardedPsiCacheProvider(nodes, 160);
+		Map<String, CircuitBreakerPsiCacheProvider> lessNodes = new LinkedHashMap<>(nodes);
+		lessNodes.remove("node2");
+		ShardedPsiCacheProvider lessNodesPsiCacheProvider = new ShardedPsiCacheProvider(lessNodes, 160);
+
+		// Removing a node only moves its own keys, which are spread over the remaining nodes
+		int moved = 0;
+		Set<String> targets = new HashSet<>();
+		for (int i = 0; i < 10000; i++) {
+			String key = "k1:value" + i;
+			String node = psiCacheProvider.getNodeName(key);
+			String lessNodesNode = lessNodesPsiCacheProvider.getNodeName(key);
+			if (!node.equals(lessNodesNode)) {
+				assertEquals("node2", node);
+				targets.add(lessNodesNode);
+				moved++;
+			}
+		}
+		assertTrue(moved > 2500 && moved < 4200, "Moved " + moved);
+		assertEquals(2, targets.size());
+	}
+}
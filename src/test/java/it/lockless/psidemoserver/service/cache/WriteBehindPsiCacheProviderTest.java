@@ -0,0 +1,167 @@
+package it.lockless.psidemoserver.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindPsiCacheProviderTest {
+
+	/**
+	 * Provider whose writes wait until released, as those to a slow redis.
+	 */
+	private static class SlowPsiCacheProvider implements BulkPsiCacheProvider {
+
+		private final Map<String, String> map = new ConcurrentHashMap<>();
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public Optional<String> get(String key) {
+			return Optional.ofNullable(map.get(key));
+		}
+
+		@Override
+		public void put(String key, String value) {
+			putAll(Collections.singletonMap(key, value));
+		}
+
+		@Override
+		public Map<String, String> getAll(Collection<String> keys) {
+			Map<String, String> values = new HashMap<>();
+			for (String key : keys)
+				get(key).ifPresent(value -> values.put(key, value));
+			return values;
+		}
+
+		@Override
+		public int putAll(Map<String, String> entries) {
+			entered.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			batchSizes.add(entries.size());
+			int stored = 0;
+			for (Map.Entry<String, String> entry : entries.entrySet())
+				if (map.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+					stored++;
+			return stored;
+		}
+
+		@Override
+		public long invalidateKey(long keyId) {
+			String namespace = ScopedPsiCacheProvider.getNamespace(keyId);
+			long size = map.size();
+			map.keySet().removeIf(key -> key.startsWith(namespace));
+			return size - map.size();
+		}
+	}
+
+	/**
+	 * Writes a first key and waits until the flusher is busy writing it.
+	 */
+	private static void occupyFlusher(WriteBehindPsiCacheProvider psiCacheProvider, SlowPsiCacheProvider slowPsiCacheProvider) throws InterruptedException {
+		psiCacheProvider.put("first", "value");
+		assertTrue(slowPsiCacheProvider.entered.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void writeBehindTest() throws IOException {
+		try (FakeRedisServer fakeRedisServer = new FakeRedisServer()) {
+			RedisPsiCacheProvider redisPsiCacheProvider = new RedisPsiCacheProvider("localhost", fakeRedisServer.getPort(), 200, 100, 0, new PsiCacheCodec(256));
+			WriteBehindPsiCacheProvider psiCacheProvider = new WriteBehindPsiCacheProvider(redisPsiCacheProvider, 10000, 100, WriteBehindPsiCacheProvider.FullBufferPolicy.DROP);
+			ScopedPsiCacheProvider keyCache = new ScopedPsiCacheProvider(psiCacheProvider, 1);
+			Map<String, String> entries = new HashMap<>();
+			for (int i = 0; i < 2500; i++)
+				entries.put("value" + i, "encryption" + i);
+			keyCache.put("value0", "encryption0");
+			assertEquals(2499, keyCache.putAll(entries));
+
+			// Values are served whether they have been flushed or not
+			assertEquals(entries, keyCache.getAll(entries.keySet()));
+			assertEquals(Optional.of("encryption1"), keyCache.get("value1"));
+
+			// Closing flushes the queued writes
+			psiCacheProvider.close();
+			assertEquals(0, psiCacheProvider.getPendingCount());
+			assertEquals(2500, psiCacheProvider.getFlushedCount());
+			assertEquals(2500, fakeRedisServer.size());
+		}
+	}
+
+	@Test
+	void dropPolicyTest() throws IOException, InterruptedException {
+		SlowPsiCacheProvider slowPsiCacheProvider = new SlowPsiCacheProvider();
+		WriteBehindPsiCacheProvider psiCacheProvider = new WriteBehindPsiCacheProvider(slowPsiCacheProvider, 10, 4, WriteBehindPsiCacheProvider.FullBufferPolicy.DROP);
+		occupyFlusher(psiCacheProvider, slowPsiCacheProvider);
+
+		// Writes never wait: once the buffer is full, they are dropped
+		for (int i = 0; i < 100; i++)
+			psiCacheProvider.put("key" + i, "value" + i);
+		assertEquals(11, psiCacheProvider.getQueuedCount());
+		assertEquals(90, psiCacheProvider.getDroppedCount());
+		assertEquals(Optional.of("value9"), psiCacheProvider.get("key9"));
+		assertEquals(Optional.empty(), psiCacheProvider.get("key10"));
+
+		// Queued writes are flushed in batches
+		slowPsiCacheProvider.released.countDown();
+		psiCacheProvider.close();
+		assertEquals(11, slowPsiCacheProvider.map.size());
+		assertEquals(Arrays.asList(1, 4, 4, 2), slowPsiCacheProvider.batchSizes);
+	}
+
+	@Test
+	void blockPolicyTest() throws IOException, InterruptedException {
+		SlowPsiCacheProvider slowPsiCacheProvider = new SlowPsiCacheProvider();
+		WriteBehindPsiCacheProvider psiCacheProvider = new WriteBehindPsiCacheProvider(slowPsiCacheProvider, 2, 1, WriteBehindPsiCacheProvider.FullBufferPolicy.BLOCK);
+		occupyFlusher(psiCacheProvider, slowPsiCacheProvider);
+		CountDownLatch written = new CountDownLatch(1);
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 10; i++)
+				psiCacheProvider.put("key" + i, "value" + i);
+			written.countDown();
+		});
+		writer.start();
+
+		// Once the buffer is full, writes wait for the flusher
+		assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+		slowPsiCacheProvider.released.countDown();
+		assertTrue(written.await(5, TimeUnit.SECONDS));
+		psiCacheProvider.close();
+		assertEquals(0, psiCacheProvider.getDroppedCount());
+		assertEquals(11, slowPsiCacheProvider.map.size());
+	}
+
+	@Test
+	void invalidateKeyTest() throws IOException, InterruptedException {
+		SlowPsiCacheProvider slowPsiCacheProvider = new SlowPsiCacheProvider();
+		WriteBehindPsiCacheProvider psiCacheProvider = new WriteBehindPsiCacheProvider(slowPsiCacheProvider, 100, 100, WriteBehindPsiCacheProvider.FullBufferPolicy.DROP);
+		occupyFlusher(psiCacheProvider, slowPsiCacheProvider);
+		ScopedPsiCacheProvider keyCache = new ScopedPsiCacheProvider(psiCacheProvider, 1);
+		ScopedPsiCacheProvider otherKeyCache = new ScopedPsiCacheProvider(psiCacheProvider, 2);
+		for (int i = 0; i < 20; i++) {
+			keyCache.put("value" + i, "encryption" + i);
+			otherKeyCache.put("value" + i, "encryption" + i);
+		}
+
+		// The queued writes of an invalidated key are discarded
+		psiCacheProvider.invalidateKey(1);
+		assertEquals(Optional.empty(), keyCache.get("value0"));
+		slowPsiCacheProvider.released.countDown();
+		psiCacheProvider.close();
+		assertEquals(Optional.empty(), keyCache.get("value0"));
+		assertEquals(21, slowPsiCacheProvider.map.size());
+		assertEquals(Optional.of("encryption19"), otherKeyCache.get("value19"));
+	}
+}
@@ -0,0 +1,114 @@
+package it.lockless.psidemoserver.util.filter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MembershipFilterTest {
+
+    private static final int ELEMENTS = 20000;
+
+    private static MembershipFilter build(FilterType filterType, int elements) {
+        MembershipFilterBuilder membershipFilterBuilder = MembershipFilterBuilder.create(filterType, elements);
+        for (int i = 0; i < elements; i++)
+            membershipFilterBuilder.put("SERVER-" + i);
+        return membershipFilterBuilder.build();
+    }
+
+    private static void assertMembership(MembershipFilter membershipFilter, int elements, double maxFpp) {
+        for (int i = 0; i < elements; i++)
+            assertTrue(membershipFilter.mightContain("SERVER-" + i));
+        int falsePositives = 0;
+        for (int i = 0; i < elements; i++)
+            if (membershipFilter.mightContain("OTHER-" + i))
+                falsePositives++;
+        assertTrue((double) falsePositives / elements < maxFpp, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void staticFiltersTest() {
+        for (FilterType filterType : new FilterType[]{FilterType.XOR, FilterType.BINARY_FUSE}) {
+            MembershipFilter membershipFilter = build(filterType, ELEMENTS);
+            assertEquals(filterType, membershipFilter.getType());
+            assertMembership(membershipFilter, ELEMENTS, 0.01);
+            // About 1.23 (xor) and 1.13 (binary fuse) bytes per element
+            assertTrue(membershipFilter.toByteArray().length < ELEMENTS * 1.3);
+
+            MembershipFilter deserializedFilter = MembershipFilter.fromByteArray(filterType, membershipFilter.toByteArray());
+            assertMembership(deserializedFilter, ELEMENTS, 0.01);
+            assertArrayEquals(membershipFilter.toByteArray(), deserializedFilter.toByteArray());
+        }
+    }
+
+    @Test
+    void staticFiltersOfFewElementsTest() {
+        for (FilterType filterType : new FilterType[]{FilterType.XOR, FilterType.BINARY_FUSE}) {
+            assertFalse(build(filterType, 0).mightContain("SERVER-0"));
+            assertMembership(build(filterType, 1), 1, 1);
+            assertMembership(build(filterType, 10), 10, 1);
+        }
+    }
+
+    @Test
+    void cuckooFilterTest() {
+        CuckooFilter cuckooFilter = (CuckooFilter) build(FilterType.CUCKOO, ELEMENTS);
+        assertEquals(ELEMENTS, cuckooFilter.getCount());
+        assertMembership(cuckooFilter, ELEMENTS, 0.001);
+
+        CuckooFilter deserializedFilter = CuckooFilter.fromByteArray(cuckooFilter.toByteArray());
+        assertMembership(deserializedFilter, ELEMENTS, 0.001);
+
+        // Deleted elements are no longer contained, while the others are unaffected
+        for (int i = 0; i < ELEMENTS; i += 2)
+            assertTrue(deserializedFilter.remove("SERVER-" + i));
+        assertEquals(ELEMENTS / 2, deserializedFilter.getCount());
+        int stillContained = 0;
+        for (int i = 0; i < ELEMENTS; i++) {
+            if (i % 2 == 1)
+                assertTrue(deserializedFilter.mightContain("SERVER-" + i));
+            else if (deserializedFilter.mightContain("SERVER-" + i))
+                stillContained++;
+        }
+        assertTrue(stillContained < ELEMENTS / 1000);
+    }
+
+    @Test
+    void cuckooFilterFullTest() {
+        CuckooFilter cuckooFilter = CuckooFilter.create(100);
+        int inserted = 0;
+        while (cuckooFilter.put("SERVER-" + inserted))
+            inserted++;
+        // Once full, no element is inserted until an element is deleted
+        assertTrue(inserted >= 100);
+        assertFalse(cuckooFilter.put("OTHER-0"));
+        for (int i = 0; i < inserted; i++)
+            assertTrue(cuckooFilter.mightContain("SERVER-" + i));
+        assertTrue(cuckooFilter.remove("SERVER-0"));
+        assertTrue(cuckooFilter.put("OTHER-0"));
+    }
+
+    @Test
+    void cuckooFilterDuplicatesTest() {
+        // The copies of a value beyond MAX_COPIES are not stored, hence they do not make the filter full
+        MembershipFilterBuilder membershipFilterBuilder = MembershipFilterBuilder.create(FilterType.CUCKOO, 120);
+        for (int i = 0; i < 100; i++)
+            membershipFilterBuilder.put("SERVER-0");
+        for (int i = 1; i < 20; i++)
+            membershipFilterBuilder.put("SERVER-" + i);
+        MembershipFilterBuilder otherMembershipFilterBuilder = MembershipFilterBuilder.create(FilterType.CUCKOO, 120);
+        for (int i = 0; i < 10; i++)
+            otherMembershipFilterBuilder.put("SERVER-0");
+        membershipFilterBuilder.putAll(otherMembershipFilterBuilder);
+        CuckooFilter cuckooFilter = (CuckooFilter) membershipFilterBuilder.build();
+        assertEquals(19 + CuckooFilter.MAX_COPIES, cuckooFilter.getCount());
+        assertMembership(cuckooFilter, 20, 0.01);
+
+        // Removing all the copies of a value deletes the stored ones only
+        assertEquals(CuckooFilter.MAX_COPIES, cuckooFilter.removeCopies("SERVER-0", 110));
+        assertFalse(cuckooFilter.mightContain("SERVER-0"));
+        assertEquals(1, cuckooFilter.removeCopies("SERVER-1", 1));
+        assertEquals(18, cuckooFilter.getCount());
+        for (int i = 2; i < 20; i++)
+            assertTrue(cuckooFilter.mightContain("SERVER-" + i));
+    }
+}